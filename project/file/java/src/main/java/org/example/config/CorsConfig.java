@@ -20,6 +20,7 @@ public class CorsConfig {
         corsConfiguration.addAllowedOrigin("http://localhost:3000"); // 1 设置前端的访问源地址
         corsConfiguration.addAllowedHeader("*"); // 2 设置访问源请求头
         corsConfiguration.addAllowedMethod("*"); // 3 设置访问源请求方法
+        corsConfiguration.addExposedHeader("X-Next-Cursor"); // 允许前端读取分页游标
         corsConfiguration.setMaxAge(MAX_AGE);
         source.registerCorsConfiguration("/**", corsConfiguration); // 4 对接口配置跨域设置
         return new CorsFilter(source);
@@ -0,0 +1,217 @@
+package org.example.config;
+
+// MultipartShapingFilter.java
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.MultipartConfigElement;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.Part;
+import org.apache.catalina.core.ApplicationPart;
+import org.apache.tomcat.util.http.fileupload.FileItem;
+import org.apache.tomcat.util.http.fileupload.FileUpload;
+import org.apache.tomcat.util.http.fileupload.FileUploadException;
+import org.apache.tomcat.util.http.fileupload.disk.DiskFileItemFactory;
+import org.apache.tomcat.util.http.fileupload.servlet.ServletRequestContext;
+import org.example.service.TransferScheduler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * multipart 上传限速：容器自带的 multipart 解析直接读取连接上的输入流，在控制器运行前就已接收完整个请求体，
+ * 无法在控制器中计量。这里在过滤器中改为从经过 TransferScheduler 的输入流解析各个 part，
+ * 解析方式、临时文件与大小限制与容器相同（spring.servlet.multipart.*）。
+ * <p>
+ * 表单字段与查询参数由包装后的请求提供，不再调用容器的参数解析，否则容器会绕过限速再解析一次请求体。
+ * 排在其他过滤器之前，只晚于设置字符集的过滤器。
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class MultipartShapingFilter extends OncePerRequestFilter {
+
+    // 与 Tomcat 默认的 maxParameterCount 相同
+    private static final int MAX_PARTS = 10000;
+
+    private final TransferScheduler transferScheduler;
+    private final MultipartConfigElement multipartConfig;
+
+    public MultipartShapingFilter(TransferScheduler transferScheduler,
+                                  ObjectProvider<MultipartConfigElement> multipartConfig) {
+        this.transferScheduler = transferScheduler;
+        this.multipartConfig = multipartConfig.getIfAvailable();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return multipartConfig == null || !"POST".equals(request.getMethod())
+                || contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        try (TransferScheduler.Transfer transfer = transferScheduler.open(request, TransferScheduler.UPLOAD,
+                request.getContentLengthLong())) {
+            ShapedMultipartRequest shaped = new ShapedMultipartRequest(transfer.request(request));
+            try {
+                chain.doFilter(shaped, response);
+            } finally {
+                shaped.deleteParts();
+            }
+        }
+    }
+
+    private final class ShapedMultipartRequest extends HttpServletRequestWrapper {
+        private List<Part> parts;
+        private Map<String, String[]> parameters;
+
+        ShapedMultipartRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public Collection<Part> getParts() throws IOException, ServletException {
+            if (parts == null) {
+                parts = parseParts();
+            }
+            return parts;
+        }
+
+        @Override
+        public Part getPart(String name) throws IOException, ServletException {
+            for (Part part : getParts()) {
+                if (part.getName().equals(name)) {
+                    return part;
+                }
+            }
+            return null;
+        }
+
+        private List<Part> parseParts() throws IOException {
+            File location = uploadLocation();
+            DiskFileItemFactory factory = new DiskFileItemFactory();
+            factory.setRepository(location.getCanonicalFile());
+            factory.setSizeThreshold(multipartConfig.getFileSizeThreshold());
+            FileUpload upload = new FileUpload();
+            upload.setFileItemFactory(factory);
+            upload.setFileSizeMax(multipartConfig.getMaxFileSize());
+            upload.setSizeMax(multipartConfig.getMaxRequestSize());
+            upload.setFileCountMax(MAX_PARTS);
+
+            List<Part> result = new ArrayList<>();
+            try {
+                // 从包装后的请求读取，即经过限速的输入流
+                for (FileItem item : upload.parseRequest(new ServletRequestContext(this))) {
+                    result.add(new ApplicationPart(item, location));
+                }
+            } catch (FileUploadException e) {
+                for (Part part : result) {
+                    part.delete();
+                }
+                // 与容器相同，由 Spring 按异常信息识别超出大小限制
+                throw new IllegalStateException(e);
+            }
+            return result;
+        }
+
+        private File uploadLocation() throws IOException {
+            File tempDir = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+            String configured = multipartConfig.getLocation();
+            File location;
+            if (configured == null || configured.isEmpty()) {
+                location = tempDir;
+            } else {
+                location = new File(configured);
+                if (!location.isAbsolute()) {
+                    location = new File(tempDir, configured).getAbsoluteFile();
+                }
+            }
+            if (location == null || !location.isDirectory()) {
+                throw new IOException("上传临时目录不存在: " + location);
+            }
+            return location;
+        }
+
+        void deleteParts() throws IOException {
+            if (parts != null) {
+                for (Part part : parts) {
+                    part.delete();
+                }
+            }
+        }
+
+        @Override
+        public String getParameter(String name) {
+            String[] values = parameters().get(name);
+            return values == null ? null : values[0];
+        }
+
+        @Override
+        public String[] getParameterValues(String name) {
+            String[] values = parameters().get(name);
+            return values == null ? null : values.clone();
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            return Collections.unmodifiableMap(parameters());
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            return Collections.enumeration(parameters().keySet());
+        }
+
+        // 查询参数在前，表单字段在后，与容器的顺序相同
+        private Map<String, String[]> parameters() {
+            if (parameters != null) {
+                return parameters;
+            }
+            Map<String, List<String>> values = new LinkedHashMap<>();
+            String query = getQueryString();
+            if (query != null) {
+                for (String pair : query.split("&")) {
+                    if (pair.isEmpty()) {
+                        continue;
+                    }
+                    int eq = pair.indexOf('=');
+                    try {
+                        String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+                        String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                        values.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+                    } catch (IllegalArgumentException e) {
+                        // 编码错误的参数与容器一样忽略
+                    }
+                }
+            }
+            String encoding = getCharacterEncoding() != null ? getCharacterEncoding() : "UTF-8";
+            try {
+                for (Part part : getParts()) {
+                    if (part.getSubmittedFileName() == null) {
+                        values.computeIfAbsent(part.getName(), k -> new ArrayList<>())
+                                .add(((ApplicationPart) part).getString(encoding));
+                    }
+                }
+            } catch (IOException | ServletException e) {
+                throw new IllegalStateException(e);
+            }
+            Map<String, String[]> result = new LinkedHashMap<>();
+            values.forEach((name, list) -> result.put(name, list.toArray(new String[0])));
+            parameters = result;
+            return parameters;
+        }
+    }
+}
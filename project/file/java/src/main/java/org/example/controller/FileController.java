@@ -2,37 +2,169 @@ package org.example.controller;
 
 // FileController.java
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.apache.commons.io.FileUtils;
 import org.example.model.FileInfo;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import org.example.service.BatchRunner;
+import org.example.service.ChangeFeed;
+import org.example.service.ChangeJournal;
+import org.example.service.ChecksumService;
+import org.example.service.ChunkedUploadService;
+import org.example.service.ContentStore;
+import org.example.service.DeltaUploadService;
+import org.example.service.DirectoryArchiver;
+import org.example.service.DirectoryLister;
+import org.example.service.DirectoryListingCache;
+import org.example.service.DirectoryUsage;
+import org.example.service.JobService;
+import org.example.service.ParallelUploadWriter;
+import org.example.service.PathLocks;
+import org.example.service.RangeFileSender;
+import org.example.service.RawUploadService;
+import org.example.service.SearchIndex;
+import org.example.service.ThumbnailService;
+import org.example.service.TreeCopier;
+import org.example.service.TransferScheduler;
+import org.example.service.TreeOperations;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 @RestController
 public class FileController {
 
-    // 基础路径应通过配置文件读取
-    private static final Path BASE_PATH = Paths.get("E:/study/java/data").normalize().toAbsolutePath();
+    // 基础路径与各服务使用同一配置项 file.base-path（配置文件、环境变量或启动参数均可设置）
+    private final Path basePath;
+
+    // 分页大小
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-CRC32C";
+
+    @Autowired
+    private DirectoryListingCache listingCache;
+
+    @Autowired
+    private DirectoryLister directoryLister;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RangeFileSender rangeFileSender;
+
+    @Autowired
+    private DirectoryArchiver directoryArchiver;
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private RawUploadService rawUploadService;
+
+    @Autowired
+    private ParallelUploadWriter parallelUploadWriter;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ChecksumService checksumService;
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    @Autowired
+    private DirectoryUsage directoryUsage;
+
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private BatchRunner batchRunner;
+
+    @Autowired
+    private TreeCopier treeCopier;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    @Autowired
+    private ChangeJournal changeJournal;
+
+    @Autowired
+    private DeltaUploadService deltaUploadService;
+
+    @Autowired
+    private PathLocks pathLocks;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @Value("${file.http.listing-cache-control:no-cache}")
+    private String listingCacheControl;
+
+    @Value("${file.checksum.wait-ms:2000}")
+    private long checksumWaitMs;
+
+    @Value("${file.batch.max-operations:1000}")
+    private int batchMaxOperations;
+
+    @Value("${file.copy.sync-max-bytes:16777216}")
+    private long copySyncMaxBytes;
+
+    @Value("${file.delete.sync-max-entries:1000}")
+    private int deleteSyncMaxEntries;
+
+    @Value("${file.thumbnail.wait-ms:10000}")
+    private long thumbnailWaitMs;
+
+    @Value("${file.thumbnail.cache-control:no-cache}")
+    private String thumbnailCacheControl;
+
+    @Value("${file.watch.timeout-ms:1800000}")
+    private long watchTimeoutMs;
+
+    public FileController(@Value("${file.base-path:E:/study/java/data}") String basePath) {
+        this.basePath = Paths.get(basePath).normalize().toAbsolutePath();
+    }
 
     @GetMapping("/api/files")
     public ResponseEntity<?> listFiles(
-            @RequestParam(required = false) String path  // 移除默认值
+            @RequestParam(required = false) String path,  // 移除默认值
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String sort,
+            HttpServletRequest request,
+            HttpServletResponse response
     ) {
         try {
             // 处理空路径的情况
@@ -40,32 +172,260 @@ public class FileController {
 
             // 安全解析路径
             Path currentPath = resolveAndValidatePath(safePath,true,true);
+            DirectoryLister.SortField sortField = DirectoryLister.SortField.parse(sort);
 
-            // 获取文件列表
-            List<FileInfo> files = Files.list(currentPath)
-                    .sorted((p1, p2) -> {
-                        // 目录优先排序
-                        boolean isDir1 = Files.isDirectory(p1);
-                        boolean isDir2 = Files.isDirectory(p2);
-                        if (isDir1 != isDir2) {
-                            return isDir1 ? -1 : 1;
-                        }
-                        return p1.getFileName().toString()
-                                .compareToIgnoreCase(p2.getFileName().toString());
-                    })
-                    .map(this::convertToFileInfo)
-                    .collect(Collectors.toList());
+            // 默认请求：获取完整文件列表（命中缓存时不访问磁盘）
+            if (limit == null && cursor == null && sortField == DirectoryLister.SortField.NAME) {
+                List<FileInfo> files = listingCache.get(currentPath, this::readDirectory);
+                return listingResponse(currentPath, files, null);
+            }
+
+            // 按目录顺序：边读取目录边写入响应，内存与目录大小无关；输出前不知道内容，不带校验值
+            if (limit == null && cursor == null && sortField == DirectoryLister.SortField.NONE) {
+                Map<String, Long> sizes = directoryUsage.childDirectorySizes(currentPath);
+                response.setHeader(HttpHeaders.CACHE_CONTROL, "no-store");
+                writeListing(response, sizes, consumer -> directoryLister.forEach(currentPath, consumer));
+                return null;
+            }
+
+            // 仅指定排序：排序需要读完整个目录，只保留紧凑的条目，JSON 逐项写入响应
+            if (limit == null && cursor == null) {
+                List<DirectoryLister.Entry> entries = directoryLister.listAll(currentPath, sortField);
+                Map<String, Long> sizes = directoryUsage.childDirectorySizes(currentPath);
+                long hash = 1125899906842597L;
+                long lastModified = Files.getLastModifiedTime(currentPath).toMillis();
+                for (DirectoryLister.Entry entry : entries) {
+                    hash = 31 * hash + entry.hashCode();
+                    hash = 31 * hash + Objects.hashCode(entry.directory() ? sizes.get(entry.name()) : null);
+                    lastModified = Math.max(lastModified, entry.modifiedTime());
+                }
+                response.setHeader(HttpHeaders.CACHE_CONTROL, listingCacheControl);
+                if (new ServletWebRequest(request, response)
+                        .checkNotModified("W/\"" + Long.toHexString(hash) + "\"", lastModified)) {
+                    return null;
+                }
+                writeListing(response, sizes, consumer -> {
+                    for (DirectoryLister.Entry entry : entries) {
+                        consumer.accept(entry);
+                    }
+                });
+                return null;
+            }
 
-            return ResponseEntity.ok(files);
+            // 分页请求：只保留当前页，下一页游标通过响应头返回
+            int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+            if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+                return ResponseEntity.badRequest().body("分页参数无效");
+            }
+            DirectoryLister.Page page = directoryLister.listPage(currentPath, sortField, cursor, pageSize);
+            return fileInfoResponse(currentPath, page.entries(), page.nextCursor());
 
         } catch (SecurityException e) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
         } catch (NoSuchFileException e) {
             return ResponseEntity.notFound().build();
         } catch (IOException e) {
+            // 流式输出的列表已经开始发送时无法再改为错误响应
+            if (response.isCommitted()) {
+                return null;
+            }
             return ResponseEntity.internalServerError().body("Error reading directory");
         } catch (InvalidPathException e) {
             return ResponseEntity.badRequest().body("Invalid path format");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    private interface ListingSource {
+        void forEach(DirectoryLister.EntryConsumer consumer) throws IOException;
+    }
+
+    /**
+     * 以 JSON 数组逐项写出列表，格式与 List&lt;FileInfo&gt; 的序列化结果相同，
+     * 每次只构造当前条目的 FileInfo。尚未发送任何内容时出错会清空响应，由调用方返回错误。
+     */
+    private void writeListing(HttpServletResponse response, Map<String, Long> sizes, ListingSource source)
+            throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        JsonGenerator json = objectMapper.getFactory().createGenerator(response.getOutputStream());
+        try {
+            json.writeStartArray();
+            source.forEach(entry -> json.writeObject(toFileInfo(entry, sizes)));
+            json.writeEndArray();
+        } catch (IOException | RuntimeException e) {
+            if (!response.isCommitted()) {
+                response.reset();
+            }
+            throw e;
+        }
+        json.close();
+    }
+
+    // 条目只转换一次：计算 ETag 和 Jackson 序列化都会完整遍历列表
+    private ResponseEntity<List<FileInfo>> fileInfoResponse(Path dir, List<DirectoryLister.Entry> entries,
+                                                            String nextCursor) throws IOException {
+        List<FileInfo> files = new ArrayList<>(entries.size());
+        for (DirectoryLister.Entry entry : entries) {
+            files.add(toFileInfo(entry));
+        }
+        return listingResponse(dir, files, nextCursor);
+    }
+
+    /**
+     * 列表响应附带校验值：ETag 为列表内容（名称、类型、大小、修改时间）的弱哈希，
+     * Last-Modified 取目录及各条目修改时间的最大值，都只使用内存中的列表。
+     * 请求带 If-None-Match / If-Modified-Since 且未变化时由 Spring 直接返回 304。
+     */
+    private ResponseEntity<List<FileInfo>> listingResponse(Path dir, List<FileInfo> listed, String nextCursor)
+            throws IOException {
+        List<FileInfo> files = withDirectorySizes(dir, listed);
+        long hash = 1125899906842597L;
+        long lastModified = Files.getLastModifiedTime(dir).toMillis();
+        for (FileInfo file : files) {
+            hash = 31 * hash + file.hashCode();
+            lastModified = Math.max(lastModified, file.modifiedTime());
+        }
+        if (nextCursor != null) {
+            hash = 31 * hash + nextCursor.hashCode();
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .eTag("W/\"" + Long.toHexString(hash) + "\"")
+                .lastModified(lastModified)
+                .header(HttpHeaders.CACHE_CONTROL, listingCacheControl);
+        if (nextCursor != null) {
+            builder.header(NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return builder.body(files);
+    }
+
+    /**
+     * 目录条目的大小替换为目录统计中的子树总大小。只在响应时叠加，
+     * 不写入列表缓存：子树深处的变化不会使上层目录的列表缓存失效。
+     */
+    private List<FileInfo> withDirectorySizes(Path dir, List<FileInfo> files) {
+        Map<String, Long> sizes = directoryUsage.childDirectorySizes(dir);
+        if (sizes.isEmpty()) {
+            return files;
+        }
+        List<FileInfo> result = new ArrayList<>(files.size());
+        for (FileInfo file : files) {
+            Long size = file.isDirectory() ? sizes.get(file.name()) : null;
+            result.add(size == null ? file
+                    : new FileInfo(file.name(), true, formatSize(size), file.modifiedTime()));
+        }
+        return result;
+    }
+
+    /**
+     * 目录变化推送（SSE）：连接建立后先收到 ready 事件，之后按批收到 change 事件
+     * {"events":[{"type":"create|modify|delete|rename","name":...,"from":...}]}；
+     * 收到 resync 时需重新获取列表。超时断开后由浏览器的 EventSource 自动重连。
+     */
+    @GetMapping("/api/files/watch")
+    public ResponseEntity<SseEmitter> watchDirectory(@RequestParam(required = false) String path) {
+        Path dirPath;
+        try {
+            dirPath = resolveAndValidatePath(path == null ? "" : path, true, true);
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+        if (!Files.isDirectory(dirPath)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        SseEmitter emitter = new SseEmitter(watchTimeoutMs);
+        ChangeFeed.Subscription subscription;
+        try {
+            subscription = changeFeed.subscribe(dirPath, new ChangeFeed.Sink() {
+                @Override
+                public void send(String event, Object data) throws IOException {
+                    emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+                }
+
+                @Override
+                public void heartbeat() throws IOException {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                }
+
+                @Override
+                public void close() {
+                    emitter.complete();
+                }
+            });
+        } catch (RejectedExecutionException | IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .build();
+        }
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                // 反向代理（如 nginx）不缓冲事件流
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+
+    /**
+     * 增量同步：返回令牌之后新增、修改、删除的路径（相对基础目录），每个路径一条。
+     * 不带 since 时只返回当前令牌；令牌过期（超出保留时长、事件丢失或服务重启）时返回 410，
+     * 客户端应先记下响应中的新令牌，再完整遍历一次。more 为 true 时用返回的令牌继续获取。
+     */
+    @GetMapping("/api/files/changes")
+    public ResponseEntity<?> listChanges(
+            @RequestParam(required = false) String since,
+            @RequestParam(required = false) Integer limit
+    ) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : limit;
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(Map.of("error", "分页参数无效"));
+        }
+        ChangeJournal.Changes changes = changeJournal.since(since, pageSize);
+        if (changes.resync() && since != null) {
+            return ResponseEntity.status(HttpStatus.GONE)
+                    .body(Map.of("error", "变更记录已过期，需要完整同步", "resync", true, "token", changes.token()));
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .body(changes);
+    }
+
+    // 目录占用：子树的总字节数、文件数与目录数，直接读取索引中的汇总值
+    @GetMapping("/api/files/usage")
+    public ResponseEntity<?> directoryUsage(@RequestParam(required = false) String path) {
+        try {
+            Path dirPath = resolveAndValidatePath(path == null ? "" : path, true, true);
+            if (!Files.isDirectory(dirPath)) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "只能统计目录"));
+            }
+            if (!directoryUsage.isEnabled()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .body(Map.of("error", "目录统计未启用"));
+            }
+            DirectoryUsage.Usage usage = directoryUsage.usage(dirPath);
+            if (usage == null) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "5")
+                        .body(Map.of("error", "目录统计尚未就绪"));
+            }
+            return ResponseEntity.ok(usage);
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "路径不存在"));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", e.getMessage()));
         }
     }
 
@@ -73,13 +433,7 @@ public class FileController {
     public ResponseEntity<?> deleteFile(@RequestParam String path) {
         try {
             Path filePath = resolveAndValidatePath(path,true,true);
-            if (Files.isDirectory(filePath)) {
-                FileUtils.deleteDirectory(filePath.toFile()); // 处理非空目录
-            } else {
-                Files.delete(filePath);
-            }
-
-            return ResponseEntity.ok().build();
+            return deletePath(path, filePath);
         } catch (SecurityException e) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
         } catch (NoSuchFileException e) {
@@ -93,6 +447,106 @@ public class FileController {
                     .body(Map.of("error", "删除失败：" + e.getMessage()));
         }
     }
+
+    private ResponseEntity<?> deletePath(String path, Path filePath) throws IOException {
+        PathLocks.Lease lease = pathLocks.exclusive(filePath);
+        try {
+            // 大目录先移入暂存区立即从视图中消失，逐个删除交给后台任务；文件和小目录在请求内直接删除
+            if (Files.isDirectory(filePath)
+                    && TreeOperations.countEntries(filePath, deleteSyncMaxEntries) > deleteSyncMaxEntries) {
+                return deleteDirectoryInBackground(path, filePath);
+            }
+            // 去重存储中被这些文件引用的对象，删除后若已无链接则回收
+            Set<Path> linkedObjects = contentStore.linkedObjects(filePath);
+            try {
+                TreeOperations.deleteTree(filePath);
+            } finally {
+                contentStore.release(linkedObjects);
+                if (Files.exists(filePath, LinkOption.NOFOLLOW_LINKS)) {
+                    // 目录只删除了一部分
+                    searchIndex.refresh(filePath);
+                    changeJournal.refreshed(filePath);
+                } else {
+                    searchIndex.remove(filePath);
+                    changeJournal.removed(filePath);
+                }
+                listingCache.invalidateTree(filePath);
+                listingCache.invalidate(filePath.getParent());
+            }
+            return ResponseEntity.ok().build();
+        } finally {
+            lease.close();
+        }
+    }
+
+    private ResponseEntity<?> deleteDirectoryInBackground(String path, Path dir) {
+        Path staged = jobService.stage(dir);
+        if (staged != null) {
+            searchIndex.remove(dir);
+            changeJournal.removed(dir);
+            listingCache.invalidateTree(dir);
+            listingCache.invalidate(dir.getParent());
+        }
+        // 暂存失败（如不在同一文件系统）时原地删除，完成前目录仍可见，删除期间持有该目录的排他锁
+        Path victim = staged != null ? staged : dir;
+        try {
+            JobService.Job job = jobService.submit("delete", path, j -> {
+                PathLocks.Lease inPlace = staged == null ? pathLocks.exclusive(dir) : null;
+                try {
+                    runDelete(dir, staged, victim, j);
+                } finally {
+                    if (inPlace != null) {
+                        inPlace.close();
+                    }
+                }
+            });
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toMap());
+        } catch (RejectedExecutionException e) {
+            if (staged != null) {
+                try {
+                    Files.move(staged, dir, StandardCopyOption.ATOMIC_MOVE);
+                    searchIndex.refresh(dir);
+                    changeJournal.created(dir);
+                    listingCache.invalidate(dir.getParent());
+                } catch (IOException moveBack) {
+                    System.err.println("暂存目录无法还原，将在下次启动时清理: " + staged);
+                }
+            }
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(Map.of("error", "后台任务已满，请稍后重试"));
+        }
+    }
+
+    // 后台删除任务的主体：victim 为暂存后的路径，暂存失败时即 dir 本身
+    private void runDelete(Path dir, Path staged, Path victim, JobService.Job job) throws IOException {
+        Set<Path> linkedObjects = contentStore.linkedObjects(victim);
+        try {
+            TreeOperations.deleteTree(victim, job);
+        } catch (CancellationException e) {
+            // 取消后把尚未删除的部分放回原处
+            if (staged != null) {
+                PathLocks.Lease lease = pathLocks.exclusive(dir);
+                try {
+                    if (!Files.exists(dir)) {
+                        Files.move(staged, dir, StandardCopyOption.ATOMIC_MOVE);
+                    }
+                } finally {
+                    lease.close();
+                }
+            }
+            throw e;
+        } finally {
+            contentStore.release(linkedObjects);
+            if (staged == null || Files.exists(dir)) {
+                searchIndex.refresh(dir);
+                changeJournal.refreshed(dir);
+                listingCache.invalidateTree(dir);
+                listingCache.invalidate(dir.getParent());
+            }
+        }
+    }
+
     @PutMapping("/api/files")
     public ResponseEntity<?> renameFile(
             @RequestBody Map<String, String> requestBody
@@ -121,30 +575,517 @@ public class FileController {
                 throw new AccessDeniedException("无写入权限");
             }
 
-            // 检查文件冲突
+            return movePath(requestBody.get("oldPath"), source, target);
+
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "路径不存在"));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "操作失败: " + e.getMessage()));
+        }
+    }
+
+    private ResponseEntity<?> movePath(String path, Path source, Path target) throws IOException {
+        PathLocks.Lease lease = pathLocks.exclusive(source, target);
+        try {
+            // 检查文件冲突；持有锁期间其他接口操作无法在检查之后抢先创建目标
+            if (!Files.exists(source, LinkOption.NOFOLLOW_LINKS)) {
+                throw new NoSuchFileException("路径不存在");
+            }
             if (Files.exists(target)) {
                 return ResponseEntity.status(HttpStatus.CONFLICT)
                         .body(Map.of("error", "目标文件已存在"));
             }
 
-            // 执行重命名
-            Files.move(source, target);
+            // 执行重命名；跨文件系统无法原子移动时转为后台复制再删除
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                return moveInBackground(path, source, target);
+            }
+            searchIndex.move(source, target);
+            changeJournal.moved(source, target);
+            listingCache.invalidateTree(source);
+            listingCache.invalidate(source.getParent());
+            listingCache.invalidate(target.getParent());
             return ResponseEntity.ok().build();
+        } finally {
+            lease.close();
+        }
+    }
+
+    private ResponseEntity<?> moveInBackground(String path, Path source, Path target) {
+        try {
+            JobService.Job job = jobService.submit("move", path, j -> {
+                // 锁由任务自己获取：排队期间被取消的任务不会执行，也就不会留下未释放的锁
+                PathLocks.Lease lease = pathLocks.exclusive(source, target);
+                try {
+                    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                        throw new FileAlreadyExistsException("目标文件已存在");
+                    }
+                    Set<Path> linkedObjects = contentStore.linkedObjects(source);
+                    boolean copied = false;
+                    try {
+                        treeCopier.copy(source, target, j);
+                        copied = true;
+                        TreeOperations.deleteTree(source, j);
+                        contentStore.release(linkedObjects);
+                    } finally {
+                        if (!copied && Files.exists(target)) {
+                            // 复制未完成：清掉半成品，源保持不变
+                            FileUtils.deleteQuietly(target.toFile());
+                        }
+                        searchIndex.refresh(source);
+                        searchIndex.refresh(target);
+                        changeJournal.refreshed(source);
+                        if (copied) {
+                            changeJournal.created(target);
+                        }
+                        listingCache.invalidateTree(source);
+                        listingCache.invalidate(source.getParent());
+                        listingCache.invalidate(target.getParent());
+                    }
+                } finally {
+                    lease.close();
+                }
+            });
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toMap());
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(Map.of("error", "后台任务已满，请稍后重试"));
+        }
+    }
+
+    // 服务端复制：小文件直接复制，目录和大文件作为后台任务执行并返回任务信息
+    @PostMapping("/api/files/copy")
+    public ResponseEntity<?> copyFile(
+            @RequestBody Map<String, String> requestBody
+    ) {
+        try {
+            String sourcePath = requestBody.get("source");
+            Path source = resolveAndValidatePath(sourcePath, true, true);
+            Path target = resolveAndValidatePath(requestBody.get("target"), false, false);
+
+            Path parentDir = target.getParent();
+            if (!Files.exists(parentDir)) {
+                throw new NoSuchFileException("目标目录不存在");
+            }
+            if (!Files.isWritable(parentDir)) {
+                throw new AccessDeniedException("无写入权限");
+            }
+            if (target.startsWith(source)) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "不能复制到自身内部"));
+            }
+
+            PathLocks.Lease checkLease = pathLocks.lock(List.of(source), List.of(target));
+            try {
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT)
+                            .body(Map.of("error", "目标文件已存在"));
+                }
+                if (!Files.isDirectory(source) && Files.size(source) <= copySyncMaxBytes) {
+                    Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                    searchIndex.refresh(target);
+                    changeJournal.created(target);
+                    listingCache.invalidate(parentDir);
+                    return ResponseEntity.status(HttpStatus.CREATED).build();
+                }
+            } finally {
+                checkLease.close();
+            }
+
+            JobService.Job job = jobService.submit("copy", sourcePath, j -> {
+                PathLocks.Lease lease = pathLocks.lock(List.of(source), List.of(target));
+                try {
+                    // 提交后到开始执行之间目标可能已被创建，不能当作半成品清掉
+                    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                        throw new FileAlreadyExistsException("目标文件已存在");
+                    }
+                    boolean copied = false;
+                    try {
+                        treeCopier.copy(source, target, j);
+                        copied = true;
+                    } finally {
+                        if (!copied && Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                            // 失败或取消：清掉复制了一半的目标
+                            FileUtils.deleteQuietly(target.toFile());
+                        }
+                        searchIndex.refresh(target);
+                        if (copied) {
+                            changeJournal.created(target);
+                        }
+                        listingCache.invalidateTree(target);
+                        listingCache.invalidate(parentDir);
+                    }
+                } finally {
+                    lease.close();
+                }
+            });
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toMap());
+
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(Map.of("error", "后台任务已满，请稍后重试"));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "复制失败: " + e.getMessage()));
+        }
+    }
+
+    // 批量操作中经过校验的一项；paths 为它涉及的全部路径，用于判断操作之间是否相互依赖
+    private record BatchItem(String op, String path, Path source, Path target) {
+        List<Path> paths() {
+            return target == null ? List.of(source) : List.of(source, target);
+        }
+    }
+
+    // 批量删除/移动/新建目录：先校验全部操作，任何一项不通过则都不执行；
+    // 路径互不重叠的操作并行执行，结果按提交顺序逐项返回
+    @PostMapping("/api/files/batch")
+    public ResponseEntity<?> batchOperations(
+            @RequestBody Map<String, List<Map<String, String>>> request
+    ) throws InterruptedException {
+        List<Map<String, String>> operations = request.get("operations");
+        if (operations == null || operations.isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "缺少操作列表"));
+        }
+        if (operations.size() > batchMaxOperations) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "单次最多 " + batchMaxOperations + " 项操作"));
+        }
+
+        List<BatchItem> items = new ArrayList<>();
+        List<Map<String, Object>> invalid = new ArrayList<>();
+        // 本批中将要创建的目录，后续移动可以以它们为目标
+        Set<Path> plannedDirs = new HashSet<>();
+        for (int i = 0; i < operations.size(); i++) {
+            Map<String, String> operation = operations.get(i);
+            try {
+                items.add(validateBatchItem(operation, plannedDirs));
+            } catch (IOException | RuntimeException e) {
+                invalid.add(batchResult(i, operation.get("op"), batchStatus(e), Map.of("error", String.valueOf(e.getMessage()))));
+            }
+        }
+        if (!invalid.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "校验未通过，未执行任何操作", "results", invalid));
+        }
+
+        List<List<Integer>> groups = BatchRunner.groupByOverlap(
+                items.stream().map(BatchItem::paths).collect(Collectors.toList()));
+        List<Map<String, Object>> results = batchRunner.run(items.size(), groups, i -> executeBatchItem(i, items.get(i)));
+
+        long failed = results.stream().filter(r -> (int) r.get("status") >= 400).count();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("succeeded", results.size() - failed);
+        body.put("failed", failed);
+        body.put("results", results);
+        return ResponseEntity.status(failed == 0 ? HttpStatus.OK : HttpStatus.MULTI_STATUS).body(body);
+    }
+
+    private BatchItem validateBatchItem(Map<String, String> operation, Set<Path> plannedDirs) throws IOException {
+        String op = String.valueOf(operation.get("op"));
+        switch (op) {
+            case "delete": {
+                String path = requireField(operation, "path");
+                return new BatchItem(op, path, resolveAndValidatePath(path, true, true), null);
+            }
+            case "move": {
+                String oldPath = requireField(operation, "oldPath");
+                Path source = resolveAndValidatePath(oldPath, true, true);
+                Path target = resolveAndValidatePath(requireField(operation, "newPath"), false, false);
+                Path parentDir = target.getParent();
+                if (Files.exists(parentDir)) {
+                    if (!Files.isWritable(parentDir)) {
+                        throw new AccessDeniedException("无写入权限");
+                    }
+                } else if (!plannedDirs.contains(parentDir)) {
+                    throw new NoSuchFileException("目标目录不存在");
+                }
+                if (Files.exists(target)) {
+                    throw new FileAlreadyExistsException("目标文件已存在");
+                }
+                if (target.startsWith(source)) {
+                    throw new IllegalArgumentException("不能移动到自身内部");
+                }
+                return new BatchItem(op, oldPath, source, target);
+            }
+            case "mkdir": {
+                String path = requireField(operation, "path");
+                Path dirPath = resolveAndValidatePath(path, false, false);
+                if (Files.exists(dirPath)) {
+                    throw new FileAlreadyExistsException("目录已存在");
+                }
+                for (Path dir = dirPath; dir != null && dir.startsWith(basePath); dir = dir.getParent()) {
+                    plannedDirs.add(dir);
+                }
+                return new BatchItem(op, path, dirPath, null);
+            }
+            default:
+                throw new IllegalArgumentException("不支持的操作: " + op);
+        }
+    }
+
+    private Map<String, Object> executeBatchItem(int index, BatchItem item) {
+        try {
+            ResponseEntity<?> response;
+            switch (item.op()) {
+                case "delete":
+                    response = deletePath(item.path(), item.source());
+                    break;
+                case "move":
+                    response = movePath(item.path(), item.source(), item.target());
+                    break;
+                default:
+                    response = makeDirectory(item.source());
+                    break;
+            }
+            return batchResult(index, item.op(), response.getStatusCode().value(), response.getBody());
+        } catch (IOException | RuntimeException e) {
+            return batchResult(index, item.op(), batchStatus(e), Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    private static Map<String, Object> batchResult(int index, String op, int status, Object body) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("op", op);
+        result.put("status", status);
+        if (body instanceof Map<?, ?> map) {
+            // 错误信息直接带出；后台执行的删除/移动附带任务信息
+            if (map.containsKey("error")) {
+                result.put("error", map.get("error"));
+            } else {
+                result.put("job", map);
+            }
+        }
+        return result;
+    }
+
+    private static int batchStatus(Exception e) {
+        if (e instanceof SecurityException || e instanceof AccessDeniedException) {
+            return HttpStatus.FORBIDDEN.value();
+        } else if (e instanceof NoSuchFileException) {
+            return HttpStatus.NOT_FOUND.value();
+        } else if (e instanceof FileAlreadyExistsException) {
+            return HttpStatus.CONFLICT.value();
+        } else if (e instanceof IllegalArgumentException) {
+            return HttpStatus.BAD_REQUEST.value();
+        } else if (e instanceof RejectedExecutionException) {
+            return HttpStatus.SERVICE_UNAVAILABLE.value();
+        } else if (e instanceof PathLocks.LockTimeoutException) {
+            return HttpStatus.LOCKED.value();
+        }
+        return HttpStatus.INTERNAL_SERVER_ERROR.value();
+    }
+
+    private static String requireField(Map<String, String> operation, String field) {
+        String value = operation.get(field);
+        if (value == null) {
+            throw new IllegalArgumentException("缺少字段: " + field);
+        }
+        return value;
+    }
+
+    // 按文件名搜索（不区分大小写），结果按路径顺序分页，下一页游标通过响应头返回
+    @GetMapping("/api/search")
+    public ResponseEntity<?> search(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String mode,
+            @RequestParam(required = false) String path,
+            @RequestParam(required = false) String ext,
+            @RequestParam(required = false) Long minSize,
+            @RequestParam(required = false) Long maxSize,
+            @RequestParam(required = false) Long modifiedAfter,
+            @RequestParam(required = false) Long modifiedBefore,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor
+    ) {
+        try {
+            if (!searchIndex.isSearchEnabled()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .body(Map.of("error", "文件名搜索未启用"));
+            }
+            if (!searchIndex.isReady()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "5")
+                        .body(Map.of("error", "搜索索引正在建立"));
+            }
+            Path scope = resolveAndValidatePath(path == null ? "" : path, true, true);
+            Boolean directory = type == null ? null : switch (type) {
+                case "file" -> false;
+                case "dir" -> true;
+                default -> throw new IllegalArgumentException("type 只能是 file 或 dir");
+            };
+            SearchIndex.Query query = new SearchIndex.Query(q, SearchIndex.Mode.parse(mode),
+                    ext == null ? null : Arrays.asList(ext.split(",")),
+                    minSize, maxSize, modifiedAfter, modifiedBefore, directory);
 
+            SearchIndex.Page page = searchIndex.search(scope, query, limit == null ? 100 : limit, cursor);
+            ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+            if (page.nextCursor() != null) {
+                builder.header(NEXT_CURSOR_HEADER, page.nextCursor());
+            }
+            return builder.body(page.hits());
         } catch (SecurityException | AccessDeniedException e) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body(Map.of("error", e.getMessage()));
         } catch (NoSuchFileException e) {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body(Map.of("error", "路径不存在"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
         } catch (IOException e) {
             return ResponseEntity.internalServerError()
-                    .body(Map.of("error", "操作失败: " + e.getMessage()));
+                    .body(Map.of("error", e.getMessage()));
         }
     }
 
+    // 文件校验和：缓存有效时直接返回，否则在后台计算，超过等待时间返回 202，稍后重试即可
+    @GetMapping("/api/files/hash")
+    public ResponseEntity<?> fileHash(@RequestParam String path) {
+        try {
+            Path filePath = resolveAndValidatePath(path, true, true);
+            if (!Files.isRegularFile(filePath)) {
+                return ResponseEntity.badRequest()
+                        .body(Map.of("error", "只能计算文件的校验和"));
+            }
+            ChecksumService.Checksum checksum = checksumService.get(filePath)
+                    .get(checksumWaitMs, TimeUnit.MILLISECONDS);
+            return ResponseEntity.ok(checksum.toMap());
+        } catch (TimeoutException e) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(Map.of("status", "pending"));
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "文件不存在"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "计算被中断"));
+        } catch (IOException | ExecutionException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "计算校验和失败: " + e.getMessage()));
+        }
+    }
+
+    // 图片缩略图：按内容缓存，ETag 由内容哈希和尺寸决定
+    @GetMapping("/api/thumbnail")
+    public ResponseEntity<?> thumbnail(
+            @RequestParam String path,
+            @RequestParam(defaultValue = "" + ThumbnailService.DEFAULT_SIZE) int size,
+            HttpServletRequest request
+    ) {
+        try {
+            Path filePath = resolveAndValidatePath(path, true, true);
+            if (!thumbnailService.isEnabled()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .body(Map.of("error", "缩略图未启用"));
+            }
+            if (!Files.isRegularFile(filePath) || !ThumbnailService.isSupported(filePath.getFileName().toString())) {
+                return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                        .body(Map.of("error", "不支持的图片格式"));
+            }
+            String etag = thumbnailService.cachedEtag(filePath, size);
+            if (etag != null && new ServletWebRequest(request).checkNotModified(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .header(HttpHeaders.CACHE_CONTROL, thumbnailCacheControl)
+                        .build();
+            }
+
+            ThumbnailService.Thumbnail thumbnail = thumbnailService.get(filePath, size)
+                    .get(thumbnailWaitMs, TimeUnit.MILLISECONDS);
+            return ResponseEntity.ok()
+                    .eTag(thumbnail.etag())
+                    .header(HttpHeaders.CACHE_CONTROL, thumbnailCacheControl)
+                    .contentType(MediaType.parseMediaType(thumbnail.contentType()))
+                    .body(Files.readAllBytes(thumbnail.file()));
+        } catch (TimeoutException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(Map.of("error", "缩略图生成中"));
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "文件不存在"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "生成被中断"));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                        .body(Map.of("error", e.getCause().getMessage()));
+            }
+            if (e.getCause() instanceof RejectedExecutionException) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .body(Map.of("error", "缩略图服务繁忙"));
+            }
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "生成缩略图失败: " + e.getCause().getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "生成缩略图失败: " + e.getMessage()));
+        }
+    }
+
+    // 后台重新校验目录下所有文件的校验和
+    @PostMapping("/api/files/hash/verify")
+    public ResponseEntity<?> verifyHashes(@RequestParam(required = false) String path) {
+        try {
+            String safePath = path == null ? "" : path;
+            Path root = resolveAndValidatePath(safePath, true, true);
+            if (!checksumService.startVerify(root, safePath)) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body(Map.of("error", "已有校验任务在运行"));
+            }
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(checksumService.verifyStatus());
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "路径不存在"));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    @GetMapping("/api/files/hash/verify")
+    public ResponseEntity<Map<String, Object>> verifyStatus() {
+        return ResponseEntity.ok(checksumService.verifyStatus());
+    }
+
     @GetMapping("/api/download")
-    public ResponseEntity<Resource> downloadFile(@RequestParam String path) {
+    public ResponseEntity<?> downloadFile(
+            @RequestParam String path,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) {
         try {
             Path filePath = resolveAndValidatePath(path,true,true);
             if (Files.isDirectory(filePath)) {
@@ -152,12 +1093,15 @@ public class FileController {
                         .body(null);
             }
 
-            InputStreamResource resource = new InputStreamResource(Files.newInputStream(filePath));
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=\"" + filePath.getFileName() + "\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(resource);
+            // 直接写入响应（支持 Range），返回 null 表示响应已处理；输出经过带宽调度
+            try (TransferScheduler.Transfer transfer = transferScheduler.open(request,
+                    TransferScheduler.DOWNLOAD, Files.size(filePath))) {
+                rangeFileSender.send(request, transfer.response(response), filePath,
+                        MediaType.APPLICATION_OCTET_STREAM_VALUE,
+                        "attachment; filename=\"" + filePath.getFileName() + "\"");
+                transfer.sentDirectly(RangeFileSender.sentByContainer(request));
+            }
+            return null;
         } catch (SecurityException e) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         } catch (NoSuchFileException e) {
@@ -170,28 +1114,27 @@ public class FileController {
     }
 
     @GetMapping("/api/downloadDir")
-    public ResponseEntity<Resource> downloadDirectory(
-            @RequestParam String path
+    public ResponseEntity<StreamingResponseBody> downloadDirectory(
+            @RequestParam String path,
+            HttpServletRequest request
     ) {
-        Path dirPath = null;
-        List<Path> tempFiles = new ArrayList<>();
         try {
-            dirPath = resolveAndValidatePath(path, true, true);
+            Path dirPath = resolveAndValidatePath(path, true, true);
             if (!Files.isDirectory(dirPath)) {
                 return ResponseEntity.badRequest().build();
             }
 
-            Path tempDir = Files.createTempDirectory("zip_temp_");
-            tempFiles.add(tempDir);
-            String safeZipName = "directory_" + UUID.randomUUID() + ".zip";
-            Path zipPath = tempDir.resolve(safeZipName);
-            tempFiles.add(zipPath);
-
-            try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipPath))) {
-                addSecureDirectoryToZip(zos, dirPath, dirPath.getFileName().toString());
-            }
+            // 边遍历边压缩，直接写入响应流，不再落地临时文件
+            String baseDir = dirPath.getFileName().toString();
+            // 只在列出每个目录、打开每个文件时短暂持有共享锁，不跨网络写出持锁，慢速客户端不会阻塞写操作；
+            // 列出后被删除的条目跳过，已打开的文件按打开时的内容写出
+            String client = request.getRemoteAddr();
+            StreamingResponseBody body = out -> {
+                try (TransferScheduler.Transfer transfer = transferScheduler.open(client, TransferScheduler.DOWNLOAD, -1)) {
+                    directoryArchiver.write(dirPath, baseDir, transfer.output(out), pathLocks);
+                }
+            };
 
-            Resource resource = new InputStreamResource(Files.newInputStream(zipPath));
             HttpHeaders headers = new HttpHeaders();
             headers.add(HttpHeaders.CONTENT_DISPOSITION,
                     "attachment; filename=\"" + dirPath.getFileName() + ".zip\"");
@@ -199,14 +1142,12 @@ public class FileController {
             return ResponseEntity.ok()
                     .headers(headers)
                     .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(resource);
+                    .body(body);
 
         } catch (SecurityException e) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         } catch (IOException e) {
             return ResponseEntity.internalServerError().build();
-        } finally {
-            cleanTempResources(tempFiles);
         }
     }
 
@@ -217,13 +1158,37 @@ public class FileController {
     ) throws IOException {
         String path = request.get("path");
         Path dirPath = resolveAndValidatePath(path, false, false);
+        return makeDirectory(dirPath);
+    }
 
+    private ResponseEntity<?> makeDirectory(Path dirPath) throws IOException {
+        PathLocks.Lease lease = pathLocks.exclusive(dirPath);
+        try {
+            return makeDirectoryLocked(dirPath);
+        } finally {
+            lease.close();
+        }
+    }
+
+    private ResponseEntity<?> makeDirectoryLocked(Path dirPath) throws IOException {
         if (Files.exists(dirPath)) {
             return ResponseEntity.status(HttpStatus.CONFLICT)
                     .body(Map.of("error", "目录已存在"));
         }
 
+        // createDirectories 可能创建多级目录，变化的是最近一级已存在祖先的列表
+        Path existingAncestor = dirPath.getParent();
+        while (existingAncestor != null && !Files.exists(existingAncestor)) {
+            existingAncestor = existingAncestor.getParent();
+        }
         Files.createDirectories(dirPath);
+        if (existingAncestor != null) {
+            listingCache.invalidate(existingAncestor);
+        }
+        searchIndex.refresh(dirPath);
+        // 只记录新建的最上层目录，其下各级由客户端遍历得到
+        changeJournal.created(existingAncestor == null ? dirPath
+                : existingAncestor.resolve(existingAncestor.relativize(dirPath).getName(0)));
         return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 
@@ -236,35 +1201,292 @@ public class FileController {
     ) throws IOException {
         Path targetDir = resolveAndValidatePath(path, true, true);
 
-        // 处理文件夹冲突
+        // 锁定本次写入的全部目标；文件内容已由 MultipartShapingFilter 限速接收完毕，持锁期间只有本地磁盘写入
+        List<Path> targets = new ArrayList<>();
         if (folderName != null) {
-            Path folderPath = targetDir.resolve(folderName);
-            if (Files.exists(folderPath)) {
-                return ResponseEntity.status(HttpStatus.CONFLICT)
-                        .body(Map.of("error", "文件夹已存在"));
+            targets.add(buildSafePath(targetDir, folderName));
+        }
+        for (MultipartFile file : files) {
+            String name = file.getOriginalFilename();
+            try {
+                if (name != null && !name.isEmpty()) {
+                    targets.add(buildSafePath(targetDir, name));
+                }
+            } catch (SecurityException | InvalidPathException e) {
+                // 非法文件名在写入时逐个报告
             }
         }
 
-        files.forEach(file -> {
-            String originalFilename = file.getOriginalFilename();
-            if (originalFilename == null || originalFilename.isEmpty()) {
-                throw new IllegalArgumentException("文件名不能为空");
+        List<ParallelUploadWriter.Result> results;
+        PathLocks.Lease lease = pathLocks.lock(List.of(), targets);
+        try {
+            // 处理文件夹冲突
+            if (folderName != null) {
+                Path folderPath = targetDir.resolve(folderName);
+                if (Files.exists(folderPath)) {
+                    return ResponseEntity.status(HttpStatus.CONFLICT)
+                            .body(Map.of("error", "文件夹已存在"));
+                }
             }
+            try {
+                results = parallelUploadWriter.writeAll(files, name -> buildSafePath(targetDir, name));
+            } finally {
+                // 上传可能创建子目录，且部分文件失败时其余文件已写入
+                listingCache.invalidateTree(targetDir);
+            }
+        } finally {
+            lease.close();
+        }
 
-            // 构造完整路径
-            Path filePath = buildSafePath(targetDir, originalFilename);
+        results.stream().filter(ParallelUploadWriter.Result::success)
+                .map(r -> buildSafePath(targetDir, r.name()))
+                .forEach(file -> {
+                    searchIndex.refresh(file);
+                    changeJournal.modified(file);
+                });
 
-            try {
-                Files.createDirectories(filePath.getParent());
-                try (InputStream is = file.getInputStream()) {
-                    Files.copy(is, filePath, StandardCopyOption.REPLACE_EXISTING);
-                }
-            } catch (IOException e) {
-                throw new RuntimeException("文件上传失败: " + e.getMessage());
+        long failed = results.stream().filter(r -> !r.success()).count();
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("uploaded", results.size() - failed);
+        body.put("failed", failed);
+        body.put("results", results.stream().map(ParallelUploadWriter.Result::toMap).collect(Collectors.toList()));
+        // 部分失败时返回 207，由客户端根据逐个结果重试
+        return ResponseEntity.status(failed == 0 ? HttpStatus.OK : HttpStatus.MULTI_STATUS).body(body);
+    }
+
+    // 原始请求体上传：请求体即文件内容，直接写入目标位置，不经过 multipart 解析
+    @PutMapping("/api/files/content")
+    public ResponseEntity<?> uploadContent(
+            @RequestParam String path,
+            @RequestParam(required = false) Long expectedSize,
+            @RequestParam(required = false) String sha256,
+            HttpServletRequest request
+    ) {
+        try (TransferScheduler.Transfer transfer = transferScheduler.open(request,
+                TransferScheduler.UPLOAD, request.getContentLengthLong());
+             InputStream body = transfer.input(request.getInputStream())) {
+            Path resolved = resolveAndValidatePath(path, false, false);
+            if (resolved.equals(basePath) || Files.isDirectory(resolved)) {
+                throw new IllegalArgumentException("目标不能是目录");
             }
-        });
+            // 与 uploadFiles 相同的文件名规则
+            Path target = buildSafePath(resolved.getParent(), resolved.getFileName().toString());
+            boolean existed = Files.exists(target);
 
-        return ResponseEntity.ok().build();
+            long size = rawUploadService.write(target, body, expectedSize, sha256);
+            listingCache.invalidate(target.getParent());
+            searchIndex.refresh(target);
+            if (existed) {
+                changeJournal.modified(target);
+            } else {
+                changeJournal.created(target);
+            }
+            return ResponseEntity.status(existed ? HttpStatus.OK : HttpStatus.CREATED)
+                    .body(Map.of("size", size));
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "文件上传失败: " + e.getMessage()));
+        }
+    }
+
+    // 增量上传第一步：获取已有文件的块签名
+    @GetMapping("/api/files/signature")
+    public ResponseEntity<?> fileSignature(
+            @RequestParam String path,
+            @RequestParam(required = false) Integer blockSize
+    ) {
+        try {
+            Path filePath = resolveAndValidatePath(path, true, true);
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .body(deltaUploadService.signature(filePath, blockSize));
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "路径不存在"));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (DeltaUploadService.BaseChangedException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "计算签名失败: " + e.getMessage()));
+        }
+    }
+
+    // 增量上传第二步：请求体（application/octet-stream）为复制/字面数据指令流，服务端据此重建新版本
+    @PutMapping("/api/files/delta")
+    public ResponseEntity<?> uploadDelta(
+            @RequestParam String path,
+            @RequestParam String base,
+            @RequestParam int blockSize,
+            @RequestParam long size,
+            @RequestParam String sha256,
+            HttpServletRequest request
+    ) {
+        try (TransferScheduler.Transfer transfer = transferScheduler.open(request,
+                TransferScheduler.UPLOAD, request.getContentLengthLong());
+             InputStream body = transfer.input(request.getInputStream())) {
+            Path target = resolveAndValidatePath(path, true, true);
+            if (!Files.isWritable(target)) {
+                throw new AccessDeniedException("无写入权限");
+            }
+            Map<String, Object> result = deltaUploadService.apply(target, base, blockSize, size, sha256, body);
+            listingCache.invalidate(target.getParent());
+            searchIndex.refresh(target);
+            changeJournal.modified(target);
+            return ResponseEntity.ok(result);
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "路径不存在"));
+        } catch (DeltaUploadService.BaseChangedException e) {
+            // 旧版本已变化，客户端需重新获取签名
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "增量上传失败: " + e.getMessage()));
+        }
+    }
+
+    // 分块上传：初始化会话
+    @PostMapping("/api/upload/chunked")
+    public ResponseEntity<?> initChunkedUpload(
+            @RequestBody Map<String, Object> request
+    ) {
+        try {
+            Path targetDir = resolveAndValidatePath((String) request.get("path"), true, true);
+            String fileName = (String) request.get("fileName");
+            if (fileName == null || fileName.isEmpty()) {
+                throw new IllegalArgumentException("文件名不能为空");
+            }
+            Path target = buildSafePath(targetDir, fileName);
+            if (!(request.get("size") instanceof Number size)) {
+                throw new IllegalArgumentException("缺少文件大小");
+            }
+            Integer chunkSize = request.get("chunkSize") instanceof Number n ? n.intValue() : null;
+
+            ChunkedUploadService.Session session = chunkedUploadService.init(
+                    target, size.longValue(), chunkSize, (String) request.get("sha256"));
+            listingCache.invalidate(target.getParent());
+            return ResponseEntity.status(HttpStatus.CREATED).body(session.status());
+        } catch (SecurityException | AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", "路径不存在"));
+        } catch (IllegalArgumentException | ClassCastException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (ChunkedUploadService.InsufficientSpaceException e) {
+            return ResponseEntity.status(HttpStatus.INSUFFICIENT_STORAGE)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "创建上传失败: " + e.getMessage()));
+        }
+    }
+
+    // 分块上传：查询已接收的分块，用于断线后续传
+    @GetMapping("/api/upload/chunked/{uploadId}")
+    public ResponseEntity<?> chunkedUploadStatus(@PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(chunkedUploadService.get(uploadId).status());
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // 分块上传：写入一个分块，请求体为原始字节
+    @PutMapping("/api/upload/chunked/{uploadId}")
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String uploadId,
+            @RequestParam long offset,
+            @RequestHeader(value = CHUNK_CHECKSUM_HEADER, required = false) String crc32c,
+            HttpServletRequest request
+    ) {
+        try (TransferScheduler.Transfer transfer = transferScheduler.open(request,
+                TransferScheduler.UPLOAD, request.getContentLengthLong());
+             InputStream body = transfer.input(request.getInputStream())) {
+            chunkedUploadService.writeChunk(uploadId, offset, body, crc32c);
+            return ResponseEntity.noContent().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "分块写入失败: " + e.getMessage()));
+        }
+    }
+
+    // 分块上传：全部分块到齐后合并为目标文件
+    @PostMapping("/api/upload/chunked/{uploadId}/complete")
+    public ResponseEntity<?> completeChunkedUpload(@PathVariable String uploadId) {
+        try {
+            Path target = chunkedUploadService.complete(uploadId);
+            listingCache.invalidate(target.getParent());
+            searchIndex.refresh(target);
+            changeJournal.modified(target);
+            return ResponseEntity.ok().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "合并失败: " + e.getMessage()));
+        }
+    }
+
+    // 分块上传：放弃上传并删除临时文件
+    @DeleteMapping("/api/upload/chunked/{uploadId}")
+    public ResponseEntity<?> abortChunkedUpload(@PathVariable String uploadId) {
+        try {
+            Path target = chunkedUploadService.get(uploadId).target();
+            chunkedUploadService.abort(uploadId);
+            listingCache.invalidate(target.getParent());
+            return ResponseEntity.noContent().build();
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.internalServerError()
+                    .body(Map.of("error", "删除临时文件失败: " + e.getMessage()));
+        }
+    }
+
+    // 等待路径锁超时：相关路径正在被其他操作（如打包下载、后台移动）使用
+    @ExceptionHandler(PathLocks.LockTimeoutException.class)
+    public ResponseEntity<?> lockTimeout(PathLocks.LockTimeoutException e) {
+        return ResponseEntity.status(HttpStatus.LOCKED)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(Map.of("error", e.getMessage()));
     }
 
     private Path buildSafePath(Path baseDir, String relativePath) {
@@ -283,89 +1505,6 @@ public class FileController {
         return baseDir.resolve(sanitizedPath);
     }
 
-    private void addSecureDirectoryToZip(ZipOutputStream zos, Path dir, String baseDir) throws IOException {
-        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dirPath, BasicFileAttributes attrs) throws IOException {
-                // 跳过根目录，避免在ZIP中创建多余的根目录条目
-                if (!dirPath.equals(dir)) {
-                    String relativeDir = dir.relativize(dirPath).toString().replace("\\", "/");
-                    if (!isSafeFileName(relativeDir)) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    }
-                    ZipEntry entry = new ZipEntry(baseDir + "/" + relativeDir + "/");
-                    zos.putNextEntry(entry);
-                    zos.closeEntry();
-                }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (Files.isSymbolicLink(file) || Files.isHidden(file) || !Files.isReadable(file)) {
-                    return FileVisitResult.CONTINUE;
-                }
-
-                String relativePath = dir.relativize(file).toString().replace("\\", "/");
-                if (!isSafeFileName(relativePath)) {
-                    return FileVisitResult.CONTINUE;
-                }
-
-                try {
-                    ZipEntry entry = new ZipEntry(baseDir + "/" + relativePath);
-                    zos.putNextEntry(entry);
-                    Files.copy(file, zos);
-                    zos.closeEntry();
-                } catch (AccessDeniedException e) {
-                    System.err.println("访问被拒绝，跳过文件: " + file);
-                }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-                if (exc instanceof AccessDeniedException) {
-                    System.err.println("访问被拒绝，跳过目录: " + file);
-                    return FileVisitResult.SKIP_SUBTREE;
-                }
-                return super.visitFileFailed(file, exc);
-            }
-        });
-    }
-
-    /**
-     * 安全文件名检测
-     */
-    private boolean isSafeFileName(String fileName) {
-        return fileName.matches("[a-zA-Z0-9_\\-./]+"); // 白名单字符集
-    }
-
-    /**
-     * 强化清理方法
-     */
-    private void cleanTempResources(List<Path> tempFiles) {
-        tempFiles.forEach(path -> {
-            try {
-                if (Files.isDirectory(path)) {
-                    // 递归删除目录
-                    Files.walk(path)
-                            .sorted(Comparator.reverseOrder())
-                            .forEach(p -> {
-                                try {
-                                    Files.delete(p);
-                                } catch (IOException e) {
-                                    System.err.println("删除失败: " + p);
-                                }
-                            });
-                } else {
-                    Files.deleteIfExists(path);
-                }
-            } catch (IOException e) {
-                System.err.println("清理失败: " + path);
-            }
-        });
-    }
-
     // 统一路径验证方法
     private Path resolveAndValidatePath(String userInput, boolean checkExists, boolean needRead)
             throws IOException, SecurityException {
@@ -379,10 +1518,10 @@ public class FileController {
             }
 
             // 3. 解析路径
-            Path resolvedPath = BASE_PATH.resolve(decodedPath).normalize();
+            Path resolvedPath = basePath.resolve(decodedPath).normalize();
 
             // 4. 严格路径归属验证
-            if (!resolvedPath.startsWith(BASE_PATH)) {
+            if (!resolvedPath.startsWith(basePath)) {
                 throw new SecurityException("禁止访问外部路径");
             }
 
@@ -412,7 +1551,7 @@ public class FileController {
     }
     // 路径验证方法
     private Path validatePath(String relativePath) throws IOException {
-        Path base = Paths.get("E:/study/java/code/file/data");
+        Path base = basePath;
         Path resolved;
 
         try {
@@ -439,31 +1578,43 @@ public class FileController {
         return resolved;
     }
 
-    private FileInfo convertToFileInfo(Path path) {
-        try {
-            boolean isDir = Files.isDirectory(path);
-            return new FileInfo(
-                    path.getFileName().toString(),
-                    isDir,
-                    formatSize(isDir ? 0 : Files.size(path)),
-                    Files.getLastModifiedTime(path).toMillis()
-            );
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    // 列表缓存的加载函数，只在未命中或目录 mtime 变化时调用；缩略图预生成也只在这时提交，缓存命中时不再重复
+    private List<FileInfo> readDirectory(Path dir) throws IOException {
+        List<FileInfo> files = directoryLister.listAll(dir, DirectoryLister.SortField.NAME).stream()
+                .map(this::toFileInfo)
+                .collect(Collectors.toList());
+        thumbnailService.prefetch(dir, files);
+        return files;
+    }
+
+    private FileInfo toFileInfo(DirectoryLister.Entry entry) {
+        return new FileInfo(
+                entry.name(),
+                entry.directory(),
+                formatSize(entry.size()),
+                entry.modifiedTime()
+        );
+    }
+
+    // 目录条目的大小取搜索索引中汇总的子树大小
+    private FileInfo toFileInfo(DirectoryLister.Entry entry, Map<String, Long> sizes) {
+        Long size = entry.directory() ? sizes.get(entry.name()) : null;
+        return size == null ? toFileInfo(entry)
+                : new FileInfo(entry.name(), true, formatSize(size), entry.modifiedTime());
     }
 
     private String formatSize(long bytes) {
         if (bytes == 0) return "0";
-        String[] units = {"B", "KB", "MB", "GB"};
-        int unitIndex = (int) (Math.log10(bytes) / 3);
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        // 目录汇总可能超过 1TB
+        int unitIndex = Math.min((int) (Math.log10(bytes) / 3), units.length - 1);
         double value = bytes / Math.pow(1024, unitIndex);
         return String.format("%.1f%s", value, units[unitIndex]);
     }
 
-    // 设置允许访问的基础路径（按需修改）
+    // 允许访问的基础路径，即配置项 file.base-path
     private String getBasePath() {
-        return "E:/study/java/code/file/data";
+        return basePath.toString();
     }
 
 }
\ No newline at end of file
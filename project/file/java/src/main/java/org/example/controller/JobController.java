@@ -0,0 +1,51 @@
+package org.example.controller;
+
+// JobController.java
+
+import org.example.service.JobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+// 后台任务查询与取消接口
+@RestController
+@RequestMapping("/api/jobs")
+public class JobController {
+
+    @Autowired
+    private JobService jobService;
+
+    @GetMapping
+    public ResponseEntity<List<Map<String, Object>>> listJobs() {
+        return ResponseEntity.ok(jobService.list().stream()
+                .map(JobService.Job::toMap)
+                .collect(Collectors.toList()));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id) {
+        try {
+            return ResponseEntity.ok(jobService.get(id).toMap());
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // 取消任务；运行中的任务会在处理下一个文件前停止，返回当前状态
+    @DeleteMapping("/{id}")
+    public ResponseEntity<?> cancelJob(@PathVariable String id) {
+        try {
+            return ResponseEntity.ok(jobService.cancel(id).toMap());
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.controller;
+
+// StatsController.java
+
+import org.example.service.ArchiveStats;
+import org.example.service.ChangeFeed;
+import org.example.service.ChangeJournal;
+import org.example.service.ChecksumService;
+import org.example.service.CompressionService;
+import org.example.service.ContentStore;
+import org.example.service.DeltaUploadService;
+import org.example.service.DirectoryListingCache;
+import org.example.service.JobService;
+import org.example.service.PathLocks;
+import org.example.service.SearchIndex;
+import org.example.service.SmallFileCache;
+import org.example.service.ThumbnailService;
+import org.example.service.TransferScheduler;
+import org.example.service.TreeCopier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+// 运行指标查询接口
+@RestController
+@RequestMapping("/api/stats")
+public class StatsController {
+
+    @Autowired
+    private DirectoryListingCache listingCache;
+
+    @Autowired
+    private ArchiveStats archiveStats;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ChecksumService checksumService;
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private TreeCopier treeCopier;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private CompressionService compressionService;
+
+    @Autowired
+    private SmallFileCache smallFileCache;
+
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    @Autowired
+    private ChangeJournal changeJournal;
+
+    @Autowired
+    private DeltaUploadService deltaUploadService;
+
+    @Autowired
+    private PathLocks pathLocks;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @GetMapping("/listing-cache")
+    public ResponseEntity<Map<String, Object>> listingCacheStats() {
+        return ResponseEntity.ok(listingCache.stats());
+    }
+
+    @GetMapping("/archive")
+    public ResponseEntity<Map<String, Object>> archiveStats() {
+        return ResponseEntity.ok(archiveStats.snapshot());
+    }
+
+    @GetMapping("/dedup")
+    public ResponseEntity<Map<String, Object>> dedupStats() {
+        return ResponseEntity.ok(contentStore.stats());
+    }
+
+    @GetMapping("/checksum")
+    public ResponseEntity<Map<String, Object>> checksumStats() {
+        return ResponseEntity.ok(checksumService.stats());
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<Map<String, Object>> searchStats() {
+        return ResponseEntity.ok(searchIndex.stats());
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<Map<String, Object>> jobStats() {
+        return ResponseEntity.ok(jobService.stats());
+    }
+
+    @GetMapping("/copy")
+    public ResponseEntity<Map<String, Object>> copyStats() {
+        return ResponseEntity.ok(treeCopier.stats());
+    }
+
+    @GetMapping("/thumbnail")
+    public ResponseEntity<Map<String, Object>> thumbnailStats() {
+        return ResponseEntity.ok(thumbnailService.stats());
+    }
+
+    @GetMapping("/compression")
+    public ResponseEntity<Map<String, Object>> compressionStats() {
+        return ResponseEntity.ok(compressionService.stats());
+    }
+
+    @GetMapping("/small-file-cache")
+    public ResponseEntity<Map<String, Object>> smallFileCacheStats() {
+        return ResponseEntity.ok(smallFileCache.stats());
+    }
+
+    @GetMapping("/watch")
+    public ResponseEntity<Map<String, Object>> watchStats() {
+        return ResponseEntity.ok(changeFeed.stats());
+    }
+
+    @GetMapping("/changes")
+    public ResponseEntity<Map<String, Object>> changesStats() {
+        return ResponseEntity.ok(changeJournal.stats());
+    }
+
+    @GetMapping("/delta")
+    public ResponseEntity<Map<String, Object>> deltaStats() {
+        return ResponseEntity.ok(deltaUploadService.stats());
+    }
+
+    @GetMapping("/locks")
+    public ResponseEntity<Map<String, Object>> lockStats() {
+        return ResponseEntity.ok(pathLocks.stats());
+    }
+
+    @GetMapping("/transfer")
+    public ResponseEntity<Map<String, Object>> transferStats() {
+        return ResponseEntity.ok(transferScheduler.stats());
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.controller;
+
+// TransferController.java
+
+import org.example.service.TransferScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+// 传输限速的查询与运行时调整接口，单位为字节/秒，0 表示不限
+@RestController
+@RequestMapping("/api/transfer")
+public class TransferController {
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @GetMapping("/limits")
+    public ResponseEntity<Map<String, Long>> getLimits() {
+        return ResponseEntity.ok(transferScheduler.limits());
+    }
+
+    // 只修改请求体中给出的项
+    @PutMapping("/limits")
+    public ResponseEntity<?> updateLimits(@RequestBody Map<String, Long> limits) {
+        try {
+            return ResponseEntity.ok(transferScheduler.updateLimits(limits));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.example.service;
+
+// ArchiveStats.java
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 打包统计：按文件类型记录压缩比与 deflate CPU 耗时，
+ * 并按已压缩条目的平均 CPU 成本估算 STORED 条目节省的 CPU 时间。
+ */
+@Component
+public class ArchiveStats {
+
+    // 类型数量上限，防止奇怪的扩展名撑大统计表
+    private static final int MAX_TYPES = 256;
+    private static final String OTHER = "(other)";
+
+    private static final class TypeStats {
+        final LongAdder entries = new LongAdder();
+        final LongAdder storedEntries = new LongAdder();
+        final LongAdder inputBytes = new LongAdder();
+        final LongAdder outputBytes = new LongAdder();
+        final LongAdder storedBytes = new LongAdder();
+        final LongAdder deflateCpuNanos = new LongAdder();
+    }
+
+    private final Map<String, TypeStats> types = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> storeReasons = new ConcurrentHashMap<>();
+
+    public void recordDeflated(String type, long inputBytes, long outputBytes, long cpuNanos) {
+        TypeStats stats = typeStats(type);
+        stats.entries.increment();
+        stats.inputBytes.add(inputBytes);
+        stats.outputBytes.add(outputBytes);
+        stats.deflateCpuNanos.add(cpuNanos);
+    }
+
+    public void recordStored(String type, long bytes, String reason) {
+        TypeStats stats = typeStats(type);
+        stats.entries.increment();
+        stats.storedEntries.increment();
+        stats.inputBytes.add(bytes);
+        stats.outputBytes.add(bytes);
+        stats.storedBytes.add(bytes);
+        storeReasons.computeIfAbsent(reason, k -> new LongAdder()).increment();
+    }
+
+    public Map<String, Object> snapshot() {
+        long deflatedInput = 0;
+        long deflateCpu = 0;
+        long storedBytes = 0;
+        Map<String, Object> perType = new TreeMap<>();
+        for (Map.Entry<String, TypeStats> e : types.entrySet()) {
+            TypeStats s = e.getValue();
+            long input = s.inputBytes.sum();
+            long output = s.outputBytes.sum();
+            long stored = s.storedBytes.sum();
+            deflatedInput += input - stored;
+            deflateCpu += s.deflateCpuNanos.sum();
+            storedBytes += stored;
+
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("entries", s.entries.sum());
+            item.put("storedEntries", s.storedEntries.sum());
+            item.put("inputBytes", input);
+            item.put("outputBytes", output);
+            item.put("compressionRatio", input == 0 ? 1.0 : (double) output / input);
+            item.put("deflateCpuMillis", s.deflateCpuNanos.sum() / 1_000_000);
+            perType.put(e.getKey(), item);
+        }
+
+        double nanosPerByte = deflatedInput == 0 ? 0 : (double) deflateCpu / deflatedInput;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("storedBytes", storedBytes);
+        result.put("deflateCpuMillis", deflateCpu / 1_000_000);
+        result.put("estimatedCpuMillisSaved", (long) (storedBytes * nanosPerByte / 1_000_000));
+        Map<String, Long> reasons = new TreeMap<>();
+        storeReasons.forEach((k, v) -> reasons.put(k, v.sum()));
+        result.put("storeReasons", reasons);
+        result.put("types", perType);
+        return result;
+    }
+
+    private TypeStats typeStats(String type) {
+        TypeStats stats = types.get(type);
+        if (stats == null) {
+            stats = types.size() < MAX_TYPES
+                    ? types.computeIfAbsent(type, k -> new TypeStats())
+                    : types.computeIfAbsent(OTHER, k -> new TypeStats());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.service;
+
+// BatchRunner.java
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * 批量文件操作的执行器：涉及重叠路径（相同、祖先或后代）的操作按提交顺序串行，
+ * 互不相关的操作组在有界线程池中并行执行。
+ */
+@Service
+public class BatchRunner {
+
+    private final ExecutorService executor;
+
+    public BatchRunner(@Value("${file.batch.parallelism:4}") int parallelism) {
+        int threads = Math.max(1, parallelism);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "batch-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 按路径重叠关系把操作分组，组内保持原顺序
+     *
+     * @param paths 每个操作涉及的路径（已规范化的绝对路径）
+     */
+    public static List<List<Integer>> groupByOverlap(List<? extends Collection<Path>> paths) {
+        int n = paths.size();
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (overlaps(paths.get(i), paths.get(j))) {
+                    parent[find(parent, j)] = find(parent, i);
+                }
+            }
+        }
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            groups.computeIfAbsent(find(parent, i), k -> new ArrayList<>()).add(i);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * 各组并行、组内串行地执行操作，结果按下标返回；operation 自行处理异常
+     */
+    public <T> List<T> run(int count, List<List<Integer>> groups, IntFunction<T> operation)
+            throws InterruptedException {
+        List<T> results = new ArrayList<>(Collections.nCopies(count, null));
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<Integer> group : groups) {
+            if (groups.size() == 1) {
+                // 只有一组时没有可并行的部分，直接在调用线程执行
+                group.forEach(i -> results.set(i, operation.apply(i)));
+                return results;
+            }
+            futures.add(executor.submit(() -> group.forEach(i -> results.set(i, operation.apply(i)))));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e;
+        }
+        return results;
+    }
+
+    private static boolean overlaps(Collection<Path> a, Collection<Path> b) {
+        for (Path x : a) {
+            for (Path y : b) {
+                if (x.startsWith(y) || y.startsWith(x)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,464 @@
+package org.example.service;
+
+// ChangeFeed.java
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 目录变化推送：同一目录的所有订阅者共用 DirectoryWatcher 中的一个监听注册，事件分发给每个订阅者。
+ * <p>
+ * 事件先按文件名合并一个时间窗口（先建后删抵消、多次修改只报一次），再成批推送；
+ * 同一窗口内删除与新建的文件 inode 相同时报告为重命名。每个订阅者有独立的待发队列，
+ * 客户端读取太慢导致队列积压时丢弃积压的批次，改发一次 resync，由客户端重新获取列表。
+ */
+@Service
+public class ChangeFeed {
+
+    /**
+     * 订阅者的输出端，由调用方适配到具体连接（如 SSE）。同一订阅者的方法不会被并发调用。
+     */
+    public interface Sink {
+        void send(String event, Object data) throws IOException;
+
+        void heartbeat() throws IOException;
+
+        void close();
+    }
+
+    private static final String CREATE = "create";
+    private static final String DELETE = "delete";
+    private static final String MODIFY = "modify";
+    private static final String RENAME = "rename";
+
+    // 待发队列中的心跳与关闭标记
+    private static final Object HEARTBEAT = new Object();
+    private static final Object CLOSE = new Object();
+
+    private record Message(String event, Object data) {
+    }
+
+    private final class Channel {
+        final Path dir;
+        final Set<Subscription> subscribers = new CopyOnWriteArraySet<>();
+        // 当前窗口内合并后的事件：文件名 -> 类型
+        final LinkedHashMap<String, String> pending = new LinkedHashMap<>();
+        boolean overflow;
+        ScheduledFuture<?> flush;
+        // 文件名 -> inode，用于识别重命名；只在刷新线程中访问
+        final Map<String, Object> fileKeys = new HashMap<>();
+
+        Channel(Path dir) {
+            this.dir = dir;
+        }
+    }
+
+    public final class Subscription {
+        private final Channel channel;
+        private final Sink sink;
+        private final ArrayDeque<Object> queue = new ArrayDeque<>();
+        private boolean sending;
+        private volatile boolean closed;
+
+        private Subscription(Channel channel, Sink sink) {
+            this.channel = channel;
+            this.sink = sink;
+        }
+
+        private void offer(Object message) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (message == HEARTBEAT && !queue.isEmpty()) {
+                    return;
+                }
+                if (queue.size() >= maxPending) {
+                    // 客户端跟不上：积压的批次已无意义，让它重新获取列表
+                    dropped.addAndGet(queue.size());
+                    queue.clear();
+                    queue.add(new Message("resync", Map.of()));
+                    resyncs.incrementAndGet();
+                }
+                queue.add(message);
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                cancel();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Object message;
+                synchronized (this) {
+                    message = queue.poll();
+                    if (message == null || closed) {
+                        sending = false;
+                        return;
+                    }
+                }
+                if (message == CLOSE) {
+                    cancel();
+                    return;
+                }
+                try {
+                    if (message == HEARTBEAT) {
+                        sink.heartbeat();
+                    } else {
+                        Message m = (Message) message;
+                        sink.send(m.event(), m.data());
+                        batchesSent.incrementAndGet();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // 连接已断开
+                    cancel();
+                    synchronized (this) {
+                        sending = false;
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 取消订阅并关闭输出端，可重复调用
+         */
+        public void cancel() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                queue.clear();
+            }
+            unsubscribe(this);
+            sink.close();
+        }
+    }
+
+    private final DirectoryWatcher watcher;
+    private final long coalesceMs;
+    private final int maxBatch;
+    private final int maxPending;
+    private final int maxSubscribers;
+    private final long heartbeatMs;
+
+    private final Map<Path, Channel> channels = new HashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final ScheduledExecutorService timer;
+    private final ExecutorService senders;
+
+    private final AtomicLong rawEvents = new AtomicLong();
+    private final AtomicLong eventsSent = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong renames = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ChangeFeed(
+            DirectoryWatcher watcher,
+            @Value("${file.watch.coalesce-ms:250}") long coalesceMs,
+            @Value("${file.watch.max-batch:1000}") int maxBatch,
+            @Value("${file.watch.max-pending:64}") int maxPending,
+            @Value("${file.watch.max-subscribers:1000}") int maxSubscribers,
+            @Value("${file.watch.heartbeat-seconds:30}") long heartbeatSeconds,
+            @Value("${file.watch.senders:4}") int senders
+    ) {
+        this.watcher = watcher;
+        this.coalesceMs = Math.max(0, coalesceMs);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxPending = Math.max(1, maxPending);
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatMs = heartbeatSeconds * 1000;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "change-feed");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, senders), Math.max(1, senders), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "change-feed-send-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.senders = pool;
+    }
+
+    @PostConstruct
+    public void init() {
+        watcher.addListener(this::onEvent);
+        if (heartbeatMs > 0) {
+            timer.scheduleAtFixedRate(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<Subscription> all = new ArrayList<>();
+        synchronized (channels) {
+            channels.values().forEach(c -> all.addAll(c.subscribers));
+        }
+        all.forEach(Subscription::cancel);
+        timer.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * 订阅目录变化，订阅成功后先推送一个 ready 事件
+     *
+     * @throws RejectedExecutionException 订阅数已达上限
+     * @throws IllegalStateException      目录无法监听
+     */
+    public Subscription subscribe(Path dir, Sink sink) {
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            throw new RejectedExecutionException("订阅数已达上限");
+        }
+        Channel channel;
+        Subscription subscription;
+        synchronized (channels) {
+            channel = channels.get(dir);
+            if (channel == null) {
+                if (!watcher.watch(dir)) {
+                    subscriberCount.decrementAndGet();
+                    throw new IllegalStateException("目录监听不可用");
+                }
+                channel = new Channel(dir);
+                channels.put(dir, channel);
+                Channel created = channel;
+                timer.execute(() -> snapshot(created));
+            }
+            subscription = new Subscription(channel, sink);
+            channel.subscribers.add(subscription);
+        }
+        subscription.offer(new Message("ready", Map.of()));
+        return subscription;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (channels) {
+            stats.put("directories", channels.size());
+        }
+        stats.put("subscribers", subscriberCount.get());
+        stats.put("rawEvents", rawEvents.get());
+        stats.put("eventsSent", eventsSent.get());
+        stats.put("batchesSent", batchesSent.get());
+        stats.put("renames", renames.get());
+        stats.put("resyncs", resyncs.get());
+        stats.put("droppedBatches", dropped.get());
+        return stats;
+    }
+
+    private void unsubscribe(Subscription subscription) {
+        Channel channel = subscription.channel;
+        synchronized (channels) {
+            if (!channel.subscribers.remove(subscription)) {
+                return;
+            }
+            subscriberCount.decrementAndGet();
+            if (channel.subscribers.isEmpty() && channels.get(channel.dir) == channel) {
+                channels.remove(channel.dir);
+                watcher.unwatch(channel.dir);
+            }
+        }
+    }
+
+    private void onEvent(Path dir, WatchEvent.Kind<?> kind, Path child) {
+        Channel channel;
+        synchronized (channels) {
+            channel = channels.get(dir);
+        }
+        if (channel == null) {
+            return;
+        }
+        rawEvents.incrementAndGet();
+        synchronized (channel) {
+            if (child == null) {
+                channel.overflow = true;
+                channel.pending.clear();
+            } else if (!channel.overflow) {
+                merge(channel.pending, child.getFileName().toString(), kind);
+                if (channel.pending.size() > maxBatch) {
+                    channel.overflow = true;
+                    channel.pending.clear();
+                }
+            }
+            if (channel.flush == null) {
+                channel.flush = timer.schedule(() -> flush(channel), coalesceMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 把新事件合并进窗口：先建后删相互抵消，删除后重建视为修改，新建后的修改仍报新建
+     */
+    static void merge(Map<String, String> pending, String name, WatchEvent.Kind<?> kind) {
+        String previous = pending.get(name);
+        String next = kind == ENTRY_CREATE ? CREATE : kind == ENTRY_DELETE ? DELETE : MODIFY;
+        if (previous == null) {
+            pending.put(name, next);
+        } else if (previous.equals(CREATE)) {
+            if (next.equals(DELETE)) {
+                pending.remove(name);
+            }
+        } else if (previous.equals(DELETE)) {
+            if (next.equals(CREATE)) {
+                pending.put(name, MODIFY);
+            }
+        } else if (next.equals(DELETE)) {
+            pending.put(name, DELETE);
+        }
+    }
+
+    private void flush(Channel channel) {
+        Map<String, String> batch;
+        boolean overflow;
+        synchronized (channel) {
+            batch = new LinkedHashMap<>(channel.pending);
+            overflow = channel.overflow;
+            channel.pending.clear();
+            channel.overflow = false;
+            channel.flush = null;
+        }
+        if (overflow) {
+            resync(channel);
+            return;
+        }
+        List<Map<String, Object>> events = resolve(channel, batch);
+        if (events.isEmpty()) {
+            return;
+        }
+        eventsSent.addAndGet(events.size());
+        Message message = new Message("change", Map.of("events", events));
+        channel.subscribers.forEach(s -> s.offer(message));
+    }
+
+    /**
+     * 生成推送的事件列表：新建与修改附带条目属性，同一窗口内 inode 相同的删除与新建合并为重命名
+     */
+    private List<Map<String, Object>> resolve(Channel channel, Map<String, String> batch) {
+        Map<Object, String> deletedKeys = new HashMap<>();
+        for (Map.Entry<String, String> e : batch.entrySet()) {
+            Object key = e.getValue().equals(DELETE) ? channel.fileKeys.remove(e.getKey()) : null;
+            if (key != null) {
+                deletedKeys.put(key, e.getKey());
+            }
+        }
+
+        List<Map<String, Object>> events = new ArrayList<>();
+        Set<String> renamedFrom = new HashSet<>();
+        for (Map.Entry<String, String> e : batch.entrySet()) {
+            String name = e.getKey();
+            String type = e.getValue();
+            if (type.equals(DELETE)) {
+                continue;
+            }
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(channel.dir.resolve(name), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ex) {
+                // 窗口结束前已被删除，删除事件会在下一批送达
+                continue;
+            }
+            if (attrs.fileKey() != null) {
+                channel.fileKeys.put(name, attrs.fileKey());
+            }
+            Map<String, Object> event = new LinkedHashMap<>();
+            String from = type.equals(CREATE) && attrs.fileKey() != null ? deletedKeys.get(attrs.fileKey()) : null;
+            if (from != null) {
+                renamedFrom.add(from);
+                renames.incrementAndGet();
+                event.put("type", RENAME);
+                event.put("from", from);
+            } else {
+                event.put("type", type);
+            }
+            event.put("name", name);
+            event.put("isDirectory", attrs.isDirectory());
+            event.put("size", attrs.isDirectory() ? 0L : attrs.size());
+            event.put("modifiedTime", attrs.lastModifiedTime().toMillis());
+            events.add(event);
+        }
+        for (Map.Entry<String, String> e : batch.entrySet()) {
+            if (e.getValue().equals(DELETE) && !renamedFrom.contains(e.getKey())) {
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("type", DELETE);
+                event.put("name", e.getKey());
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 事件溢出或监听失效：通知订阅者重新获取列表，并重新注册监听；目录已不存在时结束订阅
+     */
+    private void resync(Channel channel) {
+        resyncs.incrementAndGet();
+        boolean watching;
+        synchronized (channels) {
+            if (channels.get(channel.dir) != channel) {
+                return;
+            }
+            // 监听键失效时注册已被移除，unwatch 不做任何事；否则先释放再重新获取引用
+            watcher.unwatch(channel.dir);
+            watching = watcher.watch(channel.dir);
+            if (!watching) {
+                channels.remove(channel.dir);
+            }
+        }
+        Message message = new Message("resync", Map.of());
+        for (Subscription subscription : channel.subscribers) {
+            subscription.offer(message);
+            if (!watching) {
+                subscription.offer(CLOSE);
+            }
+        }
+        if (watching) {
+            snapshot(channel);
+        }
+    }
+
+    private void snapshot(Channel channel) {
+        channel.fileKeys.clear();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(channel.dir)) {
+            for (Path child : stream) {
+                Object key = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+                if (key != null) {
+                    channel.fileKeys.put(child.getFileName().toString(), key);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException e) {
+            // 没有 inode 信息时重命名会报告为删除加新建
+        }
+    }
+
+    private void heartbeat() {
+        List<Subscription> all = new ArrayList<>();
+        synchronized (channels) {
+            channels.values().forEach(c -> all.addAll(c.subscribers));
+        }
+        all.forEach(s -> s.offer(HEARTBEAT));
+    }
+}
@@ -0,0 +1,281 @@
+package org.example.service;
+
+// ChangeJournal.java
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 变更日志：记录基础目录下新增、修改、删除的路径，供同步客户端按令牌增量获取变化，
+ * 不必每次遍历整棵目录树。
+ * <p>
+ * 来源有两个：接口自身的写操作（立即记录，不依赖监听），以及 DirectoryWatcher 的事件
+ * （覆盖范围为搜索索引注册的全部目录，包括绕过接口直接改动磁盘的情况）。
+ * 同一路径只保留最新一条记录，日志大小与期间变化过的路径数成正比；超过保留时长或条数上限的记录被丢弃，
+ * 早于丢弃点的令牌以及跨越事件溢出、进程重启的令牌都需要客户端完整重新同步。
+ */
+@Service
+public class ChangeJournal {
+
+    public static final String CREATE = "create";
+    public static final String MODIFY = "modify";
+    public static final String DELETE = "delete";
+
+    private static final class Record {
+        final String path;
+        String type;
+        long seq;
+        long time;
+
+        Record(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * 查询结果；resync 为 true 时 changes 为空，客户端应先记下 token 再完整遍历
+     */
+    public record Changes(String token, boolean resync, boolean more, List<Map<String, Object>> changes) {
+    }
+
+    private final Path basePath;
+    private final DirectoryWatcher watcher;
+    private final long retentionMillis;
+    private final int maxEntries;
+    // 令牌前缀：每次启动不同，重启前的令牌一律要求重新同步
+    private final String epoch = Long.toHexString(System.currentTimeMillis());
+
+    private final TreeMap<Long, Record> bySeq = new TreeMap<>();
+    private final Map<String, Record> byPath = new HashMap<>();
+    private long seq;
+    // 序号不大于 floor 的令牌已无法增量同步（记录被丢弃或事件丢失）
+    private long floor;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong compacted = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+
+    public ChangeJournal(
+            @Value("${file.base-path:E:/study/java/data}") String basePath,
+            @Value("${file.changes.retention-minutes:1440}") long retentionMinutes,
+            @Value("${file.changes.max-entries:200000}") int maxEntries,
+            DirectoryWatcher watcher
+    ) {
+        this.basePath = Paths.get(basePath).normalize().toAbsolutePath();
+        this.retentionMillis = retentionMinutes * 60_000;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.watcher = watcher;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (watcher != null) {
+            watcher.addListener(this::onEvent);
+        }
+    }
+
+    public void created(Path path) {
+        record(path, CREATE);
+    }
+
+    public void modified(Path path) {
+        record(path, MODIFY);
+    }
+
+    public void removed(Path path) {
+        record(path, DELETE);
+    }
+
+    public void moved(Path source, Path target) {
+        record(source, DELETE);
+        record(target, CREATE);
+    }
+
+    /**
+     * 不确定路径是新建、修改还是已删除时，按当前是否存在记录
+     */
+    public void refreshed(Path path) {
+        record(path, Files.exists(path, LinkOption.NOFOLLOW_LINKS) ? MODIFY : DELETE);
+    }
+
+    public synchronized String currentToken() {
+        return epoch + "." + seq;
+    }
+
+    /**
+     * 返回令牌之后的变化，每个路径最多一条，按发生顺序排列。
+     * 新建与修改都应视为“存在且内容可能不同”；目录的新建需要客户端遍历该目录，目录的删除包含其整个子树。
+     *
+     * @param since 上次返回的令牌，为 null 时只返回当前令牌并要求完整同步
+     */
+    public Changes since(String since, int limit) {
+        List<Record> batch = new ArrayList<>();
+        String token;
+        boolean more;
+        synchronized (this) {
+            long from = parseToken(since);
+            if (from < 0) {
+                if (since != null) {
+                    resyncs.incrementAndGet();
+                }
+                return new Changes(currentToken(), true, false, List.of());
+            }
+            long last = from;
+            for (Record record : bySeq.tailMap(from, false).values()) {
+                if (batch.size() == limit) {
+                    break;
+                }
+                batch.add(copy(record));
+                last = record.seq;
+            }
+            more = bySeq.higherKey(last) != null;
+            token = epoch + "." + (more ? last : seq);
+        }
+
+        List<Map<String, Object>> changes = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            Map<String, Object> change = new LinkedHashMap<>();
+            change.put("path", record.path);
+            String type = record.type;
+            if (!type.equals(DELETE)) {
+                // 属性取当前值；文件此后已被删除时报告为删除，对应的删除记录会在之后再次出现
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(basePath.resolve(record.path),
+                            BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    change.put("type", type);
+                    change.put("isDirectory", attrs.isDirectory());
+                    change.put("size", attrs.isDirectory() ? 0L : attrs.size());
+                    change.put("modifiedTime", attrs.lastModifiedTime().toMillis());
+                } catch (IOException e) {
+                    type = DELETE;
+                }
+            }
+            if (type.equals(DELETE)) {
+                change.put("type", DELETE);
+            }
+            change.put("time", record.time);
+            changes.add(change);
+        }
+        return new Changes(token, false, more, changes);
+    }
+
+    /**
+     * 丢弃超过保留时长的记录
+     */
+    @Scheduled(fixedDelayString = "${file.changes.compact-interval-ms:60000}")
+    public synchronized void compact() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        while (!bySeq.isEmpty() && bySeq.firstEntry().getValue().time < cutoff) {
+            dropOldest();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", bySeq.size());
+            stats.put("token", currentToken());
+            stats.put("floor", floor);
+        }
+        stats.put("watching", watcher != null && watcher.isAvailable());
+        stats.put("recorded", recorded.get());
+        stats.put("compacted", compacted.get());
+        stats.put("resyncs", resyncs.get());
+        return stats;
+    }
+
+    private void onEvent(Path dir, WatchEvent.Kind<?> kind, Path child) {
+        if (!dir.startsWith(basePath)) {
+            return;
+        }
+        if (child == null) {
+            if (!Files.exists(dir)) {
+                // 目录被删除导致监听失效，不是事件丢失
+                record(dir, DELETE);
+                return;
+            }
+            // 事件溢出：这段时间的变化无从得知，之前的令牌都需要重新同步
+            synchronized (this) {
+                floor = ++seq;
+            }
+            return;
+        }
+        record(child, kind == ENTRY_CREATE ? CREATE : kind == ENTRY_DELETE ? DELETE : MODIFY);
+    }
+
+    private void record(Path path, String type) {
+        Path normalized = path.normalize().toAbsolutePath();
+        if (!normalized.startsWith(basePath) || normalized.equals(basePath)) {
+            return;
+        }
+        String relative = basePath.relativize(normalized).toString().replace('\\', '/');
+        recorded.incrementAndGet();
+        synchronized (this) {
+            Record record = byPath.get(relative);
+            if (record == null) {
+                record = new Record(relative);
+                record.type = type;
+                byPath.put(relative, record);
+            } else {
+                bySeq.remove(record.seq);
+                // 新建后的修改仍是新建，删除后重新出现视为新建；其余以最新的为准
+                if (type.equals(MODIFY) && !record.type.equals(MODIFY)) {
+                    record.type = CREATE;
+                } else {
+                    record.type = type;
+                }
+            }
+            record.seq = ++seq;
+            record.time = System.currentTimeMillis();
+            bySeq.put(record.seq, record);
+            while (bySeq.size() > maxEntries) {
+                dropOldest();
+            }
+        }
+    }
+
+    private void dropOldest() {
+        Record oldest = bySeq.pollFirstEntry().getValue();
+        byPath.remove(oldest.path);
+        floor = Math.max(floor, oldest.seq);
+        compacted.incrementAndGet();
+    }
+
+    /**
+     * 解析令牌，返回其序号；无法增量同步时返回 -1
+     */
+    private long parseToken(String token) {
+        if (token == null) {
+            return -1;
+        }
+        int dot = token.indexOf('.');
+        if (dot < 0 || !token.substring(0, dot).equals(epoch)) {
+            return -1;
+        }
+        long value;
+        try {
+            value = Long.parseLong(token.substring(dot + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        return value < floor || value > seq ? -1 : value;
+    }
+
+    private static Record copy(Record record) {
+        Record copy = new Record(record.path);
+        copy.type = record.type;
+        copy.seq = record.seq;
+        copy.time = record.time;
+        return copy;
+    }
+}
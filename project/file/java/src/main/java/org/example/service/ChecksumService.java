@@ -0,0 +1,375 @@
+package org.example.service;
+
+// ChecksumService.java
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.utils.AtomicFiles;
+import org.example.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 文件校验和缓存：在后台线程池中一次读取同时计算 SHA-256 与 CRC32C，
+ * 结果优先写入文件的用户扩展属性（随文件移动、重命名），文件系统不支持时写入本地索引文件。
+ * 缓存记录带有 (inode, 大小, 修改时间)，三者与当前文件一致时才有效，读取只需一次 stat 和一次属性读取。
+ */
+@Service
+public class ChecksumService {
+
+    private static final String XATTR_NAME = "file.checksum";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int INDEX_VERSION = 1;
+    // 校验任务最多记录的异常文件数
+    private static final int MAX_REPORTED = 100;
+
+    public record Checksum(String sha256, String crc32c, long size, long modifiedTime) {
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("sha256", sha256);
+            map.put("crc32c", crc32c);
+            map.put("size", size);
+            map.put("modifiedTime", modifiedTime);
+            return map;
+        }
+    }
+
+    private record Stamp(String fileKey, long size, long modifiedTime) {
+        static Stamp of(BasicFileAttributes attrs) {
+            return new Stamp(String.valueOf(attrs.fileKey()), attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+    }
+
+    private record Record(Stamp stamp, String sha256, String crc32c) {
+        Checksum toChecksum() {
+            return new Checksum(sha256, crc32c, stamp.size(), stamp.modifiedTime());
+        }
+
+        String encode() {
+            return stamp.fileKey() + "|" + stamp.size() + "|" + stamp.modifiedTime() + "|" + sha256 + "|" + crc32c;
+        }
+
+        static Record decode(String value) {
+            String[] parts = value.split("\\|");
+            if (parts.length != 5) {
+                return null;
+            }
+            try {
+                return new Record(new Stamp(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])),
+                        parts[3], parts[4]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Path indexFile;
+    // xattr 不可用时的索引：绝对路径 -> 记录
+    private final Map<String, Record> index = new ConcurrentHashMap<>();
+    private final AtomicBoolean indexDirty = new AtomicBoolean();
+    // 同一文件的并发计算请求合并为一次
+    private final Map<Path, CompletableFuture<Checksum>> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong computed = new AtomicLong();
+    private final AtomicLong bytesHashed = new AtomicLong();
+    private final AtomicLong xattrFallbacks = new AtomicLong();
+
+    private volatile Map<String, Object> verifyStatus = Map.of("state", "idle");
+    private final AtomicBoolean verifying = new AtomicBoolean();
+
+    public ChecksumService(
+            @Value("${file.checksum.workers:2}") int workers,
+            @Value("${file.checksum.index-path:}") String indexPath
+    ) {
+        int threads = Math.max(1, workers);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "checksum-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.indexFile = indexPath.isEmpty() ? null : Paths.get(indexPath).normalize().toAbsolutePath();
+    }
+
+    @PostConstruct
+    public void loadIndex() {
+        if (indexFile == null || !Files.exists(indexFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Record record = Record.decode(in.readUTF());
+                if (record != null) {
+                    index.put(path, record);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("读取校验和索引失败，将重新计算: " + e.getMessage());
+            index.clear();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        flushIndex();
+    }
+
+    /**
+     * 只查缓存，不计算；缓存缺失或已失效时返回 null
+     */
+    public Checksum cached(Path file, BasicFileAttributes attrs) {
+        Record record = readRecord(file);
+        if (record != null && record.stamp().equals(Stamp.of(attrs))) {
+            hits.incrementAndGet();
+            return record.toChecksum();
+        }
+        return null;
+    }
+
+    public Checksum cached(Path file) throws IOException {
+        return cached(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    /**
+     * 返回有效缓存，或在后台线程池中计算
+     */
+    public CompletableFuture<Checksum> get(Path file) throws IOException {
+        Checksum checksum = cached(file);
+        if (checksum != null) {
+            return CompletableFuture.completedFuture(checksum);
+        }
+        CompletableFuture<Checksum> future = pending.computeIfAbsent(file, f -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return compute(f);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor));
+        future.whenComplete((c, e) -> pending.remove(file, future));
+        return future;
+    }
+
+    /**
+     * 重新读取文件计算校验和并写入缓存
+     */
+    public Checksum compute(Path file) throws IOException {
+        // 计算期间文件被修改时结果作废，重试一次
+        for (int attempt = 0; ; attempt++) {
+            BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+            MessageDigest sha256 = DigestUtil.sha256();
+            CRC32C crc = new CRC32C();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(file)) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    sha256.update(buffer, 0, n);
+                    crc.update(buffer, 0, n);
+                }
+            }
+            Stamp stamp = Stamp.of(before);
+            if (!stamp.equals(Stamp.of(Files.readAttributes(file, BasicFileAttributes.class)))) {
+                if (attempt == 0) {
+                    continue;
+                }
+                throw new IOException("文件在计算校验和期间被修改");
+            }
+
+            Record record = new Record(stamp, DigestUtil.toHex(sha256.digest()), String.format("%08x", crc.getValue()));
+            writeRecord(file, record);
+            computed.incrementAndGet();
+            bytesHashed.addAndGet(stamp.size());
+            return record.toChecksum();
+        }
+    }
+
+    /**
+     * 后台重新校验目录下所有文件：有缓存的文件重新计算并与缓存比对（发现静默损坏），
+     * 没有缓存的文件计算后写入缓存。同一时间只运行一个校验任务，运行时占用计算线程池中的一个线程，
+     * 服务关闭时随线程池一起中断。
+     *
+     * @param label 状态中显示的路径（不暴露服务器上的绝对路径）
+     * @return 任务已在运行时返回 false
+     */
+    public boolean startVerify(Path root, String label) {
+        if (!verifying.compareAndSet(false, true)) {
+            return false;
+        }
+        Map<String, Object> status = new ConcurrentHashMap<>();
+        status.put("state", "running");
+        status.put("path", label);
+        status.put("startedAt", System.currentTimeMillis());
+        verifyStatus = status;
+        try {
+            executor.execute(() -> runVerify(root, status));
+        } catch (RejectedExecutionException e) {
+            // 服务正在关闭
+            verifying.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    public Map<String, Object> verifyStatus() {
+        return new TreeMap<>(verifyStatus);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("computed", computed.get());
+        stats.put("bytesHashed", bytesHashed.get());
+        stats.put("xattrFallbacks", xattrFallbacks.get());
+        stats.put("indexEntries", index.size());
+        stats.put("pending", pending.size());
+        return stats;
+    }
+
+    /**
+     * 定期把索引写回磁盘（只在有变化时）
+     */
+    @Scheduled(fixedDelayString = "${file.checksum.flush-interval-ms:60000}")
+    public void flushIndex() {
+        if (indexFile == null || !indexDirty.compareAndSet(true, false)) {
+            return;
+        }
+        Path temp = AtomicFiles.tempSibling(indexFile, UUID.randomUUID().toString().replace("-", ""), ".tmp");
+        try {
+            Files.createDirectories(indexFile.getParent());
+            List<Map.Entry<String, Record>> entries = new ArrayList<>(index.entrySet());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Record> e : entries) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue().encode());
+                }
+            }
+            AtomicFiles.moveIntoPlace(temp, indexFile);
+        } catch (IOException e) {
+            indexDirty.set(true);
+            System.err.println("写入校验和索引失败: " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void runVerify(Path root, Map<String, Object> status) {
+        AtomicLong checked = new AtomicLong();
+        AtomicLong added = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        List<String> mismatched = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // 服务关闭，线程池被中断；未遍历完时不能清理索引
+                    status.put("state", "cancelled");
+                    return;
+                }
+                if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                seen.add(file.toAbsolutePath().toString());
+                try {
+                    Checksum previous = cached(file);
+                    Checksum current = compute(file);
+                    if (previous == null) {
+                        added.incrementAndGet();
+                    } else if (!previous.sha256().equals(current.sha256())) {
+                        // 属性未变而内容变了：静默损坏或绕过修改时间的写入
+                        report(mismatched, root.relativize(file).toString());
+                    }
+                    bytes.addAndGet(current.size());
+                } catch (IOException e) {
+                    report(failed, root.relativize(file) + ": " + e.getMessage());
+                }
+                status.put("checked", checked.incrementAndGet());
+                status.put("bytes", bytes.get());
+            }
+            // 顺便清理索引中该目录下已不存在的文件
+            String prefix = root.toAbsolutePath() + File.separator;
+            if (index.keySet().removeIf(p -> p.startsWith(prefix) && !seen.contains(p))) {
+                indexDirty.set(true);
+            }
+            status.put("state", "finished");
+        } catch (IOException | UncheckedIOException e) {
+            status.put("state", "failed");
+            status.put("error", e.getMessage());
+        } finally {
+            status.put("added", added.get());
+            status.put("mismatched", mismatched);
+            status.put("failed", failed);
+            status.put("finishedAt", System.currentTimeMillis());
+            verifying.set(false);
+        }
+    }
+
+    private static void report(List<String> list, String item) {
+        if (list.size() < MAX_REPORTED) {
+            list.add(item);
+        }
+    }
+
+    private Record readRecord(Path file) {
+        UserDefinedFileAttributeView view = xattrView(file);
+        if (view != null) {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(view.size(XATTR_NAME));
+                view.read(XATTR_NAME, buffer);
+                buffer.flip();
+                return Record.decode(StandardCharsets.US_ASCII.decode(buffer).toString());
+            } catch (IOException e) {
+                // 属性不存在或不可读，继续查索引
+            }
+        }
+        return index.get(file.toAbsolutePath().toString());
+    }
+
+    private void writeRecord(Path file, Record record) {
+        UserDefinedFileAttributeView view = xattrView(file);
+        if (view != null) {
+            try {
+                // 写扩展属性只改变 ctime，不影响 mtime，记录依然有效
+                view.write(XATTR_NAME, StandardCharsets.US_ASCII.encode(record.encode()));
+                return;
+            } catch (IOException e) {
+                xattrFallbacks.incrementAndGet();
+            }
+        }
+        if (indexFile != null) {
+            index.put(file.toAbsolutePath().toString(), record);
+            indexDirty.set(true);
+        }
+    }
+
+    private UserDefinedFileAttributeView xattrView(Path file) {
+        return Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+    }
+}
@@ -0,0 +1,350 @@
+package org.example.service;
+
+// ChunkedUploadService.java
+
+import org.example.utils.AtomicFiles;
+import org.example.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * 分块上传：init 返回上传 ID，各分块可并行 PUT 到各自偏移，complete 时校验并原子替换目标文件。
+ * 分块直接按偏移写入目标旁边的 .part 临时文件，不经过容器的 multipart 临时文件；
+ * 已接收的分块记录在会话中，断线重连后查询状态即可只补传缺失部分。长时间无活动的会话由定时任务清理。
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    public static final class Session {
+        private final String id;
+        private final Path target;
+        private final Path partFile;
+        private final long size;
+        private final int chunkSize;
+        private final int totalChunks;
+        private final String sha256;
+        private final BitSet received = new BitSet();
+        // 正在写入的分块；同一分块不允许并发写入
+        private final BitSet writing = new BitSet();
+        private int writers;
+        private volatile long lastActivity = System.currentTimeMillis();
+        private boolean closed;
+        // complete 等待写入结束期间不再接受新的分块
+        private boolean completing;
+
+        Session(String id, Path target, Path partFile, long size, int chunkSize, String sha256) {
+            this.id = id;
+            this.target = target;
+            this.partFile = partFile;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.totalChunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+            this.sha256 = sha256;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public Path target() {
+            return target;
+        }
+
+        long chunkLength(int index) {
+            return Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        public synchronized Map<String, Object> status() {
+            List<Integer> missing = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < totalChunks; i = received.nextClearBit(i + 1)) {
+                missing.add(i);
+            }
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put("uploadId", id);
+            status.put("size", size);
+            status.put("chunkSize", chunkSize);
+            status.put("totalChunks", totalChunks);
+            status.put("receivedChunks", received.cardinality());
+            status.put("missingChunks", missing);
+            return status;
+        }
+    }
+
+    /**
+     * 目标所在文件系统的剩余空间不足以容纳整个文件
+     */
+    public static class InsufficientSpaceException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        InsufficientSpaceException(String message) {
+            super(message);
+        }
+    }
+
+    private final int defaultChunkSize;
+    private final long sessionTtlMinutes;
+    private final long maxSize;
+    private final ContentStore contentStore;
+    private final PathLocks pathLocks;
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    public ChunkedUploadService(
+            @Value("${file.upload.chunk-size:8388608}") int defaultChunkSize,
+            @Value("${file.upload.session-ttl-minutes:1440}") long sessionTtlMinutes,
+            @Value("${file.upload.max-size:107374182400}") long maxSize,
+            ContentStore contentStore,
+            PathLocks pathLocks
+    ) {
+        this.defaultChunkSize = defaultChunkSize;
+        this.sessionTtlMinutes = sessionTtlMinutes;
+        this.maxSize = maxSize;
+        this.contentStore = contentStore;
+        this.pathLocks = pathLocks;
+    }
+
+    /**
+     * 创建上传会话并预分配临时文件
+     *
+     * @throws InsufficientSpaceException 剩余空间不足以容纳整个文件
+     */
+    public Session init(Path target, long size, Integer chunkSize, String sha256) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("文件大小无效");
+        }
+        if (maxSize > 0 && size > maxSize) {
+            throw new IllegalArgumentException("文件大小超过上限: " + maxSize + " 字节");
+        }
+        int effectiveChunkSize = chunkSize == null ? defaultChunkSize : chunkSize;
+        if (effectiveChunkSize < MIN_CHUNK_SIZE || effectiveChunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("分块大小必须在 64KB 到 64MB 之间");
+        }
+        if (sha256 != null && !sha256.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("SHA-256 格式错误");
+        }
+
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Files.createDirectories(target.getParent());
+        // 预分配的多为稀疏文件，空间不足要到写分块时才暴露，先按剩余空间拒绝
+        long usable = Files.getFileStore(target.getParent()).getUsableSpace();
+        if (size > usable) {
+            throw new InsufficientSpaceException("剩余空间不足: 需要 " + size + " 字节，可用 " + usable + " 字节");
+        }
+        Path partFile = AtomicFiles.tempSibling(target, id, ".part");
+        FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try (channel) {
+            if (size > 0) {
+                // 写入最后一个字节以预分配长度（多数文件系统上为稀疏文件）
+                channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(partFile);
+            throw e;
+        }
+
+        Session session = new Session(id, target, partFile, size, effectiveChunkSize,
+                sha256 == null ? null : sha256.toLowerCase(Locale.ROOT));
+        sessions.put(id, session);
+        return session;
+    }
+
+    public Session get(String uploadId) {
+        Session session = sessions.get(uploadId);
+        if (session == null) {
+            throw new NoSuchElementException("上传会话不存在或已过期");
+        }
+        session.lastActivity = System.currentTimeMillis();
+        return session;
+    }
+
+    /**
+     * 将请求体写入指定分块。偏移必须对齐分块边界，长度必须与该分块一致；
+     * 提供 CRC32C 时校验失败的分块不会标记为已接收，可直接重传。
+     * 重传已接收的分块时先取消其接收标记，写入失败后该分块视为缺失。
+     *
+     * @throws IllegalStateException 同一分块正在写入，或会话正在合并
+     */
+    public void writeChunk(String uploadId, long offset, InputStream body, String expectedCrc32c) throws IOException {
+        Session session = get(uploadId);
+        if (offset < 0 || offset % session.chunkSize != 0 || (offset >= session.size && session.size > 0)) {
+            throw new IllegalArgumentException("偏移量必须对齐分块边界");
+        }
+        int index = (int) (offset / session.chunkSize);
+        synchronized (session) {
+            if (session.closed) {
+                throw new NoSuchElementException("上传会话已结束");
+            }
+            if (session.completing) {
+                throw new IllegalStateException("上传正在合并");
+            }
+            if (session.writing.get(index)) {
+                throw new IllegalStateException("该分块正在写入");
+            }
+            // 写入会覆盖原有内容，校验通过之前该分块不算已接收
+            session.received.clear(index);
+            session.writing.set(index);
+            session.writers++;
+        }
+        try {
+            write(session, index, offset, body, expectedCrc32c);
+        } finally {
+            synchronized (session) {
+                session.writing.clear(index);
+                session.writers--;
+                session.notifyAll();
+            }
+        }
+    }
+
+    private void write(Session session, int index, long offset, InputStream body, String expectedCrc32c)
+            throws IOException {
+        long expectedLength = session.chunkLength(index);
+        CRC32C crc = new CRC32C();
+        long written = 0;
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try (FileChannel channel = FileChannel.open(session.partFile, StandardOpenOption.WRITE)) {
+            int n;
+            while ((n = body.read(buffer)) > 0) {
+                if (written + n > expectedLength) {
+                    throw new IllegalArgumentException("分块长度超出预期: " + expectedLength);
+                }
+                crc.update(buffer, 0, n);
+                ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+                long position = offset + written;
+                while (bb.hasRemaining()) {
+                    position += channel.write(bb, position);
+                }
+                written += n;
+                session.lastActivity = System.currentTimeMillis();
+            }
+        } catch (NoSuchFileException e) {
+            throw new NoSuchElementException("上传会话已结束");
+        }
+
+        if (written != expectedLength) {
+            throw new IllegalArgumentException("分块长度不完整: " + written + "/" + expectedLength);
+        }
+        String actual = String.format("%08x", crc.getValue());
+        if (expectedCrc32c != null && !expectedCrc32c.equalsIgnoreCase(actual)) {
+            throw new IllegalArgumentException("分块校验失败");
+        }
+        synchronized (session) {
+            if (session.closed) {
+                throw new NoSuchElementException("上传会话已结束");
+            }
+            session.received.set(index);
+        }
+    }
+
+    /**
+     * 所有分块到齐后校验整体哈希（如有），再原子移动到目标位置
+     */
+    public Path complete(String uploadId) throws IOException {
+        Session session = get(uploadId);
+        synchronized (session) {
+            if (session.closed || session.completing) {
+                throw new NoSuchElementException("上传会话已结束");
+            }
+            // 等待进行中的写入结束，之后文件内容不再变化才能计算哈希和移动
+            session.completing = true;
+            try {
+                awaitWriters(session);
+            } finally {
+                session.completing = false;
+            }
+            if (session.received.cardinality() < session.totalChunks && session.size > 0) {
+                throw new IllegalStateException("仍有分块未上传");
+            }
+            session.closed = true;
+        }
+
+        try {
+            String hash = session.sha256 != null || contentStore.isEnabled()
+                    ? DigestUtil.sha256Hex(session.partFile) : null;
+            if (session.sha256 != null && !session.sha256.equals(hash)) {
+                throw new IllegalStateException("文件校验失败");
+            }
+            // 哈希在锁外计算，只在替换目标时持锁
+            PathLocks.Lease lease = pathLocks.exclusive(session.target);
+            try {
+                if (contentStore.isEnabled()) {
+                    contentStore.adopt(session.partFile, hash, session.target);
+                } else {
+                    AtomicFiles.moveIntoPlace(session.partFile, session.target);
+                }
+            } finally {
+                lease.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(session);
+            throw e;
+        }
+        sessions.remove(uploadId);
+        return session.target;
+    }
+
+    public void abort(String uploadId) throws IOException {
+        Session session = get(uploadId);
+        synchronized (session) {
+            session.closed = true;
+            awaitWriters(session);
+        }
+        discard(session);
+    }
+
+    /**
+     * 清理长时间无活动的上传会话及其临时文件
+     */
+    @Scheduled(fixedDelayString = "${file.upload.cleanup-interval-ms:600000}")
+    public void cleanupExpired() {
+        long deadline = System.currentTimeMillis() - sessionTtlMinutes * 60_000;
+        for (Session session : sessions.values()) {
+            if (session.lastActivity < deadline) {
+                synchronized (session) {
+                    // 仍有写入的会话留到下一轮，不在定时任务中等待
+                    if (session.writers > 0) {
+                        continue;
+                    }
+                    session.closed = true;
+                }
+                try {
+                    discard(session);
+                } catch (IOException e) {
+                    System.err.println("清理上传会话失败: " + session.partFile);
+                }
+            }
+        }
+    }
+
+    // 调用方持有 session 的锁
+    private static void awaitWriters(Session session) throws InterruptedIOException {
+        while (session.writers > 0) {
+            try {
+                session.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待分块写入结束时被中断");
+            }
+        }
+    }
+
+    private void discard(Session session) throws IOException {
+        sessions.remove(session.id);
+        Files.deleteIfExists(session.partFile);
+    }
+}
@@ -0,0 +1,333 @@
+package org.example.service;
+
+// CompressionService.java
+
+import jakarta.annotation.PostConstruct;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.example.utils.AtomicFiles;
+import org.example.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 文本类下载的 gzip 压缩：客户端接受 gzip 时边读边压缩输出；同一文件被多次下载后，
+ * 压缩结果在输出的同时写入磁盘缓存，之后直接发送缓存的压缩文件。
+ * <p>
+ * 缓存文件名带源文件的大小和修改时间，任一变化即视为失效；缓存总大小超过上限时淘汰最久未用的。
+ * 只处理扩展名在白名单中的文本格式，压缩包、图片、视频等已压缩格式直接原样发送。
+ */
+@Service
+public class CompressionService {
+
+    private static final Set<String> EXTENSIONS = Set.of(
+            "txt", "log", "csv", "tsv", "json", "ndjson", "xml", "html", "htm", "css", "js", "md",
+            "yaml", "yml", "sql", "ini", "conf", "properties", "svg");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // 下载计数表的上限，超过后清空重新计数
+    private static final int MAX_TRACKED = 10_000;
+
+    private record Variant(Path file, long sourceSize, long sourceModified, long size) {
+    }
+
+    private final boolean enabled;
+    private final long minSize;
+    private final int level;
+    private final int cacheAfter;
+    private final Path cacheDir;
+    private final long maxCacheBytes;
+
+    private final Map<String, AtomicInteger> downloads = new ConcurrentHashMap<>();
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+    // 按访问顺序排列，键为源文件路径的哈希
+    private final LinkedHashMap<String, Variant> variants = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheBytes;
+
+    private final AtomicLong streamed = new AtomicLong();
+    private final AtomicLong servedFromCache = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    public CompressionService(
+            @Value("${file.download-compression.enabled:true}") boolean enabled,
+            @Value("${file.download-compression.min-size:1024}") long minSize,
+            @Value("${file.download-compression.level:6}") int level,
+            @Value("${file.download-compression.cache-after:2}") int cacheAfter,
+            @Value("${file.download-compression.cache-path:}") String cachePath,
+            @Value("${file.download-compression.max-cache-bytes:1073741824}") long maxCacheBytes
+    ) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.level = level;
+        this.cacheAfter = cacheAfter;
+        this.cacheDir = cachePath.isEmpty() ? null : Paths.get(cachePath).normalize().toAbsolutePath();
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * 载入已有的压缩缓存；文件名格式为 路径哈希-源大小-源修改时间.gz
+     */
+    @PostConstruct
+    public void loadCache() throws IOException {
+        if (cacheDir == null || !Files.isDirectory(cacheDir)) {
+            return;
+        }
+        List<Variant> found = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String[] parts = file.getFileName().toString().split("[-.]");
+                if (parts.length != 4 || !"gz".equals(parts[3])) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                try {
+                    found.add(new Variant(file, Long.parseLong(parts[1], 16), Long.parseLong(parts[2], 16), Files.size(file)));
+                    keys.add(parts[0]);
+                } catch (NumberFormatException e) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        synchronized (variants) {
+            for (int i = 0; i < found.size(); i++) {
+                variants.put(keys.get(i), found.get(i));
+                cacheBytes += found.get(i).size();
+            }
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * 是否应对该文件协商压缩
+     */
+    public boolean isCompressible(Path file, long size) {
+        if (!enabled || size < minSize) {
+            return false;
+        }
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 解析 Accept-Encoding，gzip（或 *）的 q 值大于 0 时接受
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!coding.equals("gzip") && !coding.equals("x-gzip") && !coding.equals("*")) {
+                continue;
+            }
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            return q > 0;
+        }
+        return false;
+    }
+
+    /**
+     * 与源文件大小、修改时间一致的缓存压缩文件；不存在或已失效时返回 null
+     */
+    public Path cachedVariant(Path file, BasicFileAttributes attrs) {
+        if (cacheDir == null) {
+            return null;
+        }
+        String key = key(file);
+        Variant stale;
+        synchronized (variants) {
+            Variant variant = variants.get(key);
+            if (variant == null) {
+                return null;
+            }
+            if (variant.sourceSize() == attrs.size() && variant.sourceModified() == attrs.lastModifiedTime().toMillis()
+                    && Files.exists(variant.file())) {
+                servedFromCache.incrementAndGet();
+                return variant.file();
+            }
+            variants.remove(key);
+            cacheBytes -= variant.size();
+            stale = variant;
+        }
+        try {
+            Files.deleteIfExists(stale.file());
+        } catch (IOException e) {
+            System.err.println("删除过期压缩缓存失败: " + stale.file());
+        }
+        return null;
+    }
+
+    /**
+     * 边读边压缩写入 out（不关闭 out）。下载次数达到阈值时同时写入缓存，完整输出且源文件未变化才保留。
+     */
+    public void compress(Path file, BasicFileAttributes attrs, OutputStream out) throws IOException {
+        streamed.incrementAndGet();
+        String key = key(file);
+        Path tmp = null;
+        OutputStream cacheOut = null;
+        if (shouldCache(key)) {
+            try {
+                Files.createDirectories(cacheDir);
+                tmp = AtomicFiles.tempSibling(cacheDir.resolve(key + ".gz"), UUID.randomUUID().toString(), ".tmp");
+                cacheOut = Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                writing.remove(key);
+                tmp = null;
+            }
+        }
+
+        boolean complete = false;
+        CountingOutputStream counted = new CountingOutputStream(cacheOut == null
+                ? CloseShieldOutputStream.wrap(out)
+                : new TeeOutputStream(CloseShieldOutputStream.wrap(out), cacheOut));
+        try (InputStream in = Files.newInputStream(file);
+             GZIPOutputStream gzip = new LeveledGzipOutputStream(counted, level)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            long read = 0;
+            while ((n = in.read(buffer)) > 0) {
+                gzip.write(buffer, 0, n);
+                read += n;
+            }
+            gzip.finish();
+            bytesIn.addAndGet(read);
+            complete = true;
+        } finally {
+            bytesOut.addAndGet(counted.getByteCount());
+            IOUtils.closeQuietly(cacheOut);
+            if (tmp != null) {
+                finishCache(key, file, attrs, tmp, complete);
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("streamed", streamed.get());
+        stats.put("servedFromCache", servedFromCache.get());
+        stats.put("cachedVariants", cached.get());
+        stats.put("evicted", evicted.get());
+        synchronized (variants) {
+            stats.put("entries", variants.size());
+            stats.put("cacheBytes", cacheBytes);
+        }
+        long in = bytesIn.get();
+        stats.put("bytesIn", in);
+        stats.put("bytesOut", bytesOut.get());
+        stats.put("ratio", in == 0 ? 0.0 : (double) bytesOut.get() / in);
+        return stats;
+    }
+
+    private boolean shouldCache(String key) {
+        if (cacheDir == null || cacheAfter <= 0) {
+            return false;
+        }
+        if (downloads.size() > MAX_TRACKED) {
+            downloads.clear();
+        }
+        int count = downloads.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+        // 同一文件同时只写一份缓存
+        return count >= cacheAfter && writing.add(key);
+    }
+
+    private void finishCache(String key, Path file, BasicFileAttributes attrs, Path tmp, boolean complete) {
+        try {
+            BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+            boolean unchanged = after.size() == attrs.size()
+                    && after.lastModifiedTime().equals(attrs.lastModifiedTime());
+            if (!complete || !unchanged) {
+                return;
+            }
+            long sourceModified = attrs.lastModifiedTime().toMillis();
+            Path target = cacheDir.resolve(key + "-" + Long.toHexString(attrs.size()) + "-"
+                    + Long.toHexString(sourceModified) + ".gz");
+            AtomicFiles.moveIntoPlace(tmp, target);
+            Variant variant = new Variant(target, attrs.size(), sourceModified, Files.size(target));
+            Variant previous;
+            synchronized (variants) {
+                previous = variants.put(key, variant);
+                cacheBytes += variant.size() - (previous == null ? 0 : previous.size());
+            }
+            if (previous != null && !previous.file().equals(target)) {
+                Files.deleteIfExists(previous.file());
+            }
+            downloads.remove(key);
+            cached.incrementAndGet();
+            evictIfNeeded();
+        } catch (IOException e) {
+            System.err.println("写入压缩缓存失败: " + e.getMessage());
+        } finally {
+            writing.remove(key);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void evictIfNeeded() {
+        List<Path> victims = new ArrayList<>();
+        synchronized (variants) {
+            Iterator<Variant> it = variants.values().iterator();
+            while (cacheBytes > maxCacheBytes && it.hasNext()) {
+                Variant eldest = it.next();
+                cacheBytes -= eldest.size();
+                victims.add(eldest.file());
+                it.remove();
+            }
+        }
+        for (Path victim : victims) {
+            try {
+                Files.deleteIfExists(victim);
+                evicted.incrementAndGet();
+            } catch (IOException e) {
+                System.err.println("删除压缩缓存失败: " + victim);
+            }
+        }
+    }
+
+    private static String key(Path file) {
+        byte[] digest = DigestUtil.sha256().digest(file.toAbsolutePath().normalize().toString()
+                .getBytes(StandardCharsets.UTF_8));
+        return DigestUtil.toHex(digest).substring(0, 32);
+    }
+
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
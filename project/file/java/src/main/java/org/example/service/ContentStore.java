@@ -0,0 +1,458 @@
+package org.example.service;
+
+// ContentStore.java
+
+import jakarta.annotation.PostConstruct;
+import org.example.utils.AtomicFiles;
+import org.example.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 内容寻址的去重存储（可选）：上传内容边写边计算 SHA-256，相同内容只在仓库中保存一份，
+ * 用户可见的文件是指向仓库对象的硬链接。
+ * <p>
+ * 引用计数直接使用文件系统的链接数：删除、覆盖可见文件时链接数自然减少，
+ * 仓库对象的链接数降为 1（只剩仓库自身）时即可回收。因此要求所有写入都以“临时文件 + 重命名”替换目标，
+ * 不能原地修改已有文件，否则会改动共享同一对象的其他文件。
+ * 需要文件系统暴露 unix:nlink 属性，不支持时自动关闭去重。
+ * <p>
+ * 客户端没有提供 SHA-256 时，按“长度 + 首块哈希”找出可能相同的已有对象，请求体逐块与之比对，
+ * 一致的部分不写临时文件；出现不一致时再把已比对的前缀从该对象复制过来，之后正常写入。
+ */
+@Service
+public class ContentStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LOCK_STRIPES = 64;
+    // 预判重复内容时读取的首块大小；不超过该大小的内容直接写入
+    private static final int HEAD_SIZE = 4096;
+
+    private final Path root;
+    private final Path objects;
+    private final Path temp;
+    private volatile boolean enabled;
+
+    // 同一哈希的入库/链接与回收互斥，避免刚被判定为无引用的对象又被链接
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    // 仓库对象的 fileKey（设备号 + inode）到对象路径的映射，用于从可见文件反查对象
+    private final Map<Object, Path> objectsByKey = new ConcurrentHashMap<>();
+    // “长度:首块哈希前缀”到对象路径，只是候选，是否相同以逐字节比对为准
+    private final Map<String, Path> objectsByHead = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong headMatches = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong linkFallbacks = new AtomicLong();
+    private final AtomicLong collected = new AtomicLong();
+
+    public ContentStore(
+            @Value("${file.dedup.enabled:false}") boolean enabled,
+            @Value("${file.dedup.store-path:}") String storePath
+    ) {
+        this.enabled = enabled && !storePath.isEmpty();
+        this.root = storePath.isEmpty() ? null : Paths.get(storePath).normalize().toAbsolutePath();
+        this.objects = root == null ? null : root.resolve("objects");
+        this.temp = root == null ? null : root.resolve("tmp");
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(objects);
+            Files.createDirectories(temp);
+            if (!Files.getFileStore(root).supportsFileAttributeView("unix")) {
+                System.err.println("去重存储需要支持 unix:nlink 的文件系统，已关闭: " + root);
+                enabled = false;
+                return;
+            }
+            // 上次异常退出残留的临时文件
+            try (Stream<Path> leftovers = Files.list(temp)) {
+                for (Path p : (Iterable<Path>) leftovers::iterator) {
+                    Files.deleteIfExists(p);
+                }
+            }
+            try (Stream<Path> blobs = Files.walk(objects)) {
+                blobs.filter(Files::isRegularFile).forEach(this::index);
+            }
+        } catch (IOException e) {
+            System.err.println("去重存储初始化失败，已关闭: " + e.getMessage());
+            enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 写入内容并链接到目标。提供 expectedSha256 且仓库中已有该对象时，请求体只做哈希校验不再落盘；
+     * 只提供 expectedSize 时，与长度、首块都相同的已有对象逐块比对，完全一致同样不落盘。
+     *
+     * @return 内容长度
+     */
+    public long store(InputStream in, Path target, Long expectedSize, String expectedSha256) throws IOException {
+        return store(in, target, expectedSize, expectedSha256, null);
+    }
+
+    /**
+     * 同上；locks 不为 null 时只在替换目标的那一步对目标加排他锁，写入内容期间不持锁
+     */
+    public long store(InputStream in, Path target, Long expectedSize, String expectedSha256, PathLocks locks)
+            throws IOException {
+        String expected = expectedSha256 == null ? null : expectedSha256.toLowerCase(Locale.ROOT);
+        boolean known = expected != null && Files.exists(objectPath(expected));
+
+        byte[] head = null;
+        Path candidate = null;
+        if (!known && expected == null && expectedSize != null && expectedSize > HEAD_SIZE) {
+            head = in.readNBytes(HEAD_SIZE);
+            candidate = head.length == HEAD_SIZE ? objectsByHead.get(headKey(expectedSize, head)) : null;
+        }
+
+        MessageDigest digest = DigestUtil.sha256();
+        Receiver receiver = null;
+        try {
+            long written = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (Receiver out = receiver = new Receiver(known, candidate)) {
+                if (head != null) {
+                    written = head.length;
+                    digest.update(head);
+                    out.write(head, head.length);
+                }
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    written += n;
+                    if (expectedSize != null && written > expectedSize) {
+                        throw new IllegalArgumentException("内容长度超出预期: " + expectedSize);
+                    }
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, n);
+                }
+                out.finish();
+            }
+            if (expectedSize != null && written != expectedSize) {
+                throw new IllegalArgumentException("内容长度不完整: " + written + "/" + expectedSize);
+            }
+            String hash = DigestUtil.toHex(digest.digest());
+            if (expected != null && !expected.equals(hash)) {
+                throw new IllegalArgumentException("文件校验失败");
+            }
+            if (candidate != null && receiver.tempFile == null) {
+                headMatches.incrementAndGet();
+            }
+
+            PathLocks.Lease lease = locks == null ? null : locks.exclusive(target);
+            try {
+                if (!commit(receiver.tempFile, hash, target)) {
+                    // 对象在校验期间被回收，只能要求客户端重传
+                    throw new NoSuchFileException("内容已失效，请重新上传");
+                }
+            } finally {
+                if (lease != null) {
+                    lease.close();
+                }
+            }
+            receiver.tempFile = null;
+            return written;
+        } finally {
+            if (receiver != null && receiver.tempFile != null) {
+                Files.deleteIfExists(receiver.tempFile);
+            }
+        }
+    }
+
+    /**
+     * 请求体的去向：已知对象时只计算哈希；有候选对象时逐块比对，尚未写入任何内容；
+     * 否则写入临时文件。比对结束后 tempFile 为 null 表示内容与已有对象相同。
+     */
+    private final class Receiver implements Closeable {
+        private final Path candidate;
+        private InputStream same;
+        private OutputStream out;
+        private long matched;
+        Path tempFile;
+
+        Receiver(boolean known, Path candidate) throws IOException {
+            this.candidate = candidate;
+            if (known) {
+                out = OutputStream.nullOutputStream();
+                return;
+            }
+            if (candidate != null) {
+                try {
+                    same = Files.newInputStream(candidate);
+                    return;
+                } catch (NoSuchFileException e) {
+                    // 候选对象刚被回收
+                }
+            }
+            openTemp();
+        }
+
+        void write(byte[] bytes, int length) throws IOException {
+            if (same != null) {
+                byte[] theirs = same.readNBytes(length);
+                if (Arrays.equals(theirs, 0, theirs.length, bytes, 0, length)) {
+                    matched += length;
+                    return;
+                }
+                diverge();
+            }
+            out.write(bytes, 0, length);
+        }
+
+        // 请求体已读完；候选对象更长时同样视为不同
+        void finish() throws IOException {
+            if (same != null && same.read() >= 0) {
+                diverge();
+            }
+        }
+
+        // 内容不同：已比对一致的部分就是候选对象的开头，从本地复制，请求体不必重读
+        private void diverge() throws IOException {
+            same.close();
+            same = null;
+            openTemp();
+            try (InputStream prefix = Files.newInputStream(candidate)) {
+                long remaining = matched;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while (remaining > 0 && (n = prefix.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+                if (remaining > 0) {
+                    throw new IOException("去重对象长度异常: " + candidate);
+                }
+            }
+        }
+
+        private void openTemp() throws IOException {
+            tempFile = temp.resolve(UUID.randomUUID().toString().replace("-", ""));
+            out = Files.newOutputStream(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (same != null) {
+                same.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * 把已写好的文件（如分块上传的临时文件）收入仓库并链接到目标；文件会被移走或删除
+     *
+     * @param hash 已计算好的 SHA-256，为 null 时在此计算
+     */
+    public void adopt(Path file, String hash, Path target) throws IOException {
+        if (hash == null) {
+            hash = DigestUtil.sha256Hex(file);
+        }
+        commit(file, hash, target);
+    }
+
+    /**
+     * 收集某个路径（文件或目录）下链接到仓库对象的文件，在删除这些文件之后传给 {@link #release}
+     */
+    public Set<Path> linkedObjects(Path path) throws IOException {
+        Set<Path> result = new HashSet<>();
+        if (!enabled || objectsByKey.isEmpty()) {
+            return result;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                Path object = attrs.isRegularFile() && attrs.fileKey() != null ? objectsByKey.get(attrs.fileKey()) : null;
+                if (object != null) {
+                    result.add(object);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 回收已无可见链接的对象
+     */
+    public void release(Collection<Path> candidates) {
+        for (Path object : candidates) {
+            synchronized (lockFor(object.getFileName().toString())) {
+                try {
+                    collectIfUnreferenced(object);
+                } catch (IOException e) {
+                    System.err.println("回收去重对象失败: " + object + " - " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 定期扫描整个仓库，兜底回收被其他途径（覆盖上传、外部删除等）释放的对象
+     */
+    @Scheduled(fixedDelayString = "${file.dedup.gc-interval-ms:3600000}")
+    public void sweep() {
+        if (!enabled) {
+            return;
+        }
+        try (Stream<Path> blobs = Files.walk(objects)) {
+            release(blobs.filter(Files::isRegularFile).toList());
+        } catch (IOException e) {
+            System.err.println("扫描去重存储失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 文件链接到仓库对象时直接返回其 SHA-256（即对象名），否则返回 null；只查内存索引，不读取内容
+     */
+    public String cachedHash(BasicFileAttributes attrs) {
+        if (!enabled || attrs.fileKey() == null) {
+            return null;
+        }
+        Path object = objectsByKey.get(attrs.fileKey());
+        return object == null ? null : object.getFileName().toString();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("objects", objectsByKey.size());
+        stats.put("headMatches", headMatches.get());
+        stats.put("hits", hits.get());
+        stats.put("bytesSaved", bytesSaved.get());
+        stats.put("linkFallbacks", linkFallbacks.get());
+        stats.put("collected", collected.get());
+        return stats;
+    }
+
+    /**
+     * 内容入库后链接到目标；同一哈希已存在时丢弃新写入的副本
+     *
+     * @param file 新写入的内容，为 null 表示调用方确认对象已存在
+     * @return 对象不存在且没有提供内容时返回 false
+     */
+    private boolean commit(Path file, String hash, Path target) throws IOException {
+        Path object = objectPath(hash);
+        Set<Path> replaced = Files.isRegularFile(target) ? linkedObjects(target) : new HashSet<>();
+        synchronized (lockFor(hash)) {
+            if (Files.exists(object)) {
+                if (file != null) {
+                    Files.delete(file);
+                }
+                hits.incrementAndGet();
+                bytesSaved.addAndGet(Files.size(object));
+            } else if (file == null) {
+                return false;
+            } else {
+                Files.createDirectories(object.getParent());
+                Files.move(file, object, StandardCopyOption.ATOMIC_MOVE);
+                index(object);
+            }
+            link(object, target);
+        }
+        // 覆盖了指向其他对象的文件时回收旧对象；放在锁外，避免同时持有两个分段锁
+        replaced.remove(object);
+        release(replaced);
+        return true;
+    }
+
+    /**
+     * 在目标旁边创建硬链接再原子替换目标；不支持硬链接或链接数达到上限时退化为复制
+     */
+    private void link(Path object, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tempLink = AtomicFiles.tempSibling(target, UUID.randomUUID().toString().replace("-", ""), ".link");
+        try {
+            try {
+                Files.createLink(tempLink, object);
+            } catch (IOException | UnsupportedOperationException e) {
+                linkFallbacks.incrementAndGet();
+                Files.copy(object, tempLink);
+            }
+            AtomicFiles.moveIntoPlace(tempLink, target);
+        } finally {
+            Files.deleteIfExists(tempLink);
+        }
+    }
+
+    private void collectIfUnreferenced(Path object) throws IOException {
+        BasicFileAttributes attrs;
+        int links;
+        try {
+            attrs = Files.readAttributes(object, BasicFileAttributes.class);
+            links = (Integer) Files.getAttribute(object, "unix:nlink");
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        if (links <= 1) {
+            String head = attrs.size() > HEAD_SIZE ? headKey(attrs.size(), readHead(object)) : null;
+            Files.delete(object);
+            if (attrs.fileKey() != null) {
+                objectsByKey.remove(attrs.fileKey());
+            }
+            if (head != null) {
+                objectsByHead.remove(head, object);
+            }
+            collected.incrementAndGet();
+        }
+    }
+
+    private void index(Path object) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(object, BasicFileAttributes.class);
+            if (attrs.fileKey() != null) {
+                objectsByKey.put(attrs.fileKey(), object);
+            }
+            if (attrs.size() > HEAD_SIZE) {
+                objectsByHead.put(headKey(attrs.size(), readHead(object)), object);
+            }
+        } catch (IOException e) {
+            System.err.println("读取去重对象失败: " + object);
+        }
+    }
+
+    private static byte[] readHead(Path object) throws IOException {
+        try (InputStream in = Files.newInputStream(object)) {
+            return in.readNBytes(HEAD_SIZE);
+        }
+    }
+
+    // 长度与首块哈希的前 64 位；碰撞只会多做一次比对
+    private static String headKey(long size, byte[] head) {
+        MessageDigest digest = DigestUtil.sha256();
+        digest.update(head);
+        return size + ":" + DigestUtil.toHex(digest.digest()).substring(0, 16);
+    }
+
+    private Path objectPath(String hash) {
+        return objects.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+}
@@ -0,0 +1,431 @@
+package org.example.service;
+
+// DeltaUploadService.java
+
+import org.example.utils.AtomicFiles;
+import org.example.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 增量上传（rsync 方式）：大文件只改动了少量内容时，客户端不必重传整个文件。
+ * <ol>
+ * <li>客户端获取已有文件的签名：按固定块大小切分，每块一个滚动校验和（弱）与 SHA-256 前 16 字节（强）。</li>
+ * <li>客户端在新版本上逐字节滚动弱校验和，命中且强校验一致的位置用“复制第 i 块”代替，其余作为字面数据发送。</li>
+ * <li>服务端按指令在目标旁的临时文件中按偏移写出新版本，校验整体 SHA-256 后原子替换。</li>
+ * </ol>
+ * 同一文件系统支持写时复制克隆时，临时文件先克隆旧版本，位置不变的块无需写入，只写变化的部分。
+ * <p>
+ * 指令流为大端二进制：{@code 0x01 块号(int64) 块数(int32)} 复制旧版本的连续块，
+ * {@code 0x02 长度(int32) 数据} 字面数据，{@code 0x00} 结束。
+ */
+@Service
+public class DeltaUploadService {
+
+    public static final byte OP_END = 0;
+    public static final byte OP_COPY = 1;
+    public static final byte OP_LITERAL = 2;
+
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+    public static final int MAX_BLOCK_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_LITERAL = 64 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // 强校验取 SHA-256 的前 16 字节
+    private static final int STRONG_LENGTH = 16;
+
+    /**
+     * 文件签名；base 标识旧版本（大小与修改时间），上传时原样带回，旧版本已变化时拒绝
+     */
+    public record Signature(String base, long size, int blockSize, int[] weak, String[] strong) {
+    }
+
+    /**
+     * 基准版本已变化，需重新获取签名
+     */
+    public static class BaseChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BaseChangedException(String message) {
+            super(message);
+        }
+    }
+
+    // 缓存只保存紧凑形式：强校验按块连续存放，每块 STRONG_LENGTH 字节，响应时再展开为十六进制
+    private record CachedSignature(String base, long size, int blockSize, int[] weak, byte[] strong, Object fileKey) {
+        long bytes() {
+            return weak.length * 4L + strong.length;
+        }
+
+        Signature toSignature() {
+            String[] hex = new String[weak.length];
+            for (int i = 0; i < hex.length; i++) {
+                hex[i] = DigestUtil.toHex(Arrays.copyOfRange(strong, i * STRONG_LENGTH, (i + 1) * STRONG_LENGTH));
+            }
+            return new Signature(base, size, blockSize, weak, hex);
+        }
+    }
+
+    private final TreeCopier treeCopier;
+    private final ContentStore contentStore;
+    private final PathLocks pathLocks;
+    private final int signatureCacheEntries;
+    private final long signatureCacheBytes;
+
+    private final LinkedHashMap<Path, CachedSignature> signatures = new LinkedHashMap<>(16, 0.75f, true);
+    private long signatureBytes;
+
+    private final AtomicLong signaturesComputed = new AtomicLong();
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong literalBytes = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong clonedBases = new AtomicLong();
+
+    public DeltaUploadService(
+            TreeCopier treeCopier,
+            ContentStore contentStore,
+            PathLocks pathLocks,
+            @Value("${file.delta.signature-cache-entries:16}") int signatureCacheEntries,
+            @Value("${file.delta.signature-cache-bytes:67108864}") long signatureCacheBytes
+    ) {
+        this.treeCopier = treeCopier;
+        this.contentStore = contentStore;
+        this.pathLocks = pathLocks;
+        this.signatureCacheEntries = signatureCacheEntries;
+        this.signatureCacheBytes = signatureCacheBytes;
+    }
+
+    /**
+     * rsync 的滚动校验和：a 为字节和，b 为加权和，均取低 16 位；窗口右移一个字节时 O(1) 更新
+     */
+    public static final class RollingChecksum {
+        private final int length;
+        private int a;
+        private int b;
+
+        private RollingChecksum(int length, int a, int b) {
+            this.length = length;
+            this.a = a;
+            this.b = b;
+        }
+
+        public static RollingChecksum of(byte[] data, int offset, int length) {
+            int a = 0;
+            int b = 0;
+            for (int i = 0; i < length; i++) {
+                int x = data[offset + i] & 0xff;
+                a += x;
+                b += (length - i) * x;
+            }
+            return new RollingChecksum(length, a & 0xffff, b & 0xffff);
+        }
+
+        /**
+         * 移出窗口最前面的字节 out，移入 in
+         */
+        public void roll(byte out, byte in) {
+            a = (a - (out & 0xff) + (in & 0xff)) & 0xffff;
+            b = (b - length * (out & 0xff) + a) & 0xffff;
+        }
+
+        public int value() {
+            return a | b << 16;
+        }
+    }
+
+    public static String strongHash(byte[] data, int offset, int length) {
+        MessageDigest digest = DigestUtil.sha256();
+        digest.update(data, offset, length);
+        return DigestUtil.toHex(Arrays.copyOf(digest.digest(), STRONG_LENGTH));
+    }
+
+    /**
+     * 默认块大小取文件大小的平方根（2 的幂），块数过多时再加大
+     */
+    public static int defaultBlockSize(long size) {
+        int blockSize = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, Math.max(1, (long) Math.sqrt(size))));
+        blockSize = Math.max(MIN_BLOCK_SIZE, Math.min(1024 * 1024, blockSize));
+        while (blockSize < MAX_BLOCK_SIZE && size / blockSize > (1 << 20)) {
+            blockSize <<= 1;
+        }
+        return blockSize;
+    }
+
+    public Signature signature(Path file, Integer blockSize) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (!attrs.isRegularFile()) {
+            throw new IllegalArgumentException("只能对文件计算签名");
+        }
+        int effectiveBlockSize = blockSize == null ? defaultBlockSize(attrs.size()) : blockSize;
+        if (effectiveBlockSize < MIN_BLOCK_SIZE || effectiveBlockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("块大小必须在 2KB 到 8MB 之间");
+        }
+        String base = baseToken(attrs);
+        CachedSignature cached;
+        synchronized (signatures) {
+            cached = signatures.get(file);
+        }
+        if (cached != null && cached.base().equals(base) && cached.blockSize() == effectiveBlockSize
+                && Objects.equals(cached.fileKey(), attrs.fileKey())) {
+            return cached.toSignature();
+        }
+
+        int blocks = (int) ((attrs.size() + effectiveBlockSize - 1) / effectiveBlockSize);
+        int[] weak = new int[blocks];
+        byte[] strong = new byte[blocks * STRONG_LENGTH];
+        byte[] block = new byte[effectiveBlockSize];
+        MessageDigest digest = DigestUtil.sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < blocks; i++) {
+                int length = (int) Math.min(effectiveBlockSize, attrs.size() - (long) i * effectiveBlockSize);
+                readFully(channel, ByteBuffer.wrap(block, 0, length), (long) i * effectiveBlockSize);
+                weak[i] = RollingChecksum.of(block, 0, length).value();
+                digest.update(block, 0, length);
+                System.arraycopy(digest.digest(), 0, strong, i * STRONG_LENGTH, STRONG_LENGTH);
+            }
+        }
+        if (!baseToken(Files.readAttributes(file, BasicFileAttributes.class)).equals(base)) {
+            throw new BaseChangedException("文件在计算签名期间被修改");
+        }
+        CachedSignature computed = new CachedSignature(base, attrs.size(), effectiveBlockSize, weak, strong,
+                attrs.fileKey());
+        signaturesComputed.incrementAndGet();
+        // 条目数与总字节数都有上限，单个超出字节上限的签名不缓存
+        if (computed.bytes() <= signatureCacheBytes) {
+            synchronized (signatures) {
+                CachedSignature replaced = signatures.put(file, computed);
+                signatureBytes += computed.bytes() - (replaced == null ? 0 : replaced.bytes());
+                Iterator<CachedSignature> eldest = signatures.values().iterator();
+                while (signatures.size() > signatureCacheEntries || signatureBytes > signatureCacheBytes) {
+                    signatureBytes -= eldest.next().bytes();
+                    eldest.remove();
+                }
+            }
+        }
+        return computed.toSignature();
+    }
+
+    /**
+     * 按指令流重建新版本并替换目标
+     *
+     * @param base      签名中的 base，旧版本已变化时抛出 BaseChangedException
+     * @param blockSize 生成指令时使用的块大小
+     * @param size      新版本的总长度
+     * @param sha256    新版本的 SHA-256，必须提供：弱/强校验仍有极小的碰撞可能，最终以整体哈希为准
+     * @return 各类字节数统计
+     */
+    public Map<String, Object> apply(Path target, String base, int blockSize, long size, String sha256, InputStream body)
+            throws IOException {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("块大小必须在 2KB 到 8MB 之间");
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("文件大小无效");
+        }
+        if (sha256 == null || !sha256.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("缺少或错误的 SHA-256");
+        }
+        BasicFileAttributes baseAttrs = Files.readAttributes(target, BasicFileAttributes.class);
+        if (!baseAttrs.isRegularFile()) {
+            throw new IllegalArgumentException("目标不是文件");
+        }
+        if (!baseToken(baseAttrs).equals(base)) {
+            throw new BaseChangedException("文件已被修改，请重新获取签名");
+        }
+
+        Path temp = AtomicFiles.tempSibling(target, UUID.randomUUID().toString().replace("-", ""), ".delta");
+        boolean cloned = treeCopier.tryClone(target, temp);
+        boolean moved = false;
+        try {
+            long literal = 0;
+            long copied = 0;
+            long written = 0;
+            MessageDigest digest = DigestUtil.sha256();
+            DataInputStream in = new DataInputStream(body);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (FileChannel baseChannel = FileChannel.open(target, StandardOpenOption.READ);
+                 FileChannel out = cloned ? FileChannel.open(temp, StandardOpenOption.WRITE)
+                         : FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long position = 0;
+                while (true) {
+                    byte op;
+                    try {
+                        op = in.readByte();
+                    } catch (EOFException e) {
+                        throw new IllegalArgumentException("指令流不完整");
+                    }
+                    if (op == OP_END) {
+                        break;
+                    }
+                    if (op == OP_COPY) {
+                        long index = in.readLong();
+                        int count = in.readInt();
+                        long from = index * blockSize;
+                        if (index < 0 || count < 1 || from >= baseAttrs.size()) {
+                            throw new IllegalArgumentException("复制指令超出原文件范围");
+                        }
+                        long length = Math.min((long) count * blockSize, baseAttrs.size() - from);
+                        checkLength(position, length, size);
+                        // 克隆的临时文件中，位置未变的块已经就绪，只需计入哈希
+                        boolean inPlace = cloned && from == position;
+                        written += copyRange(baseChannel, from, length, inPlace ? null : out, position, digest, buffer);
+                        position += length;
+                        copied += length;
+                    } else if (op == OP_LITERAL) {
+                        int length = in.readInt();
+                        if (length < 0 || length > MAX_LITERAL) {
+                            throw new IllegalArgumentException("字面数据长度无效");
+                        }
+                        checkLength(position, length, size);
+                        for (int remaining = length; remaining > 0; ) {
+                            int n = Math.min(remaining, buffer.length);
+                            in.readFully(buffer, 0, n);
+                            digest.update(buffer, 0, n);
+                            writeFully(out, ByteBuffer.wrap(buffer, 0, n), position);
+                            position += n;
+                            remaining -= n;
+                        }
+                        literal += length;
+                        written += length;
+                    } else {
+                        throw new IllegalArgumentException("未知指令: " + op);
+                    }
+                }
+                if (position != size) {
+                    throw new IllegalArgumentException("重建长度不一致: " + position + "/" + size);
+                }
+                if (cloned) {
+                    out.truncate(size);
+                }
+                out.force(false);
+                if (!cloned) {
+                    treeCopier.cloneFallbackSucceeded(temp);
+                }
+            } catch (EOFException e) {
+                throw new IllegalArgumentException("指令流不完整");
+            }
+
+            String hash = DigestUtil.toHex(digest.digest());
+            if (!hash.equals(sha256.toLowerCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("文件校验失败");
+            }
+            if (cloned) {
+                // 克隆保留了旧版本的修改时间，所有块都未移动时不会被写入更新
+                Files.setLastModifiedTime(temp, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            // 检查旧版本与替换在同一把锁内完成，其间其他接口无法改动目标
+            PathLocks.Lease lease = pathLocks.exclusive(target);
+            try {
+                // 重建期间旧版本被修改：复制的块可能已不一致
+                if (!baseToken(Files.readAttributes(target, BasicFileAttributes.class)).equals(base)) {
+                    throw new BaseChangedException("文件在上传期间被修改，请重新获取签名");
+                }
+                if (contentStore.isEnabled()) {
+                    contentStore.adopt(temp, hash, target);
+                } else {
+                    AtomicFiles.moveIntoPlace(temp, target);
+                }
+            } finally {
+                lease.close();
+            }
+            moved = true;
+
+            uploads.incrementAndGet();
+            literalBytes.addAndGet(literal);
+            copiedBytes.addAndGet(copied);
+            writtenBytes.addAndGet(written);
+            if (cloned) {
+                clonedBases.incrementAndGet();
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("size", size);
+            result.put("literalBytes", literal);
+            result.put("copiedBytes", copied);
+            result.put("writtenBytes", written);
+            return result;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("signaturesComputed", signaturesComputed.get());
+        synchronized (signatures) {
+            stats.put("signatureCacheEntries", signatures.size());
+            stats.put("signatureCacheBytes", signatureBytes);
+        }
+        stats.put("uploads", uploads.get());
+        long literal = literalBytes.get();
+        long copied = copiedBytes.get();
+        stats.put("literalBytes", literal);
+        stats.put("copiedBytes", copied);
+        stats.put("writtenBytes", writtenBytes.get());
+        stats.put("clonedBases", clonedBases.get());
+        // 相对整文件上传节省的传输比例
+        stats.put("transferSaved", literal + copied == 0 ? 0.0 : (double) copied / (literal + copied));
+        return stats;
+    }
+
+    private static String baseToken(BasicFileAttributes attrs) {
+        return Long.toHexString(attrs.size()) + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis());
+    }
+
+    private static void checkLength(long position, long length, long size) {
+        if (position + length > size) {
+            throw new IllegalArgumentException("重建长度超出预期: " + size);
+        }
+    }
+
+    /**
+     * 读取旧版本的一段计入哈希；out 不为 null 时按偏移写入
+     *
+     * @return 写入的字节数
+     */
+    private static long copyRange(FileChannel base, long from, long length, FileChannel out, long position,
+                                  MessageDigest digest, byte[] buffer) throws IOException {
+        long done = 0;
+        while (done < length) {
+            int n = (int) Math.min(buffer.length, length - done);
+            ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+            readFully(base, bb, from + done);
+            digest.update(buffer, 0, n);
+            if (out != null) {
+                writeFully(out, ByteBuffer.wrap(buffer, 0, n), position + done);
+            }
+            done += n;
+        }
+        return out == null ? 0 : length;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new BaseChangedException("文件在读取期间被截断");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
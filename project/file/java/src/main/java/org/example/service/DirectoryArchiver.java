@@ -0,0 +1,158 @@
+package org.example.service;
+
+// DirectoryArchiver.java
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 目录打包：边遍历目录边把条目写入输出流，文件内容分块后在共享的 ForkJoinPool 中并行压缩，
+ * 再按顺序拼接成 ZIP 流。内存占用只与工作线程数和分块大小有关，与目录大小无关。
+ */
+@Service
+public class DirectoryArchiver {
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int workers;
+    private final int compressionLevel;
+    private final int chunkSize;
+    private final ZipEntryPolicy entryPolicy;
+    private final ArchiveStats stats;
+
+    public DirectoryArchiver(
+            @Value("${file.archive.workers:0}") int workers,
+            @Value("${file.archive.compression-level:6}") int compressionLevel,
+            @Value("${file.archive.chunk-size:1048576}") int chunkSize,
+            ZipEntryPolicy entryPolicy,
+            ArchiveStats stats
+    ) {
+        // 0 表示使用全部 CPU 核心
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("压缩级别必须在 0-9 之间: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        this.chunkSize = chunkSize;
+        this.entryPolicy = entryPolicy;
+        this.stats = stats;
+        this.pool = new ForkJoinPool(this.workers);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 将目录写为 ZIP 流，条目统一以 baseDir 为前缀，不加锁。不会关闭 out。
+     */
+    public void write(Path dir, String baseDir, OutputStream out) throws IOException {
+        write(dir, baseDir, out, null);
+    }
+
+    /**
+     * 将目录写为 ZIP 流，不会关闭 out。locks 不为 null 时只在读取元数据时短暂加共享锁，读取内容与写出都不持锁：
+     * 列出每个目录时持有该目录的锁，打开每个文件时持有该文件的锁。文件打开后从句柄读取，之后被删除或替换不影响输出；
+     * 列出之后、打开之前已被删除的文件或目录跳过，属性按打开时的为准。
+     */
+    public void write(Path dir, String baseDir, OutputStream out, PathLocks locks) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+        // 每个工作线程保留两个在途块，读取与压缩可以重叠
+        ZipStreamWriter zip = new ZipStreamWriter(buffered, pool, compressionLevel, chunkSize, workers * 2,
+                entryPolicy, stats);
+        try {
+            addDirectory(zip, dir, dir, baseDir, locks);
+            zip.finish();
+        } catch (IOException | RuntimeException e) {
+            zip.abort();
+            throw e;
+        }
+        buffered.flush();
+    }
+
+    private void addDirectory(ZipStreamWriter zip, Path root, Path dir, String baseDir, PathLocks locks)
+            throws IOException {
+        List<Path> children = new ArrayList<>();
+        PathLocks.Lease lease = locks == null ? null : locks.shared(dir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(children::add);
+        } catch (NoSuchFileException e) {
+            // 列出之前已被删除（根目录除外）
+            if (dir.equals(root)) {
+                throw e;
+            }
+            return;
+        } catch (AccessDeniedException e) {
+            System.err.println("访问被拒绝，跳过目录: " + dir);
+            return;
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+
+        for (Path child : children) {
+            String relativePath = root.relativize(child).toString().replace("\\", "/");
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            if (attrs.isDirectory()) {
+                if (isSafeFileName(relativePath)) {
+                    zip.putDirectory(baseDir + "/" + relativePath + "/", attrs.lastModifiedTime().toMillis());
+                    addDirectory(zip, root, child, baseDir, locks);
+                }
+            } else if (!attrs.isSymbolicLink() && !Files.isHidden(child) && Files.isReadable(child)
+                    && isSafeFileName(relativePath)) {
+                addFile(zip, child, baseDir + "/" + relativePath, locks);
+            }
+        }
+    }
+
+    private void addFile(ZipStreamWriter zip, Path file, String name, PathLocks locks) throws IOException {
+        FileChannel channel;
+        BasicFileAttributes attrs;
+        PathLocks.Lease lease = locks == null ? null : locks.shared(file);
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ, LinkOption.NOFOLLOW_LINKS);
+            try {
+                attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (AccessDeniedException e) {
+            System.err.println("访问被拒绝，跳过文件: " + file);
+            return;
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+        zip.putFile(name, channel, attrs.lastModifiedTime().toMillis(), attrs.size());
+    }
+
+    /**
+     * 安全文件名检测
+     */
+    private boolean isSafeFileName(String fileName) {
+        return fileName.matches("[a-zA-Z0-9_\\-./]+"); // 白名单字符集
+    }
+}
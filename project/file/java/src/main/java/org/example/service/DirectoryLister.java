@@ -0,0 +1,176 @@
+package org.example.service;
+
+// DirectoryLister.java
+
+import org.example.utils.AtomicFiles;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * 目录列表引擎：通过 DirectoryStream 逐项读取一次 BasicFileAttributes，
+ * 支持按名称/大小/修改时间排序（始终目录优先）以及基于游标的分页。
+ * 分页采用键集方式：游标记录上一页最后一项的排序键，每页只保留 limit 项的有界堆，内存与目录大小无关。
+ * NONE 表示按文件系统返回的顺序，不排序也不分页，可以边读取边输出。
+ */
+@Service
+public class DirectoryLister {
+
+    public enum SortField {
+        NAME, SIZE, MTIME, NONE;
+
+        public static SortField parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return NAME;
+            }
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("不支持的排序字段: " + value);
+            }
+        }
+    }
+
+    /**
+     * 紧凑的目录项，size 为原始字节数（目录为 0）
+     */
+    public record Entry(String name, boolean directory, long size, long modifiedTime) {
+    }
+
+    public record Page(List<Entry> entries, String nextCursor) {
+    }
+
+    /**
+     * 读取整个目录并排序
+     */
+    public List<Entry> listAll(Path dir, SortField sort) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        scan(dir, entries::add);
+        if (sort != SortField.NONE) {
+            entries.sort(comparator(sort));
+        }
+        return entries;
+    }
+
+    /**
+     * 按文件系统顺序逐项回调，不保留已读取的条目
+     */
+    public void forEach(Path dir, EntryConsumer consumer) throws IOException {
+        scan(dir, consumer);
+    }
+
+    /**
+     * 读取游标之后的一页，cursor 为 null 表示第一页
+     */
+    public Page listPage(Path dir, SortField sort, String cursor, int limit) throws IOException {
+        if (sort == SortField.NONE) {
+            throw new IllegalArgumentException("sort=none 不支持分页");
+        }
+        Comparator<Entry> comparator = comparator(sort);
+        Entry after = cursor == null || cursor.isEmpty() ? null : decodeCursor(cursor, sort);
+
+        // 大顶堆只保留最小的 limit + 1 项，多出的一项用于判断是否还有下一页
+        PriorityQueue<Entry> heap = new PriorityQueue<>(limit + 1, comparator.reversed());
+        scan(dir, entry -> {
+            if (after != null && comparator.compare(entry, after) <= 0) {
+                return;
+            }
+            if (heap.size() <= limit) {
+                heap.add(entry);
+            } else if (comparator.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        });
+
+        boolean hasMore = heap.size() > limit;
+        if (hasMore) {
+            heap.poll();
+        }
+        List<Entry> page = new ArrayList<>(heap);
+        page.sort(comparator);
+        String nextCursor = hasMore ? encodeCursor(sort, page.get(page.size() - 1)) : null;
+        return new Page(page, nextCursor);
+    }
+
+    static Comparator<Entry> comparator(SortField sort) {
+        // 目录优先
+        Comparator<Entry> comparator = Comparator.comparing((Entry e) -> !e.directory());
+        switch (sort) {
+            case SIZE -> comparator = comparator.thenComparingLong(Entry::size);
+            case MTIME -> comparator = comparator.thenComparingLong(Entry::modifiedTime);
+            default -> {
+            }
+        }
+        // 名称忽略大小写，最后用原始名称保证全序，游标才能唯一定位
+        return comparator
+                .thenComparing(Entry::name, String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(Entry::name);
+    }
+
+    static String encodeCursor(SortField sort, Entry last) {
+        String raw = sort.name() + ":" + (last.directory() ? 1 : 0) + ":" + last.size() + ":"
+                + last.modifiedTime() + ":" + last.name();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Entry decodeCursor(String cursor, SortField sort) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split(":", 5);
+            if (parts.length != 5 || !parts[0].equals(sort.name())) {
+                throw new IllegalArgumentException();
+            }
+            return new Entry(parts[4], parts[1].equals("1"), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException 也是 IllegalArgumentException
+            throw new IllegalArgumentException("无效的游标");
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(Entry entry) throws IOException;
+    }
+
+    private void scan(Path dir, EntryConsumer consumer) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                // 上传、增量合并等写入中的隐藏临时文件
+                if (AtomicFiles.isTempSibling(child.getFileName().toString())) {
+                    continue;
+                }
+                Entry entry = readEntry(child);
+                if (entry != null) {
+                    consumer.accept(entry);
+                }
+            }
+        }
+    }
+
+    private Entry readEntry(Path child) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(child, BasicFileAttributes.class);
+        } catch (IOException e) {
+            try {
+                // 失效的符号链接：退回读取链接本身
+                attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ignored) {
+                // 读取期间被删除
+                return null;
+            }
+        }
+        boolean isDir = attrs.isDirectory();
+        return new Entry(
+                child.getFileName().toString(),
+                isDir,
+                isDir ? 0 : attrs.size(),
+                attrs.lastModifiedTime().toMillis()
+        );
+    }
+}
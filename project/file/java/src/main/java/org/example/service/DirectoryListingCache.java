@@ -0,0 +1,187 @@
+package org.example.service;
+
+// DirectoryListingCache.java
+
+import jakarta.annotation.PostConstruct;
+import org.example.model.FileInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 目录列表缓存：按解析后的绝对路径缓存 listFiles 结果，
+ * 以条目总数为预算做 LRU 淘汰，依靠 WatchService 事件失效，目录 mtime 作兜底校验。
+ */
+@Service
+public class DirectoryListingCache {
+
+    @FunctionalInterface
+    public interface Loader {
+        List<FileInfo> load(Path dir) throws IOException;
+    }
+
+    private record Entry(List<FileInfo> files, FileTime modifiedTime) {
+    }
+
+    @Value("${file.listing-cache.max-entries:200000}")
+    private long maxEntries;
+
+    @Autowired
+    private DirectoryWatcher watcher;
+
+    // accessOrder = true 即为 LRU 顺序
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long cachedEntryCount;
+    // 正在加载的目录；加载期间发生失效时递增 epoch，丢弃已过期的结果
+    private final Map<Path, Integer> loading = new HashMap<>();
+    private long epoch;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        watcher.addListener((dir, kind, child) -> invalidate(dir));
+    }
+
+    public List<FileInfo> get(Path dir, Loader loader) throws IOException {
+        Entry cached;
+        synchronized (this) {
+            cached = entries.get(dir);
+        }
+
+        FileTime modifiedTime = Files.getLastModifiedTime(dir);
+        if (cached != null) {
+            // mtime 兜底：监听不可用或事件尚未到达时仍能发现变化
+            if (cached.modifiedTime().equals(modifiedTime)) {
+                hits.incrementAndGet();
+                return cached.files();
+            }
+            invalidate(dir);
+        }
+        misses.incrementAndGet();
+
+        long startEpoch;
+        synchronized (this) {
+            loading.merge(dir, 1, Integer::sum);
+            startEpoch = epoch;
+        }
+        // 先注册监听再读取目录，避免读取过程中的变更丢失
+        boolean watching = watcher.watch(dir);
+        try {
+            List<FileInfo> files = List.copyOf(loader.load(dir));
+            if (!store(dir, new Entry(files, modifiedTime), startEpoch) && watching) {
+                watcher.unwatch(dir);
+            }
+            return files;
+        } catch (IOException | RuntimeException e) {
+            if (watching) {
+                watcher.unwatch(dir);
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                loading.computeIfPresent(dir, (k, n) -> n > 1 ? n - 1 : null);
+            }
+        }
+    }
+
+    /**
+     * 使单个目录的缓存失效
+     */
+    public void invalidate(Path dir) {
+        Entry removed;
+        synchronized (this) {
+            removed = entries.remove(dir);
+            if (removed != null) {
+                cachedEntryCount -= removed.files().size();
+            }
+            if (removed != null || loading.containsKey(dir)) {
+                epoch++;
+            }
+        }
+        if (removed != null) {
+            invalidations.incrementAndGet();
+            watcher.unwatch(dir);
+        }
+    }
+
+    /**
+     * 使某个目录及其所有子目录的缓存失效（删除、重命名目录时使用）
+     */
+    public void invalidateTree(Path root) {
+        List<Path> removed = new ArrayList<>();
+        synchronized (this) {
+            epoch++;
+            Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Entry> e = it.next();
+                if (e.getKey().startsWith(root)) {
+                    cachedEntryCount -= e.getValue().files().size();
+                    removed.add(e.getKey());
+                    it.remove();
+                }
+            }
+        }
+        invalidations.addAndGet(removed.size());
+        removed.forEach(watcher::unwatch);
+    }
+
+    public Map<String, Object> stats() {
+        long h = hits.get();
+        long m = misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("directories", entries.size());
+            stats.put("entries", cachedEntryCount);
+        }
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("watching", watcher.isAvailable());
+        return stats;
+    }
+
+    private boolean store(Path dir, Entry entry, long startEpoch) {
+        List<Path> evicted = new ArrayList<>();
+        boolean stored;
+        synchronized (this) {
+            // 加载期间发生过失效，或单个目录就超出预算时不缓存
+            if (epoch != startEpoch || entry.files().size() > maxEntries) {
+                return false;
+            }
+            Entry previous = entries.put(dir, entry);
+            if (previous != null) {
+                cachedEntryCount -= previous.files().size();
+            }
+            cachedEntryCount += entry.files().size();
+            stored = previous == null;
+
+            Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+            while (cachedEntryCount > maxEntries && it.hasNext()) {
+                Map.Entry<Path, Entry> eldest = it.next();
+                if (eldest.getKey().equals(dir)) {
+                    continue;
+                }
+                cachedEntryCount -= eldest.getValue().files().size();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        evictions.addAndGet(evicted.size());
+        evicted.forEach(watcher::unwatch);
+        return stored;
+    }
+}
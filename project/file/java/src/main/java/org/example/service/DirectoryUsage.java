@@ -0,0 +1,64 @@
+package org.example.service;
+
+// DirectoryUsage.java
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 目录占用统计：任意目录子树的总字节数、文件数和目录数，以及列表接口中叠加的子目录大小。
+ * <p>
+ * 汇总值保存在 {@link SearchIndex} 维护的内存目录树上（节点增删或大小变化时把差值沿父节点链累加），
+ * 由 SearchIndex 登记为数据来源，避免再保存一份目录树。两项功能的开关相互独立：
+ * 关闭文件名搜索（file.search.enabled=false）时只要本项启用，目录树仍照常建立和维护；两项都关闭时才不建立。
+ */
+@Service
+public class DirectoryUsage {
+
+    public record Usage(long size, long files, long directories) {
+    }
+
+    /**
+     * 提供子树汇总的目录树；目录树尚未建立完成或目录不在树中时返回 null / 空表
+     */
+    interface Tree {
+        Usage usage(Path dir);
+
+        Map<String, Long> childDirectorySizes(Path dir);
+    }
+
+    private final boolean enabled;
+    private volatile Tree tree;
+
+    public DirectoryUsage(@Value("${file.directory-usage.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    void feed(Tree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * 目录子树的占用；未启用、尚未就绪或目录不在目录树中时返回 null
+     */
+    public Usage usage(Path dir) {
+        Tree source = tree;
+        return enabled && source != null ? source.usage(dir) : null;
+    }
+
+    /**
+     * 目录下各子目录的子树字节数，供列表接口一次取出；不可用时返回空表
+     */
+    public Map<String, Long> childDirectorySizes(Path dir) {
+        Tree source = tree;
+        return enabled && source != null ? source.childDirectorySizes(dir) : new HashMap<>();
+    }
+}
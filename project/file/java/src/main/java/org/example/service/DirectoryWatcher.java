@@ -0,0 +1,182 @@
+package org.example.service;
+
+// DirectoryWatcher.java
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.utils.AtomicFiles;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 共享的目录监听器：所有需要感知磁盘变化的组件共用一个 WatchService，
+ * 按目录引用计数注册，事件统一分发给监听者。上传等写入过程中的隐藏临时文件不产生事件。
+ */
+@Component
+public class DirectoryWatcher {
+
+    /**
+     * 事件回调。kind 为 OVERFLOW 且 child 为 null 时表示该目录的监听已失效（目录被删除或事件溢出），
+     * 监听者应丢弃与该目录相关的全部状态。
+     */
+    public interface Listener {
+        void onEvent(Path dir, WatchEvent.Kind<?> kind, Path child);
+    }
+
+    // 键失效（目录被删除、重建或事件溢出）后保留登记与引用计数，下次 watch 时用新键替换
+    private static final class Registration {
+        WatchKey key;
+        int refCount;
+
+        Registration(WatchKey key) {
+            this.key = key;
+        }
+    }
+
+    private final Map<Path, Registration> registrations = new HashMap<>();
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private WatchService watchService;
+    private Thread pollThread;
+
+    @PostConstruct
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            // 不支持监听时退化为只依赖各组件自身的 mtime 校验
+            System.err.println("WatchService 不可用: " + e.getMessage());
+            return;
+        }
+        pollThread = new Thread(this::pollLoop, "directory-watcher");
+        pollThread.setDaemon(true);
+        pollThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public boolean isAvailable() {
+        return watchService != null;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 增加目录的监听引用，首次引用时向 WatchService 注册。
+     *
+     * @return 是否处于监听状态
+     */
+    public synchronized boolean watch(Path dir) {
+        if (watchService == null) {
+            return false;
+        }
+        Registration registration = registrations.get(dir);
+        if (registration == null || !registration.key.isValid()) {
+            try {
+                WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                if (registration == null) {
+                    registration = new Registration(key);
+                    registrations.put(dir, registration);
+                } else {
+                    keys.remove(registration.key);
+                    registration.key = key;
+                }
+                keys.put(key, dir);
+            } catch (IOException | ClosedWatchServiceException e) {
+                return false;
+            }
+        }
+        registration.refCount++;
+        return true;
+    }
+
+    /**
+     * 释放一次监听引用，引用归零时取消注册。
+     */
+    public synchronized void unwatch(Path dir) {
+        Registration registration = registrations.get(dir);
+        if (registration == null) {
+            return;
+        }
+        if (--registration.refCount <= 0) {
+            registrations.remove(dir);
+            keys.remove(registration.key);
+            registration.key.cancel();
+        }
+    }
+
+    public synchronized int watchedCount() {
+        return registrations.size();
+    }
+
+    private void pollLoop() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir;
+            synchronized (this) {
+                dir = keys.get(key);
+            }
+            if (dir == null) {
+                key.pollEvents();
+                key.reset();
+                continue;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Object context = event.context();
+                Path child = context instanceof Path ? dir.resolve((Path) context) : null;
+                if (child != null && AtomicFiles.isTempSibling(child.getFileName().toString())) {
+                    continue;
+                }
+                dispatch(dir, event.kind(), child);
+            }
+
+            if (!key.reset()) {
+                // 只丢弃失效的键；登记与其他持有者的引用计数保持不变，由各自的 unwatch 释放
+                synchronized (this) {
+                    keys.remove(key);
+                }
+                dispatch(dir, OVERFLOW, null);
+            }
+        }
+    }
+
+    private void dispatch(Path dir, WatchEvent.Kind<?> kind, Path child) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onEvent(dir, kind, child);
+            } catch (RuntimeException e) {
+                System.err.println("目录事件处理失败: " + dir + " - " + e.getMessage());
+            }
+        }
+    }
+}
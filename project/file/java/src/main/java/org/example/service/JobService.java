@@ -0,0 +1,272 @@
+package org.example.service;
+
+// JobService.java
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 后台任务：耗时的删除、移动、复制在有界线程池中执行，接口立即返回任务 ID，
+ * 通过 /api/jobs/{id} 查询进度（已处理的文件数、字节数与吞吐）或取消。
+ * <p>
+ * 删除目录时先把目标原子重命名到暂存区，对用户来说删除立即生效，真正的逐个删除在后台完成。
+ * 暂存区位于数据目录旁边（同一文件系统），启动时会清理上次未完成的残留。
+ */
+@Service
+public class JobService {
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    }
+
+    @FunctionalInterface
+    public interface Task {
+        void run(Job job) throws IOException;
+    }
+
+    public static final class Job {
+        private final String id;
+        private final String type;
+        private final String path;
+        private final long createdAt = System.currentTimeMillis();
+        private final AtomicLong filesDone = new AtomicLong();
+        private final AtomicLong bytesDone = new AtomicLong();
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelRequested;
+        private volatile String error;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+
+        Job(String id, String type, String path) {
+            this.id = id;
+            this.type = type;
+            this.path = path;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public State state() {
+            return state;
+        }
+
+        public void addFile(long bytes) {
+            filesDone.incrementAndGet();
+            bytesDone.addAndGet(bytes);
+        }
+
+        public void addBytes(long bytes) {
+            bytesDone.addAndGet(bytes);
+        }
+
+        public void addFiles(long files) {
+            filesDone.addAndGet(files);
+        }
+
+        /**
+         * 任务应在处理每个文件前调用，收到取消请求后抛出 CancellationException
+         */
+        public void checkCancelled() {
+            if (cancelRequested) {
+                throw new CancellationException("任务已取消");
+            }
+        }
+
+        boolean isFinished() {
+            return state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("type", type);
+            map.put("path", path);
+            map.put("state", state);
+            map.put("filesDone", filesDone.get());
+            map.put("bytesDone", bytesDone.get());
+            map.put("createdAt", createdAt);
+            if (startedAt > 0) {
+                map.put("startedAt", startedAt);
+            }
+            if (finishedAt > 0) {
+                map.put("finishedAt", finishedAt);
+            }
+            if (startedAt > 0) {
+                long elapsed = (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+                map.put("bytesPerSecond", bytesDone.get() * 1000 / Math.max(1, elapsed));
+            }
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Path stagingDir;
+    private final long retentionMillis;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public JobService(
+            @Value("${file.jobs.workers:2}") int workers,
+            @Value("${file.jobs.queue-capacity:100}") int queueCapacity,
+            @Value("${file.jobs.retention-minutes:60}") long retentionMinutes,
+            @Value("${file.jobs.staging-path:}") String stagingPath
+    ) {
+        int threads = Math.max(1, workers);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+            Thread t = new Thread(r, "job-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.retentionMillis = retentionMinutes * 60_000;
+        this.stagingDir = stagingPath.isEmpty() ? null : Paths.get(stagingPath).normalize().toAbsolutePath();
+    }
+
+    /**
+     * 清理上次运行中未删完的暂存内容
+     */
+    @PostConstruct
+    public void purgeStaging() {
+        if (stagingDir == null || !Files.isDirectory(stagingDir)) {
+            return;
+        }
+        try (Stream<Path> leftovers = Files.list(stagingDir)) {
+            for (Path leftover : (Iterable<Path>) leftovers::iterator) {
+                submit("purge", leftover.getFileName().toString(), job -> TreeOperations.deleteTree(leftover, job));
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            System.err.println("清理暂存区失败: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交任务；队列已满时抛出 RejectedExecutionException
+     *
+     * @param path 显示用的路径（相对于数据目录）
+     */
+    public Job submit(String type, String path, Task task) {
+        Job job = new Job(UUID.randomUUID().toString().replace("-", ""), type, path);
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job, task));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            throw e;
+        }
+        return job;
+    }
+
+    public Job get(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            throw new NoSuchElementException("任务不存在或已过期");
+        }
+        return job;
+    }
+
+    public List<Job> list() {
+        List<Job> list = new ArrayList<>(jobs.values());
+        list.sort(Comparator.comparingLong((Job j) -> j.createdAt).reversed());
+        return list;
+    }
+
+    /**
+     * 请求取消：排队中的任务直接取消，运行中的任务在处理下一个文件前停止
+     */
+    public Job cancel(String id) {
+        Job job = get(id);
+        synchronized (job) {
+            if (job.isFinished()) {
+                return job;
+            }
+            job.cancelRequested = true;
+            if (job.state == State.QUEUED) {
+                finish(job, State.CANCELLED, null);
+            }
+        }
+        return job;
+    }
+
+    /**
+     * 把路径原子地移入暂存区，之后它不再出现在数据目录中
+     *
+     * @return 暂存后的位置；暂存区不可用或不在同一文件系统时返回 null
+     */
+    public Path stage(Path path) {
+        if (stagingDir == null) {
+            return null;
+        }
+        try {
+            Files.createDirectories(stagingDir);
+            Path staged = stagingDir.resolve(UUID.randomUUID().toString().replace("-", "") + "-" + path.getFileName());
+            Files.move(path, staged, StandardCopyOption.ATOMIC_MOVE);
+            return staged;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 清理已结束且超过保留时间的任务记录
+     */
+    @Scheduled(fixedDelayString = "${file.jobs.cleanup-interval-ms:600000}")
+    public void cleanupFinished() {
+        long deadline = System.currentTimeMillis() - retentionMillis;
+        jobs.values().removeIf(job -> job.isFinished() && job.finishedAt < deadline);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("tracked", jobs.size());
+        return stats;
+    }
+
+    private void run(Job job, Task task) {
+        synchronized (job) {
+            if (job.isFinished()) {
+                return;
+            }
+            job.state = State.RUNNING;
+            job.startedAt = System.currentTimeMillis();
+        }
+        try {
+            job.checkCancelled();
+            task.run(job);
+            finish(job, State.SUCCEEDED, null);
+        } catch (CancellationException e) {
+            finish(job, State.CANCELLED, null);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("后台任务失败: " + job.type + " " + job.path + " - " + e.getMessage());
+            finish(job, State.FAILED, e.getMessage());
+        }
+    }
+
+    private void finish(Job job, State state, String error) {
+        job.error = error;
+        job.finishedAt = System.currentTimeMillis();
+        job.state = state;
+    }
+}
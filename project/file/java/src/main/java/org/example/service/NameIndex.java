@@ -0,0 +1,315 @@
+package org.example.service;
+
+// NameIndex.java
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 搜索索引使用的文件名索引，不区分大小写；同名的节点共用一个名称项。
+ * <p>
+ * 前缀查询：名称项按折叠大小写后的名称排序存放在数组中。新名称先放入一个小的有序表，
+ * 积累到数组长度的 1/8 后合并，查询时两处各取一段区间。
+ * 子串查询：名称项按编号登记到它所含各三字符组（trigram）的倒排表，倒排表是递增的 int 数组；
+ * 查询时取查询串各三字符组中最短的倒排表，逐项确认是否包含查询串。
+ * 名称项不再有节点时只做标记，失效编号多于有效编号时整体重新编号。
+ * <p>
+ * 不做同步：修改时调用方持有写锁，查询时持有读锁，查询不改动任何结构。
+ */
+final class NameIndex<N> {
+
+    private static final int MIN_MERGE = 1024;
+
+    private static final class Entry {
+        final String key;
+        int id;
+        boolean live;
+        // 通常只有一个节点，直接保存；多个时为 ArrayList
+        Object nodes;
+
+        Entry(String key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private static final class Postings {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            // 同一名称中重复出现的三字符组只登记一次
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * 一次查询的候选名称
+     */
+    interface Lookup<N> {
+        /**
+         * 候选名称项数的上限，用于判断是否值得走索引
+         */
+        int size();
+
+        void forEach(Consumer<N> action);
+    }
+
+    private Entry[] sorted = new Entry[0];
+    private final TreeMap<String, Entry> recent = new TreeMap<>();
+    private Entry[] byId = new Entry[64];
+    private int nextId;
+    private int live;
+    private final Map<Long, Postings> postings = new HashMap<>();
+
+    int size() {
+        return live;
+    }
+
+    void add(String name, N node) {
+        String key = fold(name);
+        Entry entry = find(key);
+        if (entry == null) {
+            entry = new Entry(key, nextId++);
+            if (entry.id == byId.length) {
+                byId = Arrays.copyOf(byId, byId.length * 2);
+            }
+            recent.put(key, entry);
+            addPostings(entry);
+        }
+        if (!entry.live) {
+            entry.live = true;
+            byId[entry.id] = entry;
+            live++;
+        }
+        addNode(entry, node);
+        if (recent.size() > Math.max(MIN_MERGE, sorted.length / 8)) {
+            merge();
+        }
+    }
+
+    void remove(String name, N node) {
+        Entry entry = find(fold(name));
+        if (entry == null || !entry.live || !removeNode(entry, node)) {
+            return;
+        }
+        if (entry.nodes == null) {
+            entry.live = false;
+            byId[entry.id] = null;
+            live--;
+            if (nextId - live > live && nextId > MIN_MERGE) {
+                renumber();
+            }
+        }
+    }
+
+    /**
+     * 名称以 text 开头；text 为空时返回 null
+     */
+    Lookup<N> prefix(String text) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        String key = fold(text);
+        String end = key + Character.MAX_VALUE;
+        int from = lowerBound(key);
+        int to = lowerBound(end);
+        SortedMap<String, Entry> added = recent.subMap(key, end);
+        return new Lookup<>() {
+            @Override
+            public int size() {
+                return to - from + added.size();
+            }
+
+            @Override
+            public void forEach(Consumer<N> action) {
+                for (int i = from; i < to; i++) {
+                    if (sorted[i].live) {
+                        forEachNode(sorted[i], action);
+                    }
+                }
+                for (Entry entry : added.values()) {
+                    if (entry.live) {
+                        forEachNode(entry, action);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 名称包含 text；text 少于三个字符时返回 null
+     */
+    Lookup<N> containing(String text) {
+        if (text.length() < 3) {
+            return null;
+        }
+        String key = fold(text);
+        Postings shortest = null;
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            Postings p = postings.get(trigram(key, i));
+            if (p == null) {
+                shortest = new Postings();
+                break;
+            }
+            if (shortest == null || p.size < shortest.size) {
+                shortest = p;
+            }
+        }
+        Postings driver = shortest;
+        int count = driver.size;
+        return new Lookup<>() {
+            @Override
+            public int size() {
+                return count;
+            }
+
+            @Override
+            public void forEach(Consumer<N> action) {
+                for (int i = 0; i < count; i++) {
+                    Entry entry = byId[driver.ids[i]];
+                    if (entry != null && entry.key.contains(key)) {
+                        forEachNode(entry, action);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 与 String.regionMatches(true, ...) 相同的逐字符大小写折叠，长度不变；本身已折叠时返回原对象
+     */
+    static String fold(String s) {
+        char[] chars = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if (folded != c) {
+                if (chars == null) {
+                    chars = s.toCharArray();
+                }
+                chars[i] = folded;
+            }
+        }
+        return chars == null ? s : new String(chars);
+    }
+
+    private static long trigram(String key, int i) {
+        return (long) key.charAt(i) << 32 | (long) key.charAt(i + 1) << 16 | key.charAt(i + 2);
+    }
+
+    private void addPostings(Entry entry) {
+        for (int i = 0; i + 3 <= entry.key.length(); i++) {
+            postings.computeIfAbsent(trigram(entry.key, i), k -> new Postings()).add(entry.id);
+        }
+    }
+
+    private Entry find(String key) {
+        int i = lowerBound(key);
+        if (i < sorted.length && sorted[i].key.equals(key)) {
+            return sorted[i];
+        }
+        return recent.get(key);
+    }
+
+    private int lowerBound(String key) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid].key.compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // 合并新名称，顺带丢弃已失效的名称项；失效项的编号仍留在倒排表中，查询时跳过
+    private void merge() {
+        Entry[] merged = new Entry[live];
+        int n = 0;
+        int i = 0;
+        Iterator<Entry> it = recent.values().iterator();
+        Entry next = it.hasNext() ? it.next() : null;
+        while (i < sorted.length || next != null) {
+            Entry entry;
+            if (next == null || i < sorted.length && sorted[i].key.compareTo(next.key) < 0) {
+                entry = sorted[i++];
+            } else {
+                entry = next;
+                next = it.hasNext() ? it.next() : null;
+            }
+            if (entry.live) {
+                merged[n++] = entry;
+            }
+        }
+        sorted = n == merged.length ? merged : Arrays.copyOf(merged, n);
+        recent.clear();
+    }
+
+    // 重新编号并重建倒排表，去掉失效编号
+    private void renumber() {
+        merge();
+        byId = new Entry[Math.max(64, sorted.length * 2)];
+        postings.clear();
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i].id = i;
+            byId[i] = sorted[i];
+            addPostings(sorted[i]);
+        }
+        nextId = sorted.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addNode(Entry entry, N node) {
+        if (entry.nodes == null) {
+            entry.nodes = node;
+        } else if (entry.nodes instanceof ArrayList<?> list) {
+            ((ArrayList<N>) list).add(node);
+        } else {
+            ArrayList<N> list = new ArrayList<>(2);
+            list.add((N) entry.nodes);
+            list.add(node);
+            entry.nodes = list;
+        }
+    }
+
+    private boolean removeNode(Entry entry, N node) {
+        if (entry.nodes == node) {
+            entry.nodes = null;
+            return true;
+        }
+        if (!(entry.nodes instanceof ArrayList<?> list)) {
+            return false;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == node) {
+                list.remove(i);
+                if (list.size() == 1) {
+                    entry.nodes = list.get(0);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <N> void forEachNode(Entry entry, Consumer<N> action) {
+        if (entry.nodes instanceof ArrayList<?> list) {
+            for (Object node : list) {
+                action.accept((N) node);
+            }
+        } else if (entry.nodes != null) {
+            action.accept((N) entry.nodes);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.example.service;
+
+// ParallelUploadWriter.java
+
+import jakarta.annotation.PreDestroy;
+import org.example.utils.AtomicFiles;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 多文件上传写入：在固定大小的线程池中并发写入各文件，已创建的目录在本次上传内只创建一次。
+ * 每个文件先写入目标旁边的临时文件再原子重命名，单个文件失败不影响其他文件，结果逐个返回。
+ */
+@Service
+public class ParallelUploadWriter {
+
+    public record Result(String name, boolean success, long size, String error) {
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("name", name);
+            map.put("success", success);
+            if (success) {
+                map.put("size", size);
+            } else {
+                map.put("error", error);
+            }
+            return map;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final ContentStore contentStore;
+
+    public ParallelUploadWriter(@Value("${file.upload.parallelism:4}") int parallelism, ContentStore contentStore) {
+        this.contentStore = contentStore;
+        int threads = Math.max(1, parallelism);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "upload-writer-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 并发写入所有文件，返回与输入顺序一致的结果列表
+     *
+     * @param resolver 把客户端提供的文件名解析为目标路径，非法时抛出运行时异常
+     */
+    public List<Result> writeAll(List<MultipartFile> files, Function<String, Path> resolver) {
+        // 本次上传中已创建（或已确认存在）的目录
+        Map<Path, Boolean> createdDirs = new ConcurrentHashMap<>();
+
+        List<Future<Result>> futures = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            futures.add(executor.submit(() -> writeOne(file, resolver, createdDirs)));
+        }
+
+        List<Result> results = new ArrayList<>(files.size());
+        for (int i = 0; i < futures.size(); i++) {
+            String name = files.get(i).getOriginalFilename();
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new Result(name, false, 0, "上传被中断"));
+            } catch (ExecutionException e) {
+                results.add(new Result(name, false, 0, String.valueOf(e.getCause().getMessage())));
+            }
+        }
+        return results;
+    }
+
+    private Result writeOne(MultipartFile file, Function<String, Path> resolver, Map<Path, Boolean> createdDirs) {
+        String name = file.getOriginalFilename();
+        if (name == null || name.isEmpty()) {
+            return new Result(name, false, 0, "文件名不能为空");
+        }
+
+        Path temp = null;
+        try {
+            Path target = resolver.apply(name);
+            ensureDirectory(target.getParent(), createdDirs);
+            if (contentStore.isEnabled()) {
+                try (InputStream is = file.getInputStream()) {
+                    return new Result(name, true, contentStore.store(is, target, file.getSize(), null), null);
+                }
+            }
+
+            temp = AtomicFiles.tempSibling(target, UUID.randomUUID().toString().replace("-", ""), ".tmp");
+            long size;
+            try (InputStream is = file.getInputStream()) {
+                size = Files.copy(is, temp);
+            }
+            AtomicFiles.moveIntoPlace(temp, target);
+            temp = null;
+            return new Result(name, true, size, null);
+        } catch (IOException e) {
+            return new Result(name, false, 0, "文件上传失败: " + e.getMessage());
+        } catch (RuntimeException e) {
+            return new Result(name, false, 0, e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    System.err.println("清理上传临时文件失败: " + temp);
+                }
+            }
+        }
+    }
+
+    /**
+     * 同一目录只创建一次；并发请求同一目录时其余线程等待创建完成。创建失败不缓存，后续文件会重试。
+     */
+    private void ensureDirectory(Path dir, Map<Path, Boolean> createdDirs) throws IOException {
+        try {
+            createdDirs.computeIfAbsent(dir, d -> {
+                try {
+                    Files.createDirectories(d);
+                    return Boolean.TRUE;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
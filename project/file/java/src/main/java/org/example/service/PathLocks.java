@@ -0,0 +1,296 @@
+package org.example.service;
+
+// PathLocks.java
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按路径的层级读写锁：修改某个子树时，与它的祖先、后代上相互冲突的操作互斥，互不相关的路径之间不加锁。
+ * <p>
+ * 采用多粒度加锁：对路径加共享锁（S，如打包下载）或排他锁（X，如删除、移动、写入）时，
+ * 它的每一级祖先分别加意向锁 IS / IX。IX 与 S 冲突，所以打包目录期间其下任何位置都无法写入；
+ * 两个写操作只在同一路径或祖先/后代关系上冲突。
+ * <p>
+ * 锁不按路径单独创建，而是按路径哈希落到固定数量的分段上。哈希碰撞只会带来多余的等待，不影响正确性。
+ * 一次操作需要的全部分段按编号顺序获取，因此不会死锁。等待排他锁时新的请求排在后面，避免写操作饿死。
+ * 锁不绑定线程，可以在请求线程获取、在后台任务中释放。
+ */
+@Service
+public class PathLocks {
+
+    private static final int IS = 0;
+    private static final int IX = 1;
+    private static final int S = 2;
+    private static final int X = 3;
+    private static final String[] MODE_NAMES = {"IS", "IX", "S", "X"};
+
+    private static final boolean[][] COMPATIBLE = {
+            // IS    IX     S      X
+            {true, true, true, false},    // IS
+            {true, true, false, false},   // IX
+            {true, false, true, false},   // S
+            {false, false, false, false}, // X
+    };
+
+    /**
+     * 在超时时间内未能获得锁
+     */
+    public static class LockTimeoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LockTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Stripe {
+        final int[] holders = new int[4];
+        int waitingExclusive;
+
+        long acquisitions;
+        long contended;
+        long waitNanos;
+        long maxWaitNanos;
+        long timeouts;
+
+        synchronized boolean acquire(int mode, long deadline) throws InterruptedException {
+            long start = System.nanoTime();
+            boolean waited = false;
+            boolean granted = false;
+            if (mode == X) {
+                waitingExclusive++;
+            }
+            try {
+                while (!grantable(mode)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeouts++;
+                        return false;
+                    }
+                    waited = true;
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                granted = true;
+            } finally {
+                if (mode == X) {
+                    waitingExclusive--;
+                    if (!granted) {
+                        // 放弃等待后，被它挡住的请求可以继续
+                        notifyAll();
+                    }
+                }
+            }
+            holders[mode]++;
+            acquisitions++;
+            if (waited) {
+                long elapsed = System.nanoTime() - start;
+                contended++;
+                waitNanos += elapsed;
+                maxWaitNanos = Math.max(maxWaitNanos, elapsed);
+            }
+            return true;
+        }
+
+        private boolean grantable(int mode) {
+            if (mode != X && waitingExclusive > 0) {
+                return false;
+            }
+            for (int held = 0; held < 4; held++) {
+                if (holders[held] > 0 && !COMPATIBLE[mode][held]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized void release(int mode) {
+            holders[mode]--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * 一次加锁的结果，close 时释放全部分段；可重复 close。
+     * 持锁期间通常不会用到 lease 本身，调用方在 try/finally 中释放，避免 try-with-resources 的未引用警告
+     */
+    public final class Lease implements AutoCloseable {
+        private final int[] stripes;
+        private final int[] modes;
+        private int held;
+
+        private Lease(int[] stripes, int[] modes) {
+            this.stripes = stripes;
+            this.modes = modes;
+        }
+
+        @Override
+        public synchronized void close() {
+            for (int i = held - 1; i >= 0; i--) {
+                PathLocks.this.stripes[stripes[i]].release(modes[i]);
+            }
+            held = 0;
+        }
+    }
+
+    private final Path basePath;
+    private final Stripe[] stripes;
+    private final long timeoutMs;
+
+    public PathLocks(
+            @Value("${file.base-path:E:/study/java/data}") String basePath,
+            @Value("${file.locks.stripes:1024}") int stripeCount,
+            @Value("${file.locks.timeout-ms:30000}") long timeoutMs
+    ) {
+        this.basePath = Paths.get(basePath).normalize().toAbsolutePath();
+        int size = Integer.highestOneBit(Math.max(16, stripeCount - 1) << 1);
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.timeoutMs = timeoutMs;
+    }
+
+    public Lease shared(Path path) {
+        return lock(List.of(path), List.of());
+    }
+
+    public Lease exclusive(Path... paths) {
+        return lock(List.of(), Arrays.asList(paths));
+    }
+
+    /**
+     * 同时对一组路径加锁；基础目录之外的路径忽略
+     *
+     * @throws LockTimeoutException 超时未获得全部锁，已获得的部分会被释放
+     */
+    public Lease lock(Collection<Path> shared, Collection<Path> exclusive) {
+        // 分段编号 -> 所需模式；同一分段需要多种模式时取能同时满足它们的最弱模式
+        TreeMap<Integer, Integer> required = new TreeMap<>();
+        for (Path path : shared) {
+            collect(path, S, required);
+        }
+        for (Path path : exclusive) {
+            collect(path, X, required);
+        }
+        int[] stripeIds = new int[required.size()];
+        int[] modes = new int[required.size()];
+        int n = 0;
+        for (Map.Entry<Integer, Integer> e : required.entrySet()) {
+            stripeIds[n] = e.getKey();
+            modes[n] = e.getValue();
+            n++;
+        }
+
+        Lease lease = new Lease(stripeIds, modes);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            for (int i = 0; i < n; i++) {
+                if (!stripes[stripeIds[i]].acquire(modes[i], deadline)) {
+                    lease.close();
+                    throw new LockTimeoutException("路径正被其他操作占用，请稍后重试");
+                }
+                lease.held = i + 1;
+            }
+        } catch (InterruptedException e) {
+            lease.close();
+            Thread.currentThread().interrupt();
+            throw new LockTimeoutException("等待路径锁时被中断");
+        }
+        return lease;
+    }
+
+    /**
+     * 各分段的汇总及争用最多的分段
+     */
+    public Map<String, Object> stats() {
+        long acquisitions = 0;
+        long contended = 0;
+        long waitNanos = 0;
+        long maxWaitNanos = 0;
+        long timeouts = 0;
+        int heldStripes = 0;
+        List<Map<String, Object>> hottest = new ArrayList<>();
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[i];
+            Map<String, Object> entry = new LinkedHashMap<>();
+            synchronized (stripe) {
+                acquisitions += stripe.acquisitions;
+                contended += stripe.contended;
+                waitNanos += stripe.waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, stripe.maxWaitNanos);
+                timeouts += stripe.timeouts;
+                Map<String, Integer> holders = new LinkedHashMap<>();
+                for (int mode = 0; mode < 4; mode++) {
+                    if (stripe.holders[mode] > 0) {
+                        holders.put(MODE_NAMES[mode], stripe.holders[mode]);
+                    }
+                }
+                if (!holders.isEmpty()) {
+                    heldStripes++;
+                }
+                if (stripe.contended == 0 && stripe.timeouts == 0) {
+                    continue;
+                }
+                entry.put("stripe", i);
+                entry.put("acquisitions", stripe.acquisitions);
+                entry.put("contended", stripe.contended);
+                entry.put("waitMillis", stripe.waitNanos / 1_000_000);
+                entry.put("maxWaitMillis", stripe.maxWaitNanos / 1_000_000);
+                entry.put("timeouts", stripe.timeouts);
+                entry.put("holders", holders);
+            }
+            hottest.add(entry);
+        }
+        hottest.sort(Comparator.comparingLong(m -> -(long) m.get("waitMillis")));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("stripes", stripes.length);
+        stats.put("heldStripes", heldStripes);
+        stats.put("acquisitions", acquisitions);
+        stats.put("contended", contended);
+        stats.put("waitMillis", waitNanos / 1_000_000);
+        stats.put("maxWaitMillis", maxWaitNanos / 1_000_000);
+        stats.put("timeouts", timeouts);
+        stats.put("hottestStripes", hottest.subList(0, Math.min(10, hottest.size())));
+        return stats;
+    }
+
+    private void collect(Path path, int mode, Map<Integer, Integer> required) {
+        Path normalized = path.normalize().toAbsolutePath();
+        if (!normalized.startsWith(basePath)) {
+            return;
+        }
+        required.merge(stripeOf(normalized), mode, PathLocks::join);
+        int intention = mode == S ? IS : IX;
+        for (Path p = normalized.getParent(); p != null && p.startsWith(basePath); p = p.getParent()) {
+            required.merge(stripeOf(p), intention, PathLocks::join);
+        }
+    }
+
+    private int stripeOf(Path path) {
+        int h = path.hashCode();
+        h ^= h >>> 16;
+        return ((h * 0x9E3779B9) >>> 16) & (stripes.length - 1);
+    }
+
+    /**
+     * 同时满足两种模式的最弱模式：IX 与 S 的组合（SIX）按 X 处理
+     */
+    static int join(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        int high = Math.max(a, b);
+        int low = Math.min(a, b);
+        if (high == X || low == IX) {
+            return X;
+        }
+        return high;
+    }
+}
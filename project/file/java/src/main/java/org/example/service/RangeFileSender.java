@@ -0,0 +1,300 @@
+package org.example.service;
+
+// RangeFileSender.java
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 文件下载发送器：支持条件请求（304/412）、单区间/多区间 Range 请求与 If-Range 校验。
+ * 单段响应优先交给 Tomcat sendfile 由内核直接发送，其余情况通过 FileChannel.transferTo 输出，不经过大块堆内存缓冲。
+ * 热点小文件直接从 {@link SmallFileCache} 的内存中输出。
+ * 文本类文件在客户端接受 gzip 且不是 Range 请求时压缩发送，见 {@link CompressionService}。
+ * 下载限速生效时不使用 sendfile，数据经由 {@link TransferScheduler} 包装的输出流发送。
+ */
+@Component
+public class RangeFileSender {
+
+    // Tomcat 约定的 sendfile 请求属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    @Value("${file.http.download-cache-control:no-cache}")
+    private String cacheControl;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private ChecksumService checksumService;
+
+    @Autowired
+    private CompressionService compressionService;
+
+    @Autowired
+    private SmallFileCache smallFileCache;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    private record Region(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    public void send(HttpServletRequest request, HttpServletResponse response, Path file,
+                     String contentType, String contentDisposition) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        long length = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        // 强校验值只取自现成的哈希（去重对象名或校验和缓存），不在下载路径上计算
+        String hash = contentStore.cachedHash(attrs);
+        if (hash == null) {
+            ChecksumService.Checksum checksum = checksumService.cached(file, attrs);
+            hash = checksum == null ? null : checksum.sha256();
+        }
+        String etag = hash != null ? "\"" + hash + "\"" : etag(attrs);
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (compressionService.isCompressible(file, length)) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (request.getHeader(HttpHeaders.RANGE) == null
+                    && CompressionService.acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+                sendGzip(request, response, file, attrs, contentType, contentDisposition, etag, lastModified);
+                return;
+            }
+        }
+        // 处理 If-None-Match / If-Modified-Since / If-Match / If-Unmodified-Since，并写入 ETag 与 Last-Modified
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+
+        List<Region> regions = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && ifRangeMatches(request, etag, lastModified)) {
+            try {
+                regions = resolveRegions(HttpRange.parseRanges(rangeHeader), length);
+            } catch (IllegalArgumentException e) {
+                // 格式错误的 Range 头按规范忽略，返回完整内容
+                regions = null;
+            }
+            if (regions != null && regions.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+        }
+
+        if (regions == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            sendRegion(request, response, file, new Region(0, length - 1), smallFileCache.get(file, attrs));
+        } else if (regions.size() == 1) {
+            Region region = regions.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE,
+                    "bytes " + region.start() + "-" + region.end() + "/" + length);
+            response.setContentLengthLong(region.length());
+            sendRegion(request, response, file, region, smallFileCache.get(file, attrs));
+        } else {
+            sendMultipart(request, response, file, contentType, regions, length);
+        }
+    }
+
+    /**
+     * 压缩表示与原文件是不同的表示，使用不同的校验值；压缩结果不支持 Range
+     */
+    private void sendGzip(HttpServletRequest request, HttpServletResponse response, Path file,
+                          BasicFileAttributes attrs, String contentType, String contentDisposition,
+                          String etag, long lastModified) throws IOException {
+        String gzipEtag = etag.substring(0, etag.length() - 1) + "-gzip\"";
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+        if (new ServletWebRequest(request, response).checkNotModified(gzipEtag, lastModified)) {
+            return;
+        }
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(contentType);
+
+        Path variant = compressionService.cachedVariant(file, attrs);
+        if (variant != null) {
+            long length = Files.size(variant);
+            response.setContentLengthLong(length);
+            sendRegion(request, response, variant, new Region(0, length - 1), null);
+        } else if (!"HEAD".equals(request.getMethod())) {
+            compressionService.compress(file, attrs, response.getOutputStream());
+        }
+    }
+
+    /**
+     * 交给容器以 sendfile 发送的字节数，没有使用 sendfile 时为 0
+     */
+    public static long sentByContainer(HttpServletRequest request) {
+        Object start = request.getAttribute(SENDFILE_START);
+        Object end = request.getAttribute(SENDFILE_END);
+        return start instanceof Long s && end instanceof Long e ? e - s : 0;
+    }
+
+    /**
+     * 基于大小、修改时间和 inode 的弱校验值，不读取文件内容。
+     * 内容相同不能保证字节级一致，所以是弱校验值；需要强校验值时使用内容哈希。
+     */
+    public static String etag(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return "W/\"" + Long.toHexString(attrs.size()) + "-" + Long.toHexString(attrs.lastModifiedTime().toMillis())
+                + (fileKey == null ? "" : "-" + Integer.toHexString(fileKey.hashCode())) + "\"";
+    }
+
+    /**
+     * If-Range 只有在校验值与当前文件一致时才允许返回部分内容，否则返回完整文件
+     */
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // 强比较：弱校验值永远不匹配
+            return !etag.startsWith("W/") && ifRange.equals(etag);
+        }
+        try {
+            long since = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return since >= 0 && lastModified / 1000 == since / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 计算可满足的区间并合并重叠/相邻部分；返回空列表表示全部不可满足
+     */
+    private List<Region> resolveRegions(List<HttpRange> ranges, long length) {
+        List<Region> regions = new ArrayList<>();
+        for (HttpRange range : ranges) {
+            if (length == 0) {
+                break;
+            }
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (start < length && start <= end) {
+                regions.add(new Region(start, end));
+            }
+        }
+        regions.sort(Comparator.comparingLong(Region::start));
+
+        List<Region> merged = new ArrayList<>();
+        for (Region region : regions) {
+            Region last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && region.start() <= last.end() + 1) {
+                merged.set(merged.size() - 1, new Region(last.start(), Math.max(last.end(), region.end())));
+            } else {
+                merged.add(region);
+            }
+        }
+        return merged;
+    }
+
+    private void sendRegion(HttpServletRequest request, HttpServletResponse response, Path file, Region region,
+                            ByteBuffer cached) throws IOException {
+        if (region.length() <= 0 || "HEAD".equals(request.getMethod())) {
+            return;
+        }
+        if (cached != null) {
+            cached.position((int) region.start()).limit((int) region.end() + 1);
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            while (cached.hasRemaining()) {
+                out.write(cached);
+            }
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)) && !transferScheduler.isShapingDownloads()) {
+            // 由容器在请求结束后调用 sendfile，数据不进入 JVM
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, region.start());
+            request.setAttribute(SENDFILE_END, region.end() + 1);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            transfer(channel, region, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    private void sendMultipart(HttpServletRequest request, HttpServletResponse response, Path file,
+                               String contentType, List<Region> regions, long length) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (Region region : regions) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": bytes " + region.start() + "-" + region.end() + "/" + length
+                    + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + region.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        OutputStream out = response.getOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < regions.size(); i++) {
+                out.write(partHeaders.get(i));
+                transfer(channel, regions.get(i), target);
+            }
+        }
+        out.write(closing);
+    }
+
+    private void transfer(FileChannel channel, Region region, WritableByteChannel target) throws IOException {
+        long position = region.start();
+        long remaining = region.length();
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, remaining, target);
+            if (sent <= 0) {
+                // 文件在发送过程中被截断
+                throw new IOException("文件长度发生变化");
+            }
+            position += sent;
+            remaining -= sent;
+        }
+    }
+}
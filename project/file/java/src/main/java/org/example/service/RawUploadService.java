@@ -0,0 +1,91 @@
+package org.example.service;
+
+// RawUploadService.java
+
+import org.example.utils.AtomicFiles;
+import org.example.utils.DigestUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * 原始请求体上传：直接把请求体流式写入目标旁边的临时文件，校验长度/哈希后原子重命名。
+ * 相比 multipart 上传省去了容器把每个 part 先落地为临时文件的那一次完整写入。
+ * 接收请求体期间不加锁，只在替换目标的那一步对目标加排他锁，见 {@link PathLocks}。
+ */
+@Service
+public class RawUploadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private ContentStore contentStore;
+
+    @Autowired
+    private PathLocks pathLocks;
+
+    /**
+     * @param expectedSize   期望长度，为 null 时不校验
+     * @param expectedSha256 期望的 SHA-256（十六进制），为 null 时不计算
+     * @return 实际写入的字节数
+     */
+    public long write(Path target, InputStream body, Long expectedSize, String expectedSha256) throws IOException {
+        if (expectedSha256 != null && !expectedSha256.matches("[0-9a-fA-F]{64}")) {
+            throw new IllegalArgumentException("SHA-256 格式错误");
+        }
+        if (contentStore.isEnabled()) {
+            return contentStore.store(body, target, expectedSize, expectedSha256, pathLocks);
+        }
+        MessageDigest digest = expectedSha256 == null ? null : DigestUtil.sha256();
+
+        Files.createDirectories(target.getParent());
+        Path temp = AtomicFiles.tempSibling(target, UUID.randomUUID().toString().replace("-", ""), ".tmp");
+        boolean moved = false;
+        try {
+            long written = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                int n;
+                while ((n = body.read(buffer)) > 0) {
+                    written += n;
+                    if (expectedSize != null && written > expectedSize) {
+                        throw new IllegalArgumentException("内容长度超出预期: " + expectedSize);
+                    }
+                    if (digest != null) {
+                        digest.update(buffer, 0, n);
+                    }
+                    out.write(buffer, 0, n);
+                }
+            }
+
+            if (expectedSize != null && written != expectedSize) {
+                throw new IllegalArgumentException("内容长度不完整: " + written + "/" + expectedSize);
+            }
+            if (digest != null && !DigestUtil.toHex(digest.digest()).equals(expectedSha256.toLowerCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("文件校验失败");
+            }
+            // 只在替换目标时持锁，打包下载不会看到写了一半的目录状态
+            PathLocks.Lease lease = pathLocks.exclusive(target);
+            try {
+                AtomicFiles.moveIntoPlace(temp, target);
+            } finally {
+                lease.close();
+            }
+            moved = true;
+            return written;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
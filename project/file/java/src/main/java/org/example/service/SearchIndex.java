@@ -0,0 +1,890 @@
+package org.example.service;
+
+// SearchIndex.java
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.utils.AtomicFiles;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * 文件名搜索索引：内存中保存 BASE_PATH 下完整的目录树（每个条目只有名称、大小、修改时间和父节点引用），
+ * 启动时并行遍历建立，之后依靠 WatchService 事件和控制器中的写操作钩子增量维护。
+ * <p>
+ * 子节点按名称有序存放，结果按路径顺序返回，游标即上一页最后一个结果的路径。
+ * 名称条件有选择性时（前缀、三个字符以上的子串、含字面片段的通配符）先由 {@link NameIndex} 取候选，
+ * 只确认候选并在其中取游标之后的一页；否则深度优先遍历，可以直接定位到游标位置继续，命中密集时很快凑满一页。
+ * <p>
+ * 每个目录节点同时维护子树的总字节数、文件数和目录数，节点增删或文件大小变化时把差值沿父节点链向上累加，
+ * 因此任意目录的占用空间都可以直接读取，由 {@link DirectoryUsage} 对外提供。
+ * 搜索与目录统计任一启用时都建立并维护目录树；只启用目录统计时不维护名称索引，搜索接口不可用。
+ */
+@Service
+public class SearchIndex implements DirectoryUsage.Tree {
+
+    private static final int MAX_LIMIT = 1000;
+    // 候选名称数乘以该倍数仍少于范围内的节点数时才使用名称索引
+    private static final int INDEX_SELECTIVITY = 8;
+
+    private static class Node {
+        DirNode parent;
+        String name;
+        long size;
+        long modifiedTime;
+
+        boolean isDirectory() {
+            return false;
+        }
+    }
+
+    private static final class DirNode extends Node {
+        final TreeMap<String, Node> children = new TreeMap<>();
+        boolean watched;
+        // 子树汇总（不含自身）
+        long totalSize;
+        long totalFiles;
+        long totalDirs;
+
+        @Override
+        boolean isDirectory() {
+            return true;
+        }
+    }
+
+    public record Hit(String path, boolean isDirectory, long size, long modifiedTime) {
+    }
+
+    public record Page(List<Hit> hits, String nextCursor) {
+    }
+
+    public enum Mode {
+        SUBSTRING, PREFIX, GLOB;
+
+        public static Mode parse(String value) {
+            if (value == null || value.isEmpty()) {
+                return SUBSTRING;
+            }
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("不支持的匹配方式: " + value);
+            }
+        }
+    }
+
+    /**
+     * 查询条件；名称匹配不区分大小写，各条件为 null 时不限制
+     */
+    public static final class Query {
+        private final String text;
+        private final Mode mode;
+        private final Pattern glob;
+        private final Set<String> extensions;
+        private final Long minSize;
+        private final Long maxSize;
+        private final Long modifiedAfter;
+        private final Long modifiedBefore;
+        private final Boolean directory;
+
+        public Query(String text, Mode mode, Collection<String> extensions, Long minSize, Long maxSize,
+                     Long modifiedAfter, Long modifiedBefore, Boolean directory) {
+            this.text = text == null ? "" : text;
+            this.mode = mode;
+            this.glob = mode == Mode.GLOB ? globToPattern(this.text) : null;
+            this.extensions = new HashSet<>();
+            if (extensions != null) {
+                for (String ext : extensions) {
+                    String e = ext.trim().toLowerCase(Locale.ROOT);
+                    if (!e.isEmpty()) {
+                        this.extensions.add(e.startsWith(".") ? e.substring(1) : e);
+                    }
+                }
+            }
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.modifiedAfter = modifiedAfter;
+            this.modifiedBefore = modifiedBefore;
+            // 指定扩展名时只匹配文件
+            this.directory = !this.extensions.isEmpty() && directory == null ? Boolean.FALSE : directory;
+        }
+
+        boolean matches(Node node) {
+            if (directory != null && directory != node.isDirectory()) {
+                return false;
+            }
+            long size = sizeOf(node);
+            if (minSize != null && size < minSize || maxSize != null && size > maxSize) {
+                return false;
+            }
+            if (modifiedAfter != null && node.modifiedTime < modifiedAfter
+                    || modifiedBefore != null && node.modifiedTime > modifiedBefore) {
+                return false;
+            }
+            if (!extensions.isEmpty()) {
+                int dot = node.name.lastIndexOf('.');
+                if (dot < 0 || !extensions.contains(node.name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                    return false;
+                }
+            }
+            return switch (mode) {
+                case PREFIX -> node.name.regionMatches(true, 0, text, 0, text.length());
+                case GLOB -> glob.matcher(node.name).matches();
+                case SUBSTRING -> containsIgnoreCase(node.name, text);
+            };
+        }
+
+        private static boolean containsIgnoreCase(String name, String text) {
+            int max = name.length() - text.length();
+            for (int i = 0; i <= max; i++) {
+                if (name.regionMatches(true, i, text, 0, text.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Pattern globToPattern(String glob) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (char c : glob.toCharArray()) {
+                if (c == '*' || c == '?') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+        }
+    }
+
+    private final Path basePath;
+    // 是否维护目录树；searchEnabled 为 false 时只为目录统计维护
+    private final boolean enabled;
+    private final boolean searchEnabled;
+    private final ForkJoinPool pool;
+    private final DirectoryWatcher watcher;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final DirNode root = new DirNode();
+    private final NameIndex<Node> names = new NameIndex<>();
+    private volatile boolean ready;
+
+    // 待处理的监听事件：同一路径合并为一项，值为 true 表示整体核对该目录（事件溢出或监听失效）。
+    // 由线程池中的单个任务按顺序处理，监听线程只负责入队，不被大目录的遍历阻塞
+    private final Map<Path, Boolean> pendingEvents = new LinkedHashMap<>();
+    private boolean draining;
+
+    private final AtomicLong watchFailures = new AtomicLong();
+    private final AtomicLong eventsApplied = new AtomicLong();
+    private final AtomicLong indexedSearches = new AtomicLong();
+    private volatile long buildMillis;
+
+    public SearchIndex(
+            @Value("${file.base-path:E:/study/java/data}") String basePath,
+            @Value("${file.search.enabled:true}") boolean enabled,
+            @Value("${file.search.parallelism:0}") int parallelism,
+            DirectoryWatcher watcher,
+            DirectoryUsage directoryUsage
+    ) {
+        this.watcher = watcher;
+        this.basePath = Paths.get(basePath).normalize().toAbsolutePath();
+        this.searchEnabled = enabled;
+        this.enabled = enabled || directoryUsage.isEnabled();
+        if (directoryUsage.isEnabled()) {
+            directoryUsage.feed(this);
+        }
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        root.name = "";
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            System.err.println("文件名搜索与目录统计均未启用，不建立目录树");
+            return;
+        }
+        if (!searchEnabled) {
+            System.err.println("文件名搜索未启用；目录统计依赖内存目录树，目录树照常建立和维护");
+        }
+        watcher.addListener(this::onEvent);
+        // 后台建立索引，不阻塞启动
+        Thread builder = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                pool.invoke(new Reconcile(basePath, root, true));
+                buildMillis = (System.nanoTime() - start) / 1_000_000;
+                ready = true;
+            } catch (RuntimeException e) {
+                System.err.println("建立搜索索引失败: " + e.getMessage());
+            }
+        }, "search-index-build");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean isSearchEnabled() {
+        return searchEnabled;
+    }
+
+    /**
+     * 在 scope 目录下按路径顺序搜索
+     *
+     * @param cursor 上一页返回的游标，为 null 时从头开始
+     */
+    public Page search(Path scope, Query query, int limit, String cursor) throws NoSuchFileException {
+        if (!searchEnabled) {
+            throw new IllegalStateException("文件名搜索未启用");
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("分页参数无效");
+        }
+        List<String> after = cursor == null ? null : decodeCursor(cursor);
+        List<Hit> hits = new ArrayList<>(Math.min(limit, 64));
+        lock.readLock().lock();
+        try {
+            Node node = find(scope);
+            if (!(node instanceof DirNode dir)) {
+                throw new NoSuchFileException(scope.toString());
+            }
+            NameIndex.Lookup<Node> lookup = lookup(query);
+            if (lookup != null && (long) lookup.size() * INDEX_SELECTIVITY < dir.totalFiles + dir.totalDirs) {
+                indexedSearches.incrementAndGet();
+                collectIndexed(dir, relativeNames(scope), after, query, limit, lookup, hits);
+            } else {
+                collect(dir, relativeNames(scope), after, 0, query, limit, hits);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        String next = hits.size() == limit ? encodeCursor(hits.get(hits.size() - 1).path(), scope) : null;
+        return new Page(hits, next);
+    }
+
+    /**
+     * 目录子树的占用；索引未建立完成或目录不在索引中时返回 null
+     */
+    @Override
+    public DirectoryUsage.Usage usage(Path dir) {
+        if (!ready) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            return find(dir.normalize().toAbsolutePath()) instanceof DirNode node
+                    ? new DirectoryUsage.Usage(node.totalSize, node.totalFiles, node.totalDirs) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 目录下各子目录的子树字节数，供列表接口一次取出；不可用时返回空表
+     */
+    @Override
+    public Map<String, Long> childDirectorySizes(Path dir) {
+        Map<String, Long> sizes = new HashMap<>();
+        if (!ready) {
+            return sizes;
+        }
+        lock.readLock().lock();
+        try {
+            if (find(dir.normalize().toAbsolutePath()) instanceof DirNode node) {
+                for (Node child : node.children.values()) {
+                    if (child instanceof DirNode sub) {
+                        sizes.put(sub.name, sub.totalSize);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return sizes;
+    }
+
+    /**
+     * 重新读取单个路径（文件或目录）的状态；新出现的目录会完整遍历
+     */
+    public void refresh(Path path) {
+        if (!enabled) {
+            return;
+        }
+        path = path.normalize().toAbsolutePath();
+        if (path.equals(basePath)) {
+            pool.invoke(new Reconcile(basePath, root, false));
+            return;
+        }
+        if (!path.startsWith(basePath) || AtomicFiles.isTempSibling(path.getFileName().toString())) {
+            return;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            remove(path);
+            return;
+        }
+
+        DirNode parent = findDir(path.getParent());
+        if (parent == null) {
+            // 父目录尚未进入索引：刷新父目录会连同本路径一起遍历
+            refresh(path.getParent());
+            return;
+        }
+
+        DirNode created = null;
+        List<Path> unwatch = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            Node existing = parent.children.get(path.getFileName().toString());
+            if (existing != null && existing.isDirectory() != attrs.isDirectory()) {
+                detach(existing, path, unwatch);
+                existing = null;
+            }
+            if (existing == null) {
+                existing = attrs.isDirectory() ? new DirNode() : new Node();
+                existing.name = path.getFileName().toString();
+                attach(parent, existing);
+                if (existing instanceof DirNode dir) {
+                    created = dir;
+                }
+            }
+            setSize(existing, attrs.isDirectory() ? 0 : attrs.size());
+            existing.modifiedTime = attrs.lastModifiedTime().toMillis();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        unwatch.forEach(watcher::unwatch);
+        if (created != null) {
+            pool.invoke(new Reconcile(path, created, true));
+        }
+    }
+
+    public void remove(Path path) {
+        if (!enabled) {
+            return;
+        }
+        path = path.normalize().toAbsolutePath();
+        List<Path> unwatch = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            Node node = find(path);
+            if (node != null && node != root) {
+                detach(node, path, unwatch);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        unwatch.forEach(watcher::unwatch);
+    }
+
+    /**
+     * 重命名/移动：只改动一个节点，整棵子树随之移动；子目录的监听按新路径重新注册
+     */
+    public void move(Path source, Path target) {
+        if (!enabled) {
+            return;
+        }
+        source = source.normalize().toAbsolutePath();
+        target = target.normalize().toAbsolutePath();
+        List<Path> oldDirs = new ArrayList<>();
+        List<DirNode> movedDirs = new ArrayList<>();
+        boolean moved = false;
+        lock.writeLock().lock();
+        try {
+            Node node = find(source);
+            Node newParent = find(target.getParent());
+            String newName = target.getFileName().toString();
+            // 目标已在索引中（监听事件先到）时按普通刷新处理
+            if (node != null && node != root && newParent instanceof DirNode parent
+                    && !parent.children.containsKey(newName)) {
+                if (node instanceof DirNode dir) {
+                    collectDirs(dir, source, oldDirs, movedDirs);
+                }
+                detach(node);
+                node.name = newName;
+                attach(parent, node);
+                moved = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (!moved) {
+            // 监听事件先建的目标目录可能仍在后台遍历，这里同步核对一遍，返回时子树已完整
+            DirNode existing = findDir(target);
+            remove(source);
+            refresh(target);
+            if (existing != null) {
+                pool.invoke(new Reconcile(target, existing, true));
+            }
+            return;
+        }
+        for (int i = 0; i < oldDirs.size(); i++) {
+            DirNode dir = movedDirs.get(i);
+            if (dir.watched) {
+                watcher.unwatch(oldDirs.get(i));
+                dir.watched = watcher.watch(target.resolve(source.relativize(oldDirs.get(i))));
+            }
+        }
+    }
+
+    /**
+     * 监听不可用或部分目录未能注册监听时，定期完整核对一次
+     */
+    @Scheduled(fixedDelayString = "${file.search.rescan-interval-ms:3600000}")
+    public void rescan() {
+        if (!ready || watcher.isAvailable() && watchFailures.get() == 0) {
+            return;
+        }
+        pool.invoke(new Reconcile(basePath, root, true));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", searchEnabled);
+        stats.put("treeMaintained", enabled);
+        stats.put("ready", ready);
+        lock.readLock().lock();
+        try {
+            stats.put("files", root.totalFiles);
+            stats.put("directories", root.totalDirs);
+            stats.put("bytes", root.totalSize);
+            stats.put("distinctNames", names.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("buildMillis", buildMillis);
+        stats.put("indexedSearches", indexedSearches.get());
+        stats.put("eventsApplied", eventsApplied.get());
+        stats.put("watchFailures", watchFailures.get());
+        return stats;
+    }
+
+    private void onEvent(Path dir, WatchEvent.Kind<?> kind, Path child) {
+        if (!dir.startsWith(basePath)) {
+            return;
+        }
+        synchronized (pendingEvents) {
+            pendingEvents.merge(child == null ? dir : child, child == null, Boolean::logicalOr);
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            pool.execute(this::drainEvents);
+        } catch (RejectedExecutionException e) {
+            // 正在关闭
+            synchronized (pendingEvents) {
+                draining = false;
+            }
+        }
+    }
+
+    private void drainEvents() {
+        while (true) {
+            Map.Entry<Path, Boolean> event;
+            synchronized (pendingEvents) {
+                Iterator<Map.Entry<Path, Boolean>> it = pendingEvents.entrySet().iterator();
+                if (!it.hasNext()) {
+                    draining = false;
+                    return;
+                }
+                event = it.next();
+                it.remove();
+            }
+            try {
+                applyEvent(event.getKey(), event.getValue());
+            } catch (RuntimeException e) {
+                System.err.println("处理目录变化失败: " + event.getKey() + " " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 事件只说明路径发生了变化，处理时按磁盘上的当前状态更新，因此合并与乱序都不影响结果
+     */
+    private void applyEvent(Path path, boolean wholeDirectory) {
+        eventsApplied.incrementAndGet();
+        if (wholeDirectory) {
+            // 监听失效或事件溢出：整体核对该目录
+            DirNode node = findDir(path);
+            if (node == null || !Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                remove(path);
+            } else {
+                pool.invoke(new Reconcile(path, node, false));
+            }
+        } else {
+            // 已删除的路径读取属性失败，按删除处理
+            refresh(path);
+        }
+    }
+
+    /**
+     * 把一个目录节点与磁盘内容对齐：读取目录在锁外进行，锁内只做差异合并；
+     * 新出现的子目录总是完整遍历，已有子目录在 deep 为 true 时才继续核对。
+     */
+    private final class Reconcile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final DirNode node;
+        private final boolean deep;
+
+        Reconcile(Path dir, DirNode node, boolean deep) {
+            this.dir = dir;
+            this.node = node;
+            this.deep = deep;
+        }
+
+        @Override
+        protected void compute() {
+            // 先注册监听再读取目录，避免读取期间的变化丢失
+            if (!node.watched) {
+                node.watched = watcher.watch(dir);
+                if (!node.watched && watcher.isAvailable()) {
+                    watchFailures.incrementAndGet();
+                }
+            }
+
+            Map<String, BasicFileAttributes> onDisk = new HashMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    // 写入中的临时文件不计入索引与目录大小
+                    if (AtomicFiles.isTempSibling(child.getFileName().toString())) {
+                        continue;
+                    }
+                    try {
+                        onDisk.put(child.getFileName().toString(),
+                                Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+                    } catch (IOException e) {
+                        // 遍历期间被删除
+                    }
+                }
+            } catch (IOException e) {
+                return;
+            }
+
+            List<Reconcile> subtasks = new ArrayList<>();
+            List<Path> unwatch = new ArrayList<>();
+            lock.writeLock().lock();
+            try {
+                Iterator<Map.Entry<String, Node>> it = node.children.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, Node> e = it.next();
+                    BasicFileAttributes attrs = onDisk.get(e.getKey());
+                    if (attrs == null || attrs.isDirectory() != e.getValue().isDirectory()) {
+                        it.remove();
+                        Node removed = e.getValue();
+                        unindex(removed);
+                        propagate(node, -sizeOf(removed), -filesOf(removed), -dirsOf(removed));
+                        removed.parent = null;
+                        forget(removed, dir.resolve(e.getKey()), unwatch);
+                    }
+                }
+                for (Map.Entry<String, BasicFileAttributes> e : onDisk.entrySet()) {
+                    BasicFileAttributes attrs = e.getValue();
+                    Node child = node.children.get(e.getKey());
+                    boolean created = child == null;
+                    if (created) {
+                        child = attrs.isDirectory() ? new DirNode() : new Node();
+                        child.name = e.getKey();
+                        attach(node, child);
+                    }
+                    setSize(child, attrs.isDirectory() ? 0 : attrs.size());
+                    child.modifiedTime = attrs.lastModifiedTime().toMillis();
+                    if (child instanceof DirNode sub && (created || deep)) {
+                        subtasks.add(new Reconcile(dir.resolve(e.getKey()), sub, true));
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            unwatch.forEach(watcher::unwatch);
+            invokeAll(subtasks);
+        }
+    }
+
+    private void collect(DirNode dir, List<String> names, List<String> after, int depth,
+                         Query query, int limit, List<Hit> hits) {
+        NavigableMap<String, Node> children = dir.children;
+        if (after != null && depth < after.size()) {
+            String key = after.get(depth);
+            boolean last = depth == after.size() - 1;
+            // 游标所在节点本身已经返回过，只需继续它的子树
+            if (children.get(key) instanceof DirNode same) {
+                names.add(key);
+                collect(same, names, last ? null : after, depth + 1, query, limit, hits);
+                names.remove(names.size() - 1);
+            }
+            children = children.tailMap(key, false);
+        }
+        for (Node child : children.values()) {
+            if (hits.size() >= limit) {
+                return;
+            }
+            names.add(child.name);
+            if (query.matches(child)) {
+                hits.add(new Hit(pathOf(names), child.isDirectory(), sizeOf(child), child.modifiedTime));
+            }
+            if (child instanceof DirNode sub) {
+                collect(sub, names, null, depth + 1, query, limit, hits);
+            }
+            names.remove(names.size() - 1);
+        }
+    }
+
+    // 名称条件对应的索引候选；无法使用索引时返回 null
+    private NameIndex.Lookup<Node> lookup(Query query) {
+        return switch (query.mode) {
+            case PREFIX -> names.prefix(query.text);
+            case SUBSTRING -> names.containing(query.text);
+            case GLOB -> {
+                // 取最长的字面片段按子串查；不足三个字符时用开头的字面片段按前缀查
+                String longest = "";
+                for (String literal : query.text.split("[*?]")) {
+                    if (literal.length() > longest.length()) {
+                        longest = literal;
+                    }
+                }
+                String first = query.text.split("[*?]", -1)[0];
+                yield longest.length() >= 3 ? names.containing(longest) : names.prefix(first);
+            }
+        };
+    }
+
+    private record Candidate(List<String> names, Node node) {
+    }
+
+    /**
+     * 按名称索引取候选：逐个确认条件、限定在范围内，用大小为 limit 的堆保留游标之后按路径顺序最靠前的结果，
+     * 与深度优先遍历得到的页完全相同
+     */
+    private void collectIndexed(DirNode scope, List<String> scopeNames, List<String> after, Query query, int limit,
+                                NameIndex.Lookup<Node> lookup, List<Hit> hits) {
+        Comparator<Candidate> order = (a, b) -> comparePaths(a.names(), b.names());
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(limit + 1, order.reversed());
+        lookup.forEach(node -> {
+            if (!query.matches(node)) {
+                return;
+            }
+            List<String> names = namesWithin(scope, node);
+            if (names == null || after != null && comparePaths(names, after) <= 0) {
+                return;
+            }
+            if (heap.size() < limit) {
+                heap.add(new Candidate(names, node));
+            } else if (comparePaths(names, heap.peek().names()) < 0) {
+                heap.poll();
+                heap.add(new Candidate(names, node));
+            }
+        });
+        List<Candidate> page = new ArrayList<>(heap);
+        page.sort(order);
+        for (Candidate candidate : page) {
+            List<String> path = new ArrayList<>(scopeNames);
+            path.addAll(candidate.names());
+            Node node = candidate.node();
+            hits.add(new Hit(pathOf(path), node.isDirectory(), sizeOf(node), node.modifiedTime));
+        }
+    }
+
+    // 节点相对 scope 的各级名称；不在 scope 之下时返回 null
+    private static List<String> namesWithin(DirNode scope, Node node) {
+        List<String> names = new ArrayList<>();
+        for (Node n = node; n != scope; n = n.parent) {
+            if (n == null) {
+                return null;
+            }
+            names.add(n.name);
+        }
+        Collections.reverse(names);
+        return names;
+    }
+
+    // 与深度优先遍历的顺序一致：逐级按名称比较，祖先在子孙之前
+    private static int comparePaths(List<String> a, List<String> b) {
+        for (int i = 0; i < a.size() && i < b.size(); i++) {
+            int c = a.get(i).compareTo(b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    // 调用方持有写锁
+    private void attach(DirNode parent, Node child) {
+        child.parent = parent;
+        parent.children.put(child.name, child);
+        if (searchEnabled) {
+            names.add(child.name, child);
+        }
+        propagate(parent, sizeOf(child), filesOf(child), dirsOf(child));
+    }
+
+    // 调用方持有写锁；摘下的子树与原祖先断开，之后对子树的修改不会再计入原祖先
+    private void detach(Node node) {
+        DirNode parent = node.parent;
+        parent.children.remove(node.name);
+        unindex(node);
+        propagate(parent, -sizeOf(node), -filesOf(node), -dirsOf(node));
+        node.parent = null;
+    }
+
+    // 调用方持有写锁
+    private void detach(Node node, Path path, List<Path> unwatch) {
+        detach(node);
+        forget(node, path, unwatch);
+    }
+
+    // 调用方持有写锁：子树中的名称移出名称索引，收集需要取消监听的目录（node 自身的名称由调用方移除）
+    private void forget(Node node, Path path, List<Path> unwatch) {
+        if (node instanceof DirNode dir) {
+            if (dir.watched) {
+                dir.watched = false;
+                unwatch.add(path);
+            }
+            for (Node child : dir.children.values()) {
+                unindex(child);
+                forget(child, path.resolve(child.name), unwatch);
+            }
+        }
+    }
+
+    // 调用方持有写锁
+    private void unindex(Node node) {
+        if (searchEnabled) {
+            names.remove(node.name, node);
+        }
+    }
+
+    // 调用方持有写锁
+    private void setSize(Node node, long size) {
+        long delta = size - node.size;
+        node.size = size;
+        if (delta != 0 && !node.isDirectory()) {
+            propagate(node.parent, delta, 0, 0);
+        }
+    }
+
+    // 调用方持有写锁：把差值累加到 from 及其所有祖先
+    private static void propagate(DirNode from, long size, long files, long dirs) {
+        for (DirNode dir = from; dir != null; dir = dir.parent) {
+            dir.totalSize += size;
+            dir.totalFiles += files;
+            dir.totalDirs += dirs;
+        }
+    }
+
+    private static long sizeOf(Node node) {
+        return node instanceof DirNode dir ? dir.totalSize : node.size;
+    }
+
+    private static long filesOf(Node node) {
+        return node instanceof DirNode dir ? dir.totalFiles : 1;
+    }
+
+    private static long dirsOf(Node node) {
+        return node instanceof DirNode dir ? dir.totalDirs + 1 : 0;
+    }
+
+    private void collectDirs(DirNode dir, Path path, List<Path> paths, List<DirNode> nodes) {
+        paths.add(path);
+        nodes.add(dir);
+        for (Node child : dir.children.values()) {
+            if (child instanceof DirNode sub) {
+                collectDirs(sub, path.resolve(child.name), paths, nodes);
+            }
+        }
+    }
+
+    private DirNode findDir(Path path) {
+        lock.readLock().lock();
+        try {
+            return find(path) instanceof DirNode dir ? dir : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 调用方持有读锁或写锁
+    private Node find(Path path) {
+        if (!path.startsWith(basePath)) {
+            return null;
+        }
+        Node node = root;
+        for (Path name : basePath.relativize(path)) {
+            if (name.toString().isEmpty()) {
+                continue;
+            }
+            if (!(node instanceof DirNode dir)) {
+                return null;
+            }
+            node = dir.children.get(name.toString());
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static String pathOf(List<String> names) {
+        return String.join("/", names);
+    }
+
+    // 游标保存相对于搜索范围的路径
+    private String encodeCursor(String hitPath, Path scope) {
+        String scopePrefix = pathOf(relativeNames(scope));
+        String relative = scopePrefix.isEmpty() ? hitPath : hitPath.substring(scopePrefix.length() + 1);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(relative.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> decodeCursor(String cursor) {
+        try {
+            String path = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            return Arrays.asList(path.split("/"));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+    }
+
+    private List<String> relativeNames(Path path) {
+        List<String> names = new ArrayList<>();
+        for (Path name : basePath.relativize(path)) {
+            if (!name.toString().isEmpty()) {
+                names.add(name.toString());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,278 @@
+package org.example.service;
+
+// SmallFileCache.java
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 热点小文件的内存缓存：内容放在堆外 ByteBuffer 中，下载时直接输出，不再打开文件。
+ * <p>
+ * 按字节数限制总量。准入采用 TinyLFU：用计数草图记录近期访问频率，缓存已满时，
+ * 只有新文件的频率高于将被淘汰的文件才会替换它们，一次性的大范围遍历不会冲掉热点文件。
+ * 命中时核对大小、修改时间和 inode，另外监听所在目录，文件变化或删除后立即释放内存。
+ */
+@Service
+public class SmallFileCache {
+
+    private record Entry(ByteBuffer content, long size, long modifiedTime, Object fileKey) {
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modifiedTime == attrs.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attrs.fileKey());
+        }
+    }
+
+    private final boolean enabled;
+    private final long maxFileSize;
+    private final long maxBytes;
+    private final FrequencySketch sketch;
+
+    // 按访问顺序排列，最前面的是淘汰候选
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong admissions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final DirectoryWatcher watcher;
+
+    public SmallFileCache(
+            @Value("${file.small-file-cache.enabled:true}") boolean enabled,
+            @Value("${file.small-file-cache.max-file-size:262144}") long maxFileSize,
+            @Value("${file.small-file-cache.max-bytes:67108864}") long maxBytes,
+            DirectoryWatcher watcher
+    ) {
+        this.watcher = watcher;
+        this.enabled = enabled && maxBytes > 0;
+        this.maxFileSize = Math.min(maxFileSize, maxBytes);
+        this.maxBytes = maxBytes;
+        // 按平均 4KB 一个文件估算可容纳的条目数
+        this.sketch = new FrequencySketch((int) Math.min(1 << 22, Math.max(1024, maxBytes / 4096)));
+    }
+
+    @PostConstruct
+    public void init() {
+        if (watcher != null) {
+            watcher.addListener(this::onEvent);
+        }
+    }
+
+    /**
+     * 返回文件内容（只读、独立的位置指针），未命中时视准入策略加载；不适合缓存时返回 null。
+     *
+     * @param attrs 调用方刚读取的文件属性，用于校验缓存是否过期
+     */
+    public ByteBuffer get(Path file, BasicFileAttributes attrs) {
+        if (!enabled || !attrs.isRegularFile() || attrs.size() > maxFileSize) {
+            return null;
+        }
+        sketch.increment(file.hashCode());
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(file);
+        }
+        if (entry != null) {
+            if (entry.matches(attrs)) {
+                hits.incrementAndGet();
+                bytesSaved.addAndGet(entry.size());
+                return entry.content().duplicate();
+            }
+            invalidate(file);
+        }
+        misses.incrementAndGet();
+
+        if (!hasRoomFor(file, attrs.size())) {
+            rejections.incrementAndGet();
+            return null;
+        }
+        Entry loaded;
+        try {
+            loaded = load(file, attrs);
+        } catch (IOException e) {
+            return null;
+        }
+        if (loaded == null) {
+            return null;
+        }
+        return admit(file, loaded) ? loaded.content().duplicate() : null;
+    }
+
+    public synchronized void invalidate(Path file) {
+        Entry removed = entries.remove(file);
+        if (removed != null) {
+            bytes -= removed.size();
+            invalidations.incrementAndGet();
+            unwatch(file);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long h = hits.get();
+        long m = misses.get();
+        stats.put("enabled", enabled);
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", bytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("bytesSaved", bytesSaved.get());
+        stats.put("admissions", admissions.get());
+        stats.put("rejections", rejections.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private void onEvent(Path dir, WatchEvent.Kind<?> kind, Path child) {
+        if (child != null) {
+            invalidate(child);
+            return;
+        }
+        // 目录监听失效：丢弃该目录下的全部条目
+        List<Path> stale = new ArrayList<>();
+        synchronized (this) {
+            for (Path path : entries.keySet()) {
+                if (dir.equals(path.getParent())) {
+                    stale.add(path);
+                }
+            }
+        }
+        stale.forEach(this::invalidate);
+    }
+
+    /**
+     * TinyLFU 准入：腾出空间需要淘汰的条目中，只要有一个的访问频率不低于新文件就拒绝
+     */
+    private synchronized boolean hasRoomFor(Path file, long size) {
+        long free = maxBytes - bytes;
+        if (free >= size) {
+            return true;
+        }
+        int candidate = sketch.frequency(file.hashCode());
+        for (Map.Entry<Path, Entry> e : entries.entrySet()) {
+            if (sketch.frequency(e.getKey().hashCode()) >= candidate) {
+                return false;
+            }
+            free += e.getValue().size();
+            if (free >= size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized boolean admit(Path file, Entry entry) {
+        if (!hasRoomFor(file, entry.size())) {
+            rejections.incrementAndGet();
+            return false;
+        }
+        Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+        while (bytes + entry.size() > maxBytes && it.hasNext()) {
+            Map.Entry<Path, Entry> eldest = it.next();
+            bytes -= eldest.getValue().size();
+            it.remove();
+            evictions.incrementAndGet();
+            unwatch(eldest.getKey());
+        }
+        Entry previous = entries.put(file, entry);
+        if (previous != null) {
+            bytes -= previous.size();
+        } else if (watcher != null) {
+            watcher.watch(file.getParent());
+        }
+        bytes += entry.size();
+        admissions.incrementAndGet();
+        return true;
+    }
+
+    private Entry load(Path file, BasicFileAttributes attrs) throws IOException {
+        int size = (int) attrs.size();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // 读满为止
+            }
+        }
+        BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+        Entry entry = new Entry(buffer.flip().asReadOnlyBuffer(), size, attrs.lastModifiedTime().toMillis(), attrs.fileKey());
+        // 读取期间文件被修改则不缓存
+        return buffer.limit() == size && entry.matches(after) ? entry : null;
+    }
+
+    private void unwatch(Path file) {
+        if (watcher != null) {
+            watcher.unwatch(file.getParent());
+        }
+    }
+
+    /**
+     * 计数草图：4 个哈希函数、4 位饱和计数器；累计操作达到采样数后全部减半，使频率随时间衰减
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0x27D4EB2F165667C5L};
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries - 1) << 1);
+            this.counters = new byte[width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * width;
+        }
+
+        synchronized void increment(int hash) {
+            boolean added = false;
+            for (long seed : SEEDS) {
+                int index = index(hash, seed);
+                if (counters[index] < 15) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        synchronized int frequency(int hash) {
+            int min = 15;
+            for (long seed : SEEDS) {
+                min = Math.min(min, counters[index(hash, seed)]);
+            }
+            return min;
+        }
+
+        private int index(int hash, long seed) {
+            long h = (hash + seed) * seed;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
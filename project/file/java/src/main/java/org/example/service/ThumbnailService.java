@@ -0,0 +1,443 @@
+package org.example.service;
+
+// ThumbnailService.java
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.model.FileInfo;
+import org.example.utils.AtomicFiles;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 图片缩略图：在有界线程池中解码并缩小，结果按内容（SHA-256）与尺寸缓存到磁盘，
+ * 同一内容在不同路径、重命名之后都能命中；缓存总大小超过上限时淘汰最久未访问的条目。
+ * <p>
+ * 解码时按目标尺寸做降采样读取，解码后的像素数计入共享的内存预算（信号量），
+ * 预算不足时后续解码排队等待，避免大图并发解码撑爆堆内存。
+ * 列出目录时为其中的图片预先生成默认尺寸的缩略图，优先级低于实时请求。
+ */
+@Service
+public class ThumbnailService {
+
+    // 请求的尺寸向上取整到这些档位，提高缓存命中率
+    private static final int[] SIZES = {64, 128, 256, 512, 1024};
+    public static final int DEFAULT_SIZE = 256;
+
+    private static final Set<String> EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "bmp", "wbmp", "tif", "tiff");
+
+    public record Thumbnail(Path file, String contentType, String etag) {
+    }
+
+    private final boolean enabled;
+    private final Path cacheDir;
+    private final long maxCacheBytes;
+    private final int maxDecodeMegapixels;
+    private final int prefetchLimit;
+    private final ChecksumService checksumService;
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore decodeBudget;
+    private final Map<String, CompletableFuture<Thumbnail>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingPrefetch = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // 按访问顺序排列的缓存条目及其大小
+    private final LinkedHashMap<Path, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long cacheBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ThumbnailService(
+            @Value("${file.thumbnail.enabled:true}") boolean enabled,
+            @Value("${file.thumbnail.cache-path:}") String cachePath,
+            @Value("${file.thumbnail.max-cache-bytes:536870912}") long maxCacheBytes,
+            @Value("${file.thumbnail.workers:2}") int workers,
+            @Value("${file.thumbnail.max-decode-megapixels:64}") int maxDecodeMegapixels,
+            @Value("${file.thumbnail.prefetch-limit:256}") int prefetchLimit,
+            ChecksumService checksumService
+    ) {
+        this.enabled = enabled && !cachePath.isEmpty();
+        this.cacheDir = cachePath.isEmpty() ? null : Paths.get(cachePath).normalize().toAbsolutePath();
+        this.maxCacheBytes = maxCacheBytes;
+        this.maxDecodeMegapixels = Math.max(1, maxDecodeMegapixels);
+        this.prefetchLimit = prefetchLimit;
+        this.checksumService = checksumService;
+        this.decodeBudget = new Semaphore(this.maxDecodeMegapixels, true);
+
+        int threads = Math.max(1, workers);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "thumbnail-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+        ImageIO.setUseCache(false);
+    }
+
+    /**
+     * 载入已有的缓存条目，按修改时间（即最近访问时间）排序
+     */
+    @PostConstruct
+    public void loadCache() throws IOException {
+        if (!enabled || !Files.isDirectory(cacheDir)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attrs = new HashMap<>();
+        try (Stream<Path> walk = Files.walk(cacheDir, 2)) {
+            for (Path file : (Iterable<Path>) walk::iterator) {
+                BasicFileAttributes a = Files.readAttributes(file, BasicFileAttributes.class);
+                if (a.isRegularFile()) {
+                    if (file.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                        continue;
+                    }
+                    files.add(file);
+                    attrs.put(file, a);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(f -> attrs.get(f).lastModifiedTime()));
+        synchronized (entries) {
+            for (Path file : files) {
+                long size = attrs.get(file).size();
+                entries.put(file, size);
+                cacheBytes += size;
+            }
+        }
+        evictIfNeeded();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static boolean isSupported(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    public static int normalizeSize(int size) {
+        for (int s : SIZES) {
+            if (size <= s) {
+                return s;
+            }
+        }
+        return SIZES[SIZES.length - 1];
+    }
+
+    /**
+     * 已有内容校验和时直接算出 ETag，用于在生成之前响应 304
+     */
+    public String cachedEtag(Path file, int size) throws IOException {
+        ChecksumService.Checksum checksum = checksumService.cached(file);
+        return checksum == null ? null : etag(checksum.sha256(), normalizeSize(size));
+    }
+
+    /**
+     * 获取缩略图，未缓存时提交生成；同一文件同一尺寸的并发请求共用一次生成
+     */
+    public CompletableFuture<Thumbnail> get(Path file, int size) {
+        return submit(file, normalizeSize(size), 0);
+    }
+
+    /**
+     * 为列出的目录中的图片预生成默认尺寸缩略图；排队数量有上限，超出的直接跳过。
+     * 查找校验和与已有缓存需要访问磁盘，整个过程作为一个预生成任务在缩略图线程池中执行，调用方不等待
+     */
+    public void prefetch(Path dir, List<FileInfo> files) {
+        if (!enabled) {
+            return;
+        }
+        List<String> images = new ArrayList<>();
+        for (FileInfo info : files) {
+            if (!info.isDirectory() && isSupported(info.name())) {
+                images.add(info.name());
+            }
+        }
+        if (images.isEmpty()) {
+            return;
+        }
+        // 排队中的扫描任务同样计入上限，开始扫描时让出名额给它提交的生成任务
+        if (pendingPrefetch.incrementAndGet() > prefetchLimit) {
+            pendingPrefetch.decrementAndGet();
+            return;
+        }
+        try {
+            executor.execute(new Task(1, sequence.incrementAndGet(), () -> {
+                pendingPrefetch.decrementAndGet();
+                prefetchImages(dir, images);
+            }));
+        } catch (RejectedExecutionException e) {
+            pendingPrefetch.decrementAndGet();
+        }
+    }
+
+    private void prefetchImages(Path dir, List<String> images) {
+        for (String name : images) {
+            Path file = dir.resolve(name);
+            try {
+                ChecksumService.Checksum checksum = checksumService.cached(file);
+                if (checksum != null && findCached(checksum.sha256(), DEFAULT_SIZE) != null) {
+                    continue;
+                }
+            } catch (IOException e) {
+                continue;
+            }
+            if (pendingPrefetch.incrementAndGet() > prefetchLimit) {
+                pendingPrefetch.decrementAndGet();
+                return;
+            }
+            submit(file, DEFAULT_SIZE, 1)
+                    .whenComplete((thumbnail, error) -> pendingPrefetch.decrementAndGet());
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", cacheBytes);
+        }
+        stats.put("maxBytes", maxCacheBytes);
+        stats.put("hits", hits.get());
+        stats.put("generated", generated.get());
+        stats.put("evicted", evicted.get());
+        stats.put("failures", failures.get());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("decodeBudgetAvailable", decodeBudget.availablePermits());
+        return stats;
+    }
+
+    private CompletableFuture<Thumbnail> submit(Path file, int size, int priority) {
+        String key = file + "@" + size;
+        CompletableFuture<Thumbnail> created = new CompletableFuture<>();
+        CompletableFuture<Thumbnail> existing = pending.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        created.whenComplete((thumbnail, error) -> pending.remove(key, created));
+        try {
+            executor.execute(new Task(priority, sequence.incrementAndGet(), () -> {
+                try {
+                    created.complete(load(file, size));
+                } catch (Throwable e) {
+                    created.completeExceptionally(e);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private Thumbnail load(Path file, int size) throws IOException, InterruptedException {
+        if (!enabled) {
+            throw new IllegalStateException("缩略图未启用");
+        }
+        ChecksumService.Checksum checksum = checksumService.cached(file);
+        if (checksum == null) {
+            checksum = checksumService.compute(file);
+        }
+        String hash = checksum.sha256();
+        Path cached = findCached(hash, size);
+        if (cached != null) {
+            touch(cached);
+            hits.incrementAndGet();
+            return new Thumbnail(cached, contentType(cached.getFileName().toString()), etag(hash, size));
+        }
+
+        BufferedImage image = render(file, size);
+        boolean alpha = image.getColorModel().hasAlpha();
+        String ext = alpha ? "png" : "jpg";
+        Path target = cacheDir.resolve(hash.substring(0, 2)).resolve(hash + "-" + size + "." + ext);
+        Files.createDirectories(target.getParent());
+        Path tmp = AtomicFiles.tempSibling(target, UUID.randomUUID().toString(), ".tmp");
+        try {
+            write(image, ext, tmp);
+            AtomicFiles.moveIntoPlace(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        generated.incrementAndGet();
+        synchronized (entries) {
+            Long previous = entries.put(target, Files.size(target));
+            cacheBytes += entries.get(target) - (previous == null ? 0 : previous);
+        }
+        evictIfNeeded();
+        return new Thumbnail(target, contentType(ext), etag(hash, size));
+    }
+
+    /**
+     * 降采样解码后缩放到最长边不超过 size
+     */
+    private BufferedImage render(Path file, int size) throws IOException, InterruptedException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                failures.incrementAndGet();
+                throw new IllegalArgumentException("无法识别的图片格式");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // 解码到目标尺寸的两倍左右再平滑缩放，兼顾质量与内存
+                int subsample = Math.max(1, Math.max(width, height) / (size * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsample, subsample, 0, 0);
+
+                long pixels = (long) ((width + subsample - 1) / subsample) * ((height + subsample - 1) / subsample);
+                int permits = (int) Math.min(maxDecodeMegapixels, Math.max(1, (pixels + 999_999) / 1_000_000));
+                decodeBudget.acquire(permits);
+                try {
+                    BufferedImage decoded = reader.read(0, param);
+                    return scale(decoded, size);
+                } finally {
+                    decodeBudget.release(permits);
+                }
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+                throw e;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int size) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        double ratio = Math.min(1.0, (double) size / Math.max(width, height));
+        int w = Math.max(1, (int) Math.round(width * ratio));
+        int h = Math.max(1, (int) Math.round(height * ratio));
+        boolean alpha = source.getColorModel().hasAlpha();
+        BufferedImage scaled = new BufferedImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static void write(BufferedImage image, String ext, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(ext.equals("jpg") ? "jpeg" : "png").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (ext.equals("jpg")) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0.85f);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * 命中时刷新访问顺序；修改时间同步更新，重启后仍能按最近访问淘汰
+     */
+    private void touch(Path cached) {
+        synchronized (entries) {
+            entries.get(cached);
+        }
+        try {
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // 刚被淘汰
+        }
+    }
+
+    private void evictIfNeeded() {
+        List<Path> victims = new ArrayList<>();
+        synchronized (entries) {
+            Iterator<Map.Entry<Path, Long>> it = entries.entrySet().iterator();
+            while (cacheBytes > maxCacheBytes && it.hasNext()) {
+                Map.Entry<Path, Long> eldest = it.next();
+                cacheBytes -= eldest.getValue();
+                victims.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (Path victim : victims) {
+            try {
+                Files.deleteIfExists(victim);
+                evicted.incrementAndGet();
+            } catch (IOException e) {
+                System.err.println("删除缩略图缓存失败: " + victim);
+            }
+        }
+    }
+
+    private static String etag(String hash, int size) {
+        return "\"" + hash.substring(0, 32) + "-" + size + "\"";
+    }
+
+    private Path findCached(String hash, int size) {
+        Path dir = cacheDir.resolve(hash.substring(0, 2));
+        for (String ext : new String[]{"jpg", "png"}) {
+            Path cached = dir.resolve(hash + "-" + size + "." + ext);
+            if (Files.exists(cached)) {
+                return cached;
+            }
+        }
+        return null;
+    }
+
+    private static String contentType(String name) {
+        return name.endsWith("png") ? "image/png" : "image/jpeg";
+    }
+
+    // 实时请求（优先级 0）先于预生成（优先级 1）执行，同优先级按提交顺序
+    private record Task(int priority, long sequence, Runnable body) implements Runnable, Comparable<Task> {
+        @Override
+        public void run() {
+            body.run();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byPriority = Integer.compare(priority, other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
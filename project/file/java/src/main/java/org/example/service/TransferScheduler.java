@@ -0,0 +1,605 @@
+package org.example.service;
+
+// TransferScheduler.java
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 传输带宽调度：下载、目录打包与上传的数据按块经过令牌桶，分别限制单个客户端与全局的速率。
+ * <p>
+ * 客户端按远端地址区分，每个客户端一个令牌桶。全局令牌桶的等待者按加权公平排队（自计时公平排队，SCFQ）
+ * 依次放行：每个传输是一条流，小传输（预计大小不超过阈值）的权重高于大文件与目录打包，
+ * 因此几个大目录下载占满全局速率时，小文件下载仍能按权重分到带宽，不会排在它们后面。
+ * 全局速率应设置得略低于实际出口带宽，让排队发生在这里而不是网络上。
+ * <p>
+ * 上传与下载分别限速；限制为 0 表示不限。限制可在运行时调整，已在等待的传输立即按新值计算。
+ * 限速生效期间下载不使用 sendfile（数据不经过 JVM，无法计量）。
+ * multipart 上传由 MultipartShapingFilter 在解析前包装请求输入流。
+ */
+@Service
+public class TransferScheduler {
+
+    public static final String DOWNLOAD = "download";
+    public static final String UPLOAD = "upload";
+
+    // 每次申请令牌的最大字节数，决定调度的粒度
+    private static final int CHUNK = 32 * 1024;
+    // 无传输且超过该时长未活动的客户端从统计中移除
+    private static final long CLIENT_IDLE_MILLIS = 10 * 60_000;
+
+    /**
+     * 全局令牌桶与等待队列；令牌不足时按虚拟完成时间最小者优先
+     */
+    private static final class Lane {
+        final String name;
+        long rate;
+        double tokens;
+        long lastRefill = System.nanoTime();
+        // 当前正在服务的请求的虚拟完成时间
+        double virtualTime;
+        long sequence;
+        final PriorityQueue<Waiter> waiting = new PriorityQueue<>(
+                Comparator.comparingDouble((Waiter w) -> w.tag).thenComparingLong(w -> w.seq));
+
+        long clientRate;
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong throttledNanos = new AtomicLong();
+
+        Lane(String name, long rate, long clientRate) {
+            this.name = name;
+            this.rate = rate;
+            this.clientRate = clientRate;
+        }
+    }
+
+    private record Waiter(double tag, int bytes, long seq) {
+    }
+
+    /**
+     * 单个客户端：令牌可以透支，透支部分按速率换算为等待时间
+     */
+    private static final class Client {
+        final String address;
+        final double[] tokens = new double[2];
+        final long[] lastRefill = {System.nanoTime(), System.nanoTime()};
+        final AtomicLong[] bytes = {new AtomicLong(), new AtomicLong()};
+        final AtomicLong throttledNanos = new AtomicLong();
+        int active;
+        long lastActive = System.currentTimeMillis();
+        // 最近一个统计窗口的速率
+        final long[] windowStart = {System.nanoTime(), System.nanoTime()};
+        final long[] windowBytes = new long[2];
+        final long[] lastRate = new long[2];
+
+        Client(String address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * 一次传输；关闭时从客户端的活动传输中移除。包装得到的流都按本传输的客户端与权重计量
+     */
+    public final class Transfer implements AutoCloseable {
+        private final Lane lane;
+        private final int index;
+        private final Client client;
+        private final int weight;
+        private double lastTag;
+        private boolean closed;
+
+        private Transfer(Lane lane, Client client, boolean small) {
+            this.lane = lane;
+            this.index = lane == upload ? 1 : 0;
+            this.client = client;
+            this.weight = small ? smallWeight : 1;
+        }
+
+        /**
+         * 已读取或即将写出 n 字节；超过限制时阻塞
+         */
+        void account(int n) throws InterruptedIOException {
+            long start = System.nanoTime();
+            acquireClient(this, n);
+            acquireGlobal(this, n);
+            long waited = System.nanoTime() - start;
+            if (waited > 1_000_000) {
+                client.throttledNanos.addAndGet(waited);
+                lane.throttledNanos.addAndGet(waited);
+            }
+            record(this, n);
+        }
+
+        public OutputStream output(OutputStream out) {
+            return new ShapedOutputStream(out, this);
+        }
+
+        public InputStream input(InputStream in) {
+            return new ShapedInputStream(in, this);
+        }
+
+        /**
+         * 请求输入流经过调度，用于在容器或框架解析请求体之前限速
+         */
+        public HttpServletRequest request(HttpServletRequest request) {
+            return new HttpServletRequestWrapper(request) {
+                private ServletInputStream stream;
+
+                @Override
+                public ServletInputStream getInputStream() throws IOException {
+                    if (stream == null) {
+                        stream = new ShapedServletInputStream(super.getInputStream(), Transfer.this);
+                    }
+                    return stream;
+                }
+            };
+        }
+
+        /**
+         * 响应输出流经过调度；sendfile 在限速时不会被使用，未限速时按响应长度计入统计
+         */
+        public HttpServletResponse response(HttpServletResponse response) {
+            return new HttpServletResponseWrapper(response) {
+                private ServletOutputStream stream;
+
+                @Override
+                public ServletOutputStream getOutputStream() throws IOException {
+                    if (stream == null) {
+                        stream = new ShapedServletOutputStream(super.getOutputStream(), Transfer.this);
+                    }
+                    return stream;
+                }
+            };
+        }
+
+        /**
+         * 记录未经过流的字节数（由容器直接发送的部分）
+         */
+        public void sentDirectly(long n) {
+            lane.bytes.addAndGet(n);
+            client.bytes[index].addAndGet(n);
+        }
+
+        @Override
+        public void close() {
+            synchronized (client) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                client.active--;
+                client.lastActive = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private final Lane download;
+    private final Lane upload;
+    private final long smallMaxBytes;
+    private final int smallWeight;
+    private final long burstMillis;
+    private final Map<String, Client> clients = new ConcurrentHashMap<>();
+
+    public TransferScheduler(
+            @Value("${file.transfer.download.global-bytes-per-second:0}") long downloadGlobal,
+            @Value("${file.transfer.download.client-bytes-per-second:0}") long downloadClient,
+            @Value("${file.transfer.upload.global-bytes-per-second:0}") long uploadGlobal,
+            @Value("${file.transfer.upload.client-bytes-per-second:0}") long uploadClient,
+            @Value("${file.transfer.small-max-bytes:4194304}") long smallMaxBytes,
+            @Value("${file.transfer.small-weight:4}") int smallWeight,
+            @Value("${file.transfer.burst-ms:200}") long burstMillis
+    ) {
+        this.download = new Lane(DOWNLOAD, Math.max(0, downloadGlobal), Math.max(0, downloadClient));
+        this.upload = new Lane(UPLOAD, Math.max(0, uploadGlobal), Math.max(0, uploadClient));
+        this.smallMaxBytes = smallMaxBytes;
+        this.smallWeight = Math.max(1, smallWeight);
+        this.burstMillis = Math.max(1, burstMillis);
+    }
+
+    /**
+     * 开始一次传输
+     *
+     * @param expectedBytes 预计传输的字节数，未知时传 -1（按大传输调度）
+     */
+    public Transfer open(HttpServletRequest request, String direction, long expectedBytes) {
+        return open(request.getRemoteAddr(), direction, expectedBytes);
+    }
+
+    public Transfer open(String address, String direction, long expectedBytes) {
+        Lane lane = UPLOAD.equals(direction) ? upload : download;
+        Client client = clients.computeIfAbsent(address, Client::new);
+        synchronized (client) {
+            client.active++;
+            client.lastActive = System.currentTimeMillis();
+        }
+        if (clients.get(address) != client) {
+            // 与清理并发：客户端刚被移除，重新登记
+            clients.putIfAbsent(address, client);
+        }
+        return new Transfer(lane, client, expectedBytes >= 0 && expectedBytes <= smallMaxBytes);
+    }
+
+    /**
+     * 下载是否限速；限速时不能使用 sendfile
+     */
+    public boolean isShapingDownloads() {
+        synchronized (download) {
+            return download.rate > 0 || download.clientRate > 0;
+        }
+    }
+
+    public Map<String, Long> limits() {
+        Map<String, Long> limits = new LinkedHashMap<>();
+        for (Lane lane : List.of(download, upload)) {
+            synchronized (lane) {
+                limits.put(lane.name + "GlobalBytesPerSecond", lane.rate);
+                limits.put(lane.name + "ClientBytesPerSecond", lane.clientRate);
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * 调整限制；未给出的项保持不变，0 表示不限
+     *
+     * @throws IllegalArgumentException 未知的项或负数
+     */
+    public Map<String, Long> updateLimits(Map<String, Long> changes) {
+        for (Map.Entry<String, Long> e : changes.entrySet()) {
+            if (!limits().containsKey(e.getKey())) {
+                throw new IllegalArgumentException("未知的限制项: " + e.getKey());
+            }
+            if (e.getValue() == null || e.getValue() < 0) {
+                throw new IllegalArgumentException("限制不能为负数: " + e.getKey());
+            }
+        }
+        for (Lane lane : List.of(download, upload)) {
+            Long global = changes.get(lane.name + "GlobalBytesPerSecond");
+            Long client = changes.get(lane.name + "ClientBytesPerSecond");
+            synchronized (lane) {
+                // 先按旧速率结算已积累的令牌
+                refill(lane);
+                if (global != null) {
+                    lane.rate = global;
+                    lane.tokens = Math.min(lane.tokens, burst(global));
+                }
+                if (client != null) {
+                    lane.clientRate = client;
+                }
+                lane.notifyAll();
+            }
+        }
+        return limits();
+    }
+
+    /**
+     * 全局与各客户端的流量统计；rate 为最近一秒左右的速率（字节/秒）
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>(limits());
+        for (Lane lane : List.of(download, upload)) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            synchronized (lane) {
+                entry.put("queued", lane.waiting.size());
+            }
+            entry.put("bytes", lane.bytes.get());
+            entry.put("throttledMillis", lane.throttledNanos.get() / 1_000_000);
+            stats.put(lane.name, entry);
+        }
+        List<Map<String, Object>> perClient = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Client client : clients.values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("client", client.address);
+            synchronized (client) {
+                entry.put("activeTransfers", client.active);
+                entry.put("downloadRate", currentRate(client, 0, now));
+                entry.put("uploadRate", currentRate(client, 1, now));
+            }
+            entry.put("downloadBytes", client.bytes[0].get());
+            entry.put("uploadBytes", client.bytes[1].get());
+            entry.put("throttledMillis", client.throttledNanos.get() / 1_000_000);
+            perClient.add(entry);
+        }
+        perClient.sort(Comparator.comparingLong(m -> -((long) m.get("downloadRate") + (long) m.get("uploadRate"))));
+        stats.put("clients", perClient);
+        return stats;
+    }
+
+    /**
+     * 移除长时间没有传输的客户端
+     */
+    @Scheduled(fixedDelay = 60_000)
+    public void evictIdleClients() {
+        long cutoff = System.currentTimeMillis() - CLIENT_IDLE_MILLIS;
+        clients.values().removeIf(client -> {
+            synchronized (client) {
+                return client.active == 0 && client.lastActive < cutoff;
+            }
+        });
+    }
+
+    private void acquireClient(Transfer transfer, int n) throws InterruptedIOException {
+        long rate;
+        synchronized (transfer.lane) {
+            rate = transfer.lane.clientRate;
+        }
+        if (rate <= 0) {
+            return;
+        }
+        Client client = transfer.client;
+        int i = transfer.index;
+        double debt;
+        synchronized (client) {
+            long now = System.nanoTime();
+            client.tokens[i] = Math.min(burst(rate),
+                    client.tokens[i] + (now - client.lastRefill[i]) * rate / 1e9);
+            client.lastRefill[i] = now;
+            client.tokens[i] -= n;
+            debt = -client.tokens[i];
+        }
+        if (debt > 0) {
+            sleep((long) (debt * 1e9 / rate));
+        }
+    }
+
+    private void acquireGlobal(Transfer transfer, int n) throws InterruptedIOException {
+        Lane lane = transfer.lane;
+        synchronized (lane) {
+            if (lane.rate <= 0) {
+                return;
+            }
+            refill(lane);
+            Waiter waiter = new Waiter(Math.max(lane.virtualTime, transfer.lastTag) + (double) n / transfer.weight,
+                    n, lane.sequence++);
+            transfer.lastTag = waiter.tag();
+            if (lane.waiting.isEmpty() && lane.tokens >= n) {
+                lane.tokens -= n;
+                lane.virtualTime = waiter.tag();
+                return;
+            }
+            lane.waiting.add(waiter);
+            try {
+                while (lane.rate > 0) {
+                    refill(lane);
+                    boolean first = lane.waiting.peek() == waiter;
+                    if (first && lane.tokens >= n) {
+                        lane.tokens -= n;
+                        break;
+                    }
+                    // 排在队首时等到令牌足够，否则等待前面的请求放行后的通知
+                    long waitNanos = first ? (long) ((n - lane.tokens) * 1e9 / lane.rate) + 1 : 100_000_000;
+                    TimeUnit.NANOSECONDS.timedWait(lane, waitNanos);
+                }
+                lane.virtualTime = Math.max(lane.virtualTime, waiter.tag());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待传输带宽时被中断");
+            } finally {
+                lane.waiting.remove(waiter);
+                lane.notifyAll();
+            }
+        }
+    }
+
+    private void record(Transfer transfer, int n) {
+        transfer.lane.bytes.addAndGet(n);
+        Client client = transfer.client;
+        int i = transfer.index;
+        client.bytes[i].addAndGet(n);
+        synchronized (client) {
+            long now = System.nanoTime();
+            client.windowBytes[i] += n;
+            long elapsed = now - client.windowStart[i];
+            if (elapsed >= 1_000_000_000L) {
+                client.lastRate[i] = (long) (client.windowBytes[i] * 1e9 / elapsed);
+                client.windowBytes[i] = 0;
+                client.windowStart[i] = now;
+            }
+        }
+    }
+
+    private static long currentRate(Client client, int i, long now) {
+        // 两个窗口内没有数据视为已停止
+        return now - client.windowStart[i] > 2_000_000_000L ? 0 : client.lastRate[i];
+    }
+
+    private void refill(Lane lane) {
+        long now = System.nanoTime();
+        if (lane.rate > 0) {
+            lane.tokens = Math.min(burst(lane.rate), lane.tokens + (now - lane.lastRefill) * lane.rate / 1e9);
+        }
+        lane.lastRefill = now;
+    }
+
+    private double burst(long rate) {
+        return Math.max(CHUNK, rate * burstMillis / 1000.0);
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待传输带宽时被中断");
+        }
+    }
+
+    private static final class ShapedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final Transfer transfer;
+
+        ShapedOutputStream(OutputStream out, Transfer transfer) {
+            this.out = out;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            transfer.account(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK);
+                transfer.account(n);
+                out.write(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class ShapedServletOutputStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+        private final ShapedOutputStream shaped;
+
+        ShapedServletOutputStream(ServletOutputStream out, Transfer transfer) {
+            this.out = out;
+            this.shaped = new ShapedOutputStream(out, transfer);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            shaped.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            shaped.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+    }
+
+    private static final class ShapedInputStream extends InputStream {
+        private final InputStream in;
+        private final Transfer transfer;
+
+        ShapedInputStream(InputStream in, Transfer transfer) {
+            this.in = in;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                transfer.account(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, Math.min(len, CHUNK));
+            if (n > 0) {
+                transfer.account(n);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class ShapedServletInputStream extends ServletInputStream {
+        private final ServletInputStream in;
+        private final ShapedInputStream shaped;
+
+        ShapedServletInputStream(ServletInputStream in, Transfer transfer) {
+            this.in = in;
+            this.shaped = new ShapedInputStream(in, transfer);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return shaped.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return shaped.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return in.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            in.setReadListener(listener);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package org.example.service;
+
+// TreeCopier.java
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务端复制：目录树按子目录与文件拆分为 ForkJoin 任务并行复制，保留修改时间与权限。
+ * <p>
+ * 源和目标在同一文件系统时，优先用写时复制克隆（reflink，btrfs/XFS 等支持），
+ * 只复制元数据，不占用额外空间也几乎不耗时。JDK 17 没有对应 API，这里调用 GNU cp 完成：
+ * 目录树整体只启动一个 cp -R 进程，单个文件达到 reflink-min-size 才克隆。克隆期间不汇报进度，完成后一次计入。
+ * 克隆失败后删除 cp 留下的部分并改为普通复制；某个文件系统上克隆从未成功过、且克隆失败后普通复制成功时，
+ * 认为它不支持克隆，不再尝试。
+ */
+@Service
+public class TreeCopier {
+
+    // 分段复制大文件，段间更新进度并检查取消
+    private static final long COPY_SEGMENT = 8L * 1024 * 1024;
+    // 没有任务可供检查取消时（单个文件克隆）等待 cp 的上限
+    private static final long CLONE_TIMEOUT_SECONDS = 60;
+
+    private final ForkJoinPool pool;
+    private final boolean reflinkEnabled;
+    private final long reflinkMinSize;
+    private final Map<FileStore, Boolean> reflinkSupport = new ConcurrentHashMap<>();
+
+    private final AtomicLong clonedFiles = new AtomicLong();
+    private final AtomicLong copiedFiles = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+
+    public TreeCopier(
+            @Value("${file.copy.parallelism:4}") int parallelism,
+            @Value("${file.copy.reflink:true}") boolean reflinkEnabled,
+            @Value("${file.copy.reflink-min-size:1048576}") long reflinkMinSize
+    ) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.reflinkEnabled = reflinkEnabled && !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+        this.reflinkMinSize = reflinkMinSize;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * 复制文件或目录树到 target（target 不能已存在），不跟随符号链接
+     */
+    public void copy(Path source, Path target, JobService.Job job) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        FileStore store = Files.getFileStore(target.getParent());
+        boolean cloneAttempted = store.equals(Files.getFileStore(source))
+                && (attrs.isDirectory() || attrs.isRegularFile() && attrs.size() >= reflinkMinSize);
+        if (cloneAttempted && reflink(source, target, store, job)) {
+            countCloned(target, job);
+            return;
+        }
+        try {
+            pool.invoke(new CopyTask(source, target, attrs, job));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (cloneAttempted) {
+            markCloneUnsupported(store);
+        }
+    }
+
+    /**
+     * 把单个文件克隆到 target（target 不能已存在）；不在同一文件系统或不支持克隆时返回 false。
+     * 返回 false 后调用方自行写入 target 成功时应调用 {@link #cloneFallbackSucceeded(Path)}
+     */
+    public boolean tryClone(Path source, Path target) throws IOException {
+        FileStore store = Files.getFileStore(source);
+        if (!store.equals(Files.getFileStore(target.getParent())) || !reflink(source, target, store, null)) {
+            return false;
+        }
+        clonedFiles.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 克隆失败后普通写入成功：失败来自文件系统本身而不是空间、权限等临时问题
+     */
+    public void cloneFallbackSucceeded(Path target) throws IOException {
+        markCloneUnsupported(Files.getFileStore(target.getParent()));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clonedFiles", clonedFiles.get());
+        stats.put("copiedFiles", copiedFiles.get());
+        stats.put("copiedBytes", copiedBytes.get());
+        return stats;
+    }
+
+    private final class CopyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path source;
+        private final Path target;
+        private final BasicFileAttributes knownAttrs;
+        private final JobService.Job job;
+
+        CopyTask(Path source, Path target, BasicFileAttributes knownAttrs, JobService.Job job) {
+            this.source = source;
+            this.target = target;
+            this.knownAttrs = knownAttrs;
+            this.job = job;
+        }
+
+        @Override
+        protected void compute() {
+            job.checkCancelled();
+            try {
+                BasicFileAttributes attrs = knownAttrs != null ? knownAttrs
+                        : Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (!attrs.isDirectory()) {
+                    copyFile(source, target, attrs, job);
+                    return;
+                }
+                Files.createDirectory(target);
+                List<CopyTask> subtasks = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+                    for (Path child : stream) {
+                        Path name = child.getFileName();
+                        subtasks.add(new CopyTask(child, target.resolve(name.toString()),
+                                Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS),
+                                job));
+                    }
+                }
+                invokeAll(subtasks);
+                copyAttributes(source, target, attrs);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void copyFile(Path source, Path target, BasicFileAttributes attrs, JobService.Job job) throws IOException {
+        if (attrs.isSymbolicLink()) {
+            Files.copy(source, target, LinkOption.NOFOLLOW_LINKS);
+            job.addFiles(1);
+            return;
+        }
+        long size = attrs.size();
+        if (size <= COPY_SEGMENT) {
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+            job.addFile(size);
+        } else {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long position = 0;
+                while (position < size) {
+                    job.checkCancelled();
+                    long copied = in.transferTo(position, Math.min(COPY_SEGMENT, size - position), out);
+                    if (copied <= 0) {
+                        // 只有读到源文件末尾才会返回 0：复制期间源文件被截断，目标不完整
+                        throw new IOException("复制期间源文件变短: " + source);
+                    }
+                    position += copied;
+                    job.addBytes(copied);
+                }
+            }
+            copyAttributes(source, target, attrs);
+            job.addFiles(1);
+        }
+        copiedFiles.incrementAndGet();
+        copiedBytes.addAndGet(size);
+    }
+
+    /**
+     * 尝试用一个 cp 进程写时复制克隆文件或整个目录树（不跟随符号链接），失败时返回 false 并删除 cp 留下的部分。
+     * 单次失败不记为不支持：可能只是空间不足、权限或超时，由调用方在普通复制成功后确认。
+     * 有任务时等待期间响应取消（清理后抛出 CancellationException），没有任务时最多等待 CLONE_TIMEOUT_SECONDS
+     */
+    private boolean reflink(Path source, Path target, FileStore store, JobService.Job job) {
+        if (!reflinkEnabled || Boolean.FALSE.equals(reflinkSupport.get(store))) {
+            return false;
+        }
+        Process process;
+        try {
+            process = new ProcessBuilder("cp", "-R", "-P", "--reflink=always", "--preserve=mode,timestamps",
+                    "--", source.toString(), target.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException e) {
+            // 没有可用的 cp
+            return false;
+        }
+        boolean interrupted = false;
+        RuntimeException cancelled = null;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLONE_TIMEOUT_SECONDS);
+            while (!process.waitFor(1, TimeUnit.SECONDS)) {
+                if (job != null) {
+                    job.checkCancelled();
+                } else if (System.nanoTime() > deadline) {
+                    break;
+                }
+            }
+            if (!process.isAlive() && process.exitValue() == 0) {
+                reflinkSupport.put(store, true);
+                return true;
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } catch (CancellationException e) {
+            cancelled = e;
+        }
+        // 超时或中断时 cp 仍在运行，等它退出后再删除，否则它可能在删除之后继续写入目标
+        process.destroyForcibly();
+        try {
+            process.waitFor(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            // cp 失败时可能留下空文件或部分目录树
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                TreeOperations.deleteTree(target);
+            }
+        } catch (IOException ignored) {
+        }
+        if (cancelled != null) {
+            throw cancelled;
+        }
+        return false;
+    }
+
+    // 克隆完成后按目标树一次计入进度：符号链接只计文件数
+    private void countCloned(Path target, JobService.Job job) throws IOException {
+        Files.walkFileTree(target, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    clonedFiles.incrementAndGet();
+                    job.addFile(attrs.size());
+                } else {
+                    job.addFiles(1);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // 克隆成功过的文件系统不会被单次失败改为不支持
+    private void markCloneUnsupported(FileStore store) {
+        if (reflinkEnabled) {
+            reflinkSupport.putIfAbsent(store, false);
+        }
+    }
+
+    private static void copyAttributes(Path source, Path target, BasicFileAttributes attrs) throws IOException {
+        Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+        PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view != null) {
+            view.setPermissions(Files.readAttributes(source, PosixFileAttributes.class).permissions());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.example.service;
+
+// TreeOperations.java
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * 可汇报进度、可取消的目录树删除，供后台任务使用；复制见 {@link TreeCopier}
+ */
+public class TreeOperations {
+
+    /**
+     * 在当前线程删除文件或整个目录树，不汇报进度
+     */
+    public static void deleteTree(Path root) throws IOException {
+        deleteTree(root, null);
+    }
+
+    /**
+     * @param job 汇报进度并检查取消的任务，为 null 时不汇报
+     */
+    public static void deleteTree(Path root, JobService.Job job) throws IOException {
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            long size = Files.size(root);
+            Files.deleteIfExists(root);
+            if (job != null) {
+                job.addFile(size);
+            }
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (job != null) {
+                    job.checkCancelled();
+                }
+                Files.deleteIfExists(file);
+                if (job != null) {
+                    job.addFile(attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 目录下的条目数（不含自身，不跟随符号链接），超过 limit 后停止遍历并返回 limit + 1
+     */
+    public static int countEntries(Path root, int limit) throws IOException {
+        int[] count = {0};
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(root) || ++count[0] <= limit ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                return ++count[0] <= limit ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+            }
+        });
+        return Math.min(count[0], limit + 1);
+    }
+}
@@ -0,0 +1,124 @@
+package org.example.service;
+
+// ZipEntryPolicy.java
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * 打包条目的压缩策略：已压缩格式（图片、音视频、压缩包等）直接 STORED，避免无意义的 deflate。
+ * 依次按扩展名、文件头魔数判断，均未命中时可选对首块做一次快速试压缩。
+ */
+@Component
+public class ZipEntryPolicy {
+
+    public record Decision(boolean store, String reason) {
+    }
+
+    private static final Decision DEFLATE = new Decision(false, "default");
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "avif",
+            "mp4", "m4v", "mkv", "mov", "avi", "webm", "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "zip", "7z", "rar", "gz", "tgz", "bz2", "xz", "zst", "lz4",
+            "jar", "war", "apk", "docx", "xlsx", "pptx", "odt", "epub"
+    );
+
+    // 试压缩只取首块的前 64KB，使用最快级别
+    private static final int TRIAL_SIZE = 64 * 1024;
+    private static final int TRIAL_MIN_SIZE = 4 * 1024;
+
+    private final boolean trialCompression;
+    private final double minSavings;
+
+    public ZipEntryPolicy(
+            @Value("${file.archive.store-policy.trial-compression:true}") boolean trialCompression,
+            @Value("${file.archive.store-policy.min-savings:0.05}") double minSavings
+    ) {
+        this.trialCompression = trialCompression;
+        this.minSavings = minSavings;
+    }
+
+    /**
+     * @param head 文件开头的数据（首个分块）
+     */
+    public Decision decide(String fileName, byte[] head, int level) {
+        if (level == 0) {
+            return new Decision(true, "level0");
+        }
+        if (COMPRESSED_EXTENSIONS.contains(extension(fileName))) {
+            return new Decision(true, "extension");
+        }
+        if (hasCompressedMagic(head)) {
+            return new Decision(true, "magic");
+        }
+        if (trialCompression && head.length >= TRIAL_MIN_SIZE && !worthDeflating(head)) {
+            return new Decision(true, "trial");
+        }
+        return DEFLATE;
+    }
+
+    /**
+     * 统计分类用的类型名：小写扩展名，无扩展名时为 "(none)"
+     */
+    public static String extension(String fileName) {
+        int slash = fileName.lastIndexOf('/');
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= slash + 1 || dot == fileName.length() - 1) {
+            return "(none)";
+        }
+        return fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private boolean worthDeflating(byte[] head) {
+        int length = Math.min(TRIAL_SIZE, head.length);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(head, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[8 * 1024];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(buffer);
+            }
+            return compressed <= length * (1 - minSavings);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean hasCompressedMagic(byte[] b) {
+        return startsWith(b, 0, 0xFF, 0xD8, 0xFF)                          // JPEG
+                || startsWith(b, 0, 0x89, 'P', 'N', 'G')                   // PNG
+                || startsWith(b, 0, 'G', 'I', 'F', '8')                    // GIF
+                || startsWith(b, 0, 'P', 'K', 0x03, 0x04)                  // ZIP 及 OOXML/JAR
+                || startsWith(b, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)      // 7z
+                || startsWith(b, 0, 'R', 'a', 'r', '!')                    // RAR
+                || startsWith(b, 0, 0x1F, 0x8B)                            // gzip
+                || startsWith(b, 0, 'B', 'Z', 'h')                         // bzip2
+                || startsWith(b, 0, 0xFD, '7', 'z', 'X', 'Z', 0x00)        // xz
+                || startsWith(b, 0, 0x28, 0xB5, 0x2F, 0xFD)                // zstd
+                || startsWith(b, 4, 'f', 't', 'y', 'p')                    // MP4/MOV/HEIC
+                || startsWith(b, 0, 0x1A, 0x45, 0xDF, 0xA3)                // MKV/WebM
+                || (startsWith(b, 0, 'R', 'I', 'F', 'F') && startsWith(b, 8, 'W', 'E', 'B', 'P'))
+                || startsWith(b, 0, 'f', 'L', 'a', 'C')                    // FLAC
+                || startsWith(b, 0, 'O', 'g', 'g', 'S')                    // Ogg
+                || startsWith(b, 0, 'I', 'D', '3');                        // MP3
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... magic) {
+        if (data.length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,572 @@
+package org.example.service;
+
+// ZipStreamWriter.java
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 并行压缩的 ZIP 流写入器（pigz 方式）。
+ * 文件按固定大小分块，各块在线程池中独立 deflate（以前一块末尾 32KB 作为预设字典，非末块以 SYNC_FLUSH 结束），
+ * 再按原顺序拼接成一个合法的 deflate 流。条目使用数据描述符，无需回写本地文件头，可直接写入不可回退的网络流；
+ * 在条目大小、偏移或条目数超出 32 位/16 位范围时写入 ZIP64 结构。
+ * 在途块数有上限，内存占用约为 maxInFlight × 2 × chunkSize。
+ * 策略判定为已压缩格式的文件以 STORED 写入：不超过一个分块的文件直接写出已读入的内容；更大的文件先流式计算 CRC
+ * 与长度写入本地文件头，再原样拷贝，不缓冲整个文件。拷贝时内容已变化的条目从中央目录中去掉，改按 DEFLATED 重新写入。
+ * 文件以打开的 FileChannel 传入，推迟的拷贝仍从同一个句柄读取：之后路径被删除或替换不影响输出。
+ */
+class ZipStreamWriter {
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIG = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int END_SIG = 0x06054b50;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    // 原始大小超过该值时预先按 ZIP64 写入（deflate 对不可压缩数据会略微膨胀，留出余量）
+    private static final long ZIP64_THRESHOLD = 0xFFFFFFFFL - (0xFFFFFFFFL >>> 8);
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<byte[]> DEFLATE_BUFFER = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    private static final class Entry {
+        final byte[] name;
+        final long modifiedTime;
+        final int method;
+        final boolean zip64;
+        final boolean directory;
+        // 只有 DEFLATED 文件使用数据描述符；STORED 条目在写头之前已知 CRC 与长度
+        // （ZipInputStream 等顺序读取的实现不接受带数据描述符的 STORED 条目）
+        final boolean dataDescriptor;
+        final AtomicLong cpuNanos = new AtomicLong();
+        long offset;
+        long crc;
+        long compressedSize;
+        long size;
+
+        Entry(String name, long modifiedTime, int method, boolean zip64, boolean directory) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.modifiedTime = modifiedTime;
+            this.method = method;
+            this.zip64 = zip64;
+            this.directory = directory;
+            this.dataDescriptor = method == METHOD_DEFLATED;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private final CountingOutputStream out;
+    private final Executor executor;
+    private final int level;
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final ZipEntryPolicy policy;
+    private final ArchiveStats stats;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final ArrayDeque<Step> pending = new ArrayDeque<>();
+    // 推迟拷贝的 STORED 文件仍打开的句柄，写出后关闭；中途失败时由 abort 关闭
+    private final List<FileChannel> deferred = new ArrayList<>();
+    private int inFlight;
+
+    ZipStreamWriter(OutputStream out, Executor executor, int level, int chunkSize, int maxInFlight,
+                    ZipEntryPolicy policy, ArchiveStats stats) {
+        this.out = new CountingOutputStream(out);
+        this.executor = executor;
+        this.level = level;
+        this.chunkSize = chunkSize;
+        this.maxInFlight = maxInFlight;
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    void putDirectory(String name, long modifiedTime) throws IOException {
+        Entry entry = new Entry(name, modifiedTime, METHOD_STORED, false, true);
+        entries.add(entry);
+        pending.add(() -> writeLocalHeader(entry));
+        drain(false);
+    }
+
+    void putFile(String name, Path file, long modifiedTime, long expectedSize) throws IOException {
+        putFile(name, FileChannel.open(file, StandardOpenOption.READ), modifiedTime, expectedSize);
+    }
+
+    /**
+     * 从已打开的文件读取并提交分块压缩任务，channel 由本方法负责关闭。
+     * 读取在调用线程完成（同时计算 CRC），压缩在线程池中并行进行。
+     */
+    void putFile(String name, FileChannel channel, long modifiedTime, long expectedSize) throws IOException {
+        boolean keepOpen = false;
+        try {
+            // 不关闭这个流：关闭会连带关闭 channel
+            InputStream in = Channels.newInputStream(channel);
+            byte[] current = in.readNBytes(chunkSize);
+            ZipEntryPolicy.Decision decision = policy.decide(name, current, level);
+            if (decision.store()) {
+                keepOpen = putStoredFile(name, channel, in, current, modifiedTime, decision.reason());
+            } else {
+                putDeflatedFile(name, in, current, modifiedTime, expectedSize);
+            }
+        } finally {
+            if (!keepOpen) {
+                channel.close();
+            }
+        }
+        drain(false);
+    }
+
+    /**
+     * 放弃输出，关闭尚未写出的文件句柄
+     */
+    void abort() {
+        for (FileChannel channel : deferred) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+        deferred.clear();
+        pending.clear();
+    }
+
+    private void putDeflatedFile(String name, InputStream in, byte[] current, long modifiedTime, long expectedSize)
+            throws IOException {
+        Entry entry = new Entry(name, modifiedTime, METHOD_DEFLATED, expectedSize >= ZIP64_THRESHOLD, false);
+        CRC32 crc = new CRC32();
+        crc.update(current);
+        // 本地文件头放到首块读取成功之后，打不开的文件不会留下半个条目
+        entries.add(entry);
+        pending.add(() -> writeLocalHeader(entry));
+        long size = current.length;
+        byte[] previous = null;
+        while (true) {
+            byte[] next = current.length < chunkSize ? new byte[0] : in.readNBytes(chunkSize);
+            boolean last = next.length == 0;
+            submitChunk(entry, current, previous, last);
+            if (last) {
+                break;
+            }
+            crc.update(next);
+            size += next.length;
+            previous = current;
+            current = next;
+        }
+        long finalSize = size;
+        pending.add(() -> {
+            entry.crc = crc.getValue();
+            entry.size = finalSize;
+            writeDataDescriptor(entry);
+            stats.recordDeflated(ZipEntryPolicy.extension(name), entry.size, entry.compressedSize,
+                    entry.cpuNanos.get());
+        });
+    }
+
+    /**
+     * STORED 条目。首块未读满时整个文件已在内存中，直接写出；否则继续读完文件计算 CRC 与长度
+     * （只保留固定大小的缓冲），写出时再从同一句柄原样拷贝并复核 CRC，此时返回 true，句柄在拷贝后关闭
+     */
+    private boolean putStoredFile(String name, FileChannel channel, InputStream in, byte[] head, long modifiedTime,
+                                  String reason) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(head);
+        long size = head.length;
+        boolean buffered = head.length < chunkSize;
+        if (!buffered) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+                size += n;
+            }
+        }
+
+        Entry entry = new Entry(name, modifiedTime, METHOD_STORED, size >= ZIP64_MAGIC, false);
+        entry.crc = crc.getValue();
+        entry.size = size;
+        entry.compressedSize = size;
+        entries.add(entry);
+        if (buffered) {
+            // 与压缩块一样计入在途数，排队中的首块内存受 maxInFlight 限制
+            inFlight++;
+            pending.add(() -> {
+                inFlight--;
+                writeLocalHeader(entry);
+                out.write(head);
+                stats.recordStored(ZipEntryPolicy.extension(name), entry.size, reason);
+            });
+            return false;
+        }
+        // 同样计入在途数，打开的句柄数受 maxInFlight 限制
+        inFlight++;
+        deferred.add(channel);
+        pending.add(() -> {
+            inFlight--;
+            try {
+                writeLocalHeader(entry);
+                if (copyStored(channel, entry)) {
+                    stats.recordStored(ZipEntryPolicy.extension(name), entry.size, reason);
+                } else {
+                    // 已写出的数据留在流中但不再被中央目录引用
+                    entries.remove(entry);
+                    writeDeflatedCopy(name, channel, modifiedTime, entry.size >= ZIP64_THRESHOLD);
+                }
+            } finally {
+                deferred.remove(channel);
+                channel.close();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 按头部记录的长度原样拷贝（文件变短时补零），返回内容是否与预读时一致
+     */
+    private boolean copyStored(FileChannel channel, Entry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long remaining = entry.size;
+        InputStream in = Channels.newInputStream(channel.position(0));
+        while (remaining > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                break;
+            }
+            crc.update(buffer, 0, n);
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        if (remaining == 0) {
+            return crc.getValue() == entry.crc;
+        }
+        Arrays.fill(buffer, (byte) 0);
+        while (remaining > 0) {
+            int n = (int) Math.min(buffer.length, remaining);
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+        return false;
+    }
+
+    /**
+     * 在当前线程中顺序压缩写入文件的当前内容，用于 STORED 拷贝时发现文件已变化的情况
+     */
+    private void writeDeflatedCopy(String name, FileChannel channel, long modifiedTime, boolean zip64)
+            throws IOException {
+        Entry entry = new Entry(name, modifiedTime, METHOD_DEFLATED, zip64, false);
+        entries.add(entry);
+        writeLocalHeader(entry);
+        CRC32 crc = new CRC32();
+        long start = cpuTime();
+        Deflater deflater = new Deflater(level, true);
+        byte[] input = new byte[COPY_BUFFER_SIZE];
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try {
+            InputStream in = Channels.newInputStream(channel.position(0));
+            int n;
+            while ((n = in.read(input)) > 0) {
+                crc.update(input, 0, n);
+                entry.size += n;
+                deflater.setInput(input, 0, n);
+                while (!deflater.needsInput()) {
+                    entry.compressedSize += writeDeflated(deflater, buffer);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                entry.compressedSize += writeDeflated(deflater, buffer);
+            }
+        } finally {
+            deflater.end();
+        }
+        entry.crc = crc.getValue();
+        entry.cpuNanos.addAndGet(cpuTime() - start);
+        writeDataDescriptor(entry);
+        stats.recordDeflated(ZipEntryPolicy.extension(name), entry.size, entry.compressedSize, entry.cpuNanos.get());
+    }
+
+    private int writeDeflated(Deflater deflater, byte[] buffer) throws IOException {
+        int n = deflater.deflate(buffer);
+        out.write(buffer, 0, n);
+        return n;
+    }
+
+    /**
+     * 写出所有剩余数据和中央目录，不关闭底层输出流
+     */
+    void finish() throws IOException {
+        drain(true);
+        writeCentralDirectory();
+        out.flush();
+    }
+
+    private void submitChunk(Entry entry, byte[] data, byte[] previous, boolean last) throws IOException {
+        CompletableFuture<byte[]> future = CompletableFuture.supplyAsync(() -> {
+            long start = cpuTime();
+            byte[] compressed = deflate(data, previous, last, level);
+            entry.cpuNanos.addAndGet(cpuTime() - start);
+            return compressed;
+        }, executor);
+        inFlight++;
+        pending.add(() -> {
+            byte[] compressed = join(future);
+            inFlight--;
+            out.write(compressed);
+            entry.compressedSize += compressed.length;
+        });
+        drain(false);
+    }
+
+    /**
+     * 按顺序写出已排队的步骤；未要求全部写出时，只在在途块数超过上限时等待最早的块
+     */
+    private void drain(boolean all) throws IOException {
+        while (!pending.isEmpty() && (all || inFlight > maxInFlight)) {
+            pending.poll().run();
+        }
+    }
+
+    static byte[] deflate(byte[] data, byte[] dictionary, boolean last, int level) {
+        Deflater deflater = DEFLATER.get();
+        byte[] buffer = DEFLATE_BUFFER.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        if (dictionary != null) {
+            int dictLength = Math.min(DICTIONARY_SIZE, dictionary.length);
+            deflater.setDictionary(dictionary, dictionary.length - dictLength, dictLength);
+        }
+        deflater.setInput(data);
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        if (last) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                compressed.write(buffer, 0, n);
+            }
+        } else {
+            // SYNC_FLUSH 让块在字节边界结束且不带结束标记，后续块可以直接拼接。
+            // 调整压缩级别后的首次调用可能只输出参数切换产生的数据而不消耗输入，因此同时检查 needsInput
+            int n;
+            do {
+                n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                compressed.write(buffer, 0, n);
+            } while (n == buffer.length || !deflater.needsInput());
+        }
+        return compressed.toByteArray();
+    }
+
+    private static long cpuTime() {
+        return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()
+                ? THREAD_MX_BEAN.getCurrentThreadCpuTime()
+                : System.nanoTime();
+    }
+
+    private static byte[] join(CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IOException("压缩失败", e.getCause());
+        }
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        entry.offset = out.count;
+        int flags = FLAG_UTF8 | (entry.dataDescriptor ? FLAG_DATA_DESCRIPTOR : 0);
+        // 使用数据描述符时大小与 CRC 记录在数据之后，头部填 0
+        long crc = entry.dataDescriptor ? 0 : entry.crc;
+        long compressedSize = entry.dataDescriptor ? 0 : entry.compressedSize;
+        long size = entry.dataDescriptor ? 0 : entry.size;
+        writeInt(LOCAL_HEADER_SIG);
+        writeShort(entry.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        writeShort(flags);
+        writeShort(entry.method);
+        writeInt(dosTime(entry.modifiedTime));
+        writeInt(crc);
+        writeInt(entry.zip64 ? ZIP64_MAGIC : compressedSize);
+        writeInt(entry.zip64 ? ZIP64_MAGIC : size);
+        writeShort(entry.name.length);
+        writeShort(entry.zip64 ? 20 : 0);
+        out.write(entry.name);
+        if (entry.zip64) {
+            writeShort(0x0001);
+            writeShort(16);
+            writeLong(size);
+            writeLong(compressedSize);
+        }
+    }
+
+    private void writeDataDescriptor(Entry entry) throws IOException {
+        if (!entry.zip64 && (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC)) {
+            throw new IOException("文件在打包过程中发生变化: " + new String(entry.name, StandardCharsets.UTF_8));
+        }
+        writeInt(DATA_DESCRIPTOR_SIG);
+        writeInt(entry.crc);
+        if (entry.zip64) {
+            writeLong(entry.compressedSize);
+            writeLong(entry.size);
+        } else {
+            writeInt(entry.compressedSize);
+            writeInt(entry.size);
+        }
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long cdOffset = out.count;
+        for (Entry entry : entries) {
+            boolean sizeOverflow = entry.size >= ZIP64_MAGIC;
+            boolean compressedOverflow = entry.compressedSize >= ZIP64_MAGIC;
+            boolean offsetOverflow = entry.offset >= ZIP64_MAGIC;
+            int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+            boolean zip64 = extraLength > 0;
+
+            writeInt(CENTRAL_HEADER_SIG);
+            writeShort(VERSION_ZIP64);
+            writeShort(zip64 || entry.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            writeShort(FLAG_UTF8 | (entry.dataDescriptor ? FLAG_DATA_DESCRIPTOR : 0));
+            writeShort(entry.method);
+            writeInt(dosTime(entry.modifiedTime));
+            writeInt(entry.crc);
+            writeInt(compressedOverflow ? ZIP64_MAGIC : entry.compressedSize);
+            writeInt(sizeOverflow ? ZIP64_MAGIC : entry.size);
+            writeShort(entry.name.length);
+            writeShort(zip64 ? extraLength + 4 : 0);
+            writeShort(0);  // 注释长度
+            writeShort(0);  // 起始磁盘
+            writeShort(0);  // 内部属性
+            writeInt(entry.directory ? 0x10 : 0);  // 外部属性（MS-DOS 目录标记）
+            writeInt(offsetOverflow ? ZIP64_MAGIC : entry.offset);
+            out.write(entry.name);
+            if (zip64) {
+                // ZIP64 扩展字段只包含溢出的字段，顺序固定
+                writeShort(0x0001);
+                writeShort(extraLength);
+                if (sizeOverflow) {
+                    writeLong(entry.size);
+                }
+                if (compressedOverflow) {
+                    writeLong(entry.compressedSize);
+                }
+                if (offsetOverflow) {
+                    writeLong(entry.offset);
+                }
+            }
+        }
+        long cdSize = out.count - cdOffset;
+        int count = entries.size();
+
+        if (count >= 0xFFFF || cdOffset >= ZIP64_MAGIC || cdSize >= ZIP64_MAGIC) {
+            long zip64EndOffset = out.count;
+            writeInt(ZIP64_END_SIG);
+            writeLong(44);
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(cdSize);
+            writeLong(cdOffset);
+
+            writeInt(ZIP64_LOCATOR_SIG);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+
+        writeInt(END_SIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, 0xFFFF));
+        writeShort(Math.min(count, 0xFFFF));
+        writeInt(Math.min(cdSize, ZIP64_MAGIC));
+        writeInt(Math.min(cdOffset, ZIP64_MAGIC));
+        writeShort(0);
+    }
+
+    private static long dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (time.getYear() - 1980) << 25
+                | (long) time.getMonthValue() << 21
+                | (long) time.getDayOfMonth() << 16
+                | (long) time.getHour() << 11
+                | (long) time.getMinute() << 5
+                | (long) time.getSecond() >> 1;
+    }
+
+    private void writeShort(int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xFFFF));
+        writeShort((int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xFFFFFFFFL);
+        writeInt(v >>> 32);
+    }
+}
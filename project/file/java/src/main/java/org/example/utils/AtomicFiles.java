@@ -0,0 +1,40 @@
+package org.example.utils;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+public class AtomicFiles {
+
+    // "." + 目标文件名 + "." + 32 位十六进制或带连字符的 UUID + 后缀
+    private static final Pattern TEMP_SIBLING =
+            Pattern.compile("\\..+\\.([0-9a-f]{32}|[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12})\\.(part|delta|link|tmp)");
+
+    /**
+     * 目标旁边的隐藏临时文件，与目标位于同一目录，保证最终重命名是原子的
+     */
+    public static Path tempSibling(Path target, String id, String suffix) {
+        return target.resolveSibling("." + target.getFileName() + "." + id + suffix);
+    }
+
+    /**
+     * 是否为 tempSibling 生成的文件名；目录列表、搜索索引和目录变化事件都忽略这些文件
+     */
+    public static boolean isTempSibling(String fileName) {
+        return fileName.startsWith(".") && TEMP_SIBLING.matcher(fileName).matches();
+    }
+
+    /**
+     * 原子替换目标文件；文件系统不支持时退化为普通移动
+     */
+    public static void moveIntoPlace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
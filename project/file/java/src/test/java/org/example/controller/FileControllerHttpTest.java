@@ -0,0 +1,282 @@
+package org.example.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.example.App;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * 启动完整应用，通过本机 HTTP 验证目录列表的条件请求、列表缓存失效、目录删除与 multipart 上传限速
+ */
+public class FileControllerHttpTest extends TestCase {
+
+    // 控制器的基础路径是静态常量，只在类加载时读取一次 -Dfile.base-path，同一 JVM 内的各用例共用该目录
+    private static final Path BASE = createBase();
+
+    private Path base;
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String port;
+
+    private static Path createBase() {
+        try {
+            Path base = Files.createTempDirectory("controller_http_");
+            base.toFile().deleteOnExit();
+            System.setProperty("file.base-path", base.toString());
+            return base;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException {
+        base = BASE;
+        FileUtils.cleanDirectory(base.toFile());
+        Files.write(base.resolve("a.bin"), new byte[100]);
+
+        // devtools 不识别 JUnit 3 的启动方式，需显式关闭重启
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        System.setProperty("file.delete.sync-max-entries", "5");
+        context = SpringApplication.run(App.class, "--server.port=0");
+        port = context.getEnvironment().getProperty("local.server.port");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        context.close();
+        FileUtils.cleanDirectory(base.toFile());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+    }
+
+    private HttpResponse<byte[]> get(String path, String... headers) throws Exception {
+        HttpRequest.Builder request = request(path);
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> put(String path, byte[] content) throws Exception {
+        return client.send(request("/api/files/content?path=" + URLEncoder.encode(path, StandardCharsets.UTF_8))
+                        .header("Content-Type", "application/octet-stream")
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> delete(String path) throws Exception {
+        return client.send(request("/api/files?path=" + URLEncoder.encode(path, StandardCharsets.UTF_8)).DELETE().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static String header(HttpResponse<?> response, String name) {
+        return response.headers().firstValue(name).orElseThrow(() -> new AssertionError("缺少 " + name));
+    }
+
+    private static boolean lists(HttpResponse<byte[]> response, String name) {
+        return new String(response.body(), StandardCharsets.UTF_8).contains("\"name\":\"" + name + "\"");
+    }
+
+    // 绕过接口的修改由 WatchService 异步使缓存失效，轮询等待列表反映变化
+    private HttpResponse<byte[]> awaitListing(String path, String name, boolean present) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            HttpResponse<byte[]> listing = get(path);
+            if (lists(listing, name) == present) {
+                return listing;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail(path + (present ? " 未出现 " : " 未移除 ") + name);
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    public void testListingConditionalGet() throws Exception {
+        assertEquals(201, put("b.bin", new byte[10]).statusCode());
+
+        // 默认列表、仅排序、分页三条路径都带校验值，未变化时返回 304
+        String[] queries = {"/api/files", "/api/files?sort=size", "/api/files?limit=1"};
+        String[] etags = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            HttpResponse<byte[]> listing = get(queries[i]);
+            assertEquals(200, listing.statusCode());
+            etags[i] = header(listing, "ETag");
+            assertTrue(etags[i], etags[i].startsWith("W/\""));
+            assertEquals(304, get(queries[i], "If-None-Match", etags[i]).statusCode());
+            assertEquals(304, get(queries[i], "If-Modified-Since", header(listing, "Last-Modified")).statusCode());
+            assertEquals(etags[i], header(get(queries[i]), "ETag"));
+        }
+        // 分页只包含一条记录并带下一页游标，校验值与完整列表不同
+        assertNotNull(header(get(queries[2]), "X-Next-Cursor"));
+        assertFalse(etags[2].equals(etags[0]));
+
+        // 通过接口新增文件与修改大小后，完整列表的旧校验值不再匹配（首页内容不变）
+        for (byte[] content : new byte[][]{new byte[0], new byte[5000]}) {
+            String name = content.length == 0 ? "c.bin" : "b.bin";
+            assertTrue(put(name, content).statusCode() / 100 == 2);
+            for (int i = 0; i < 2; i++) {
+                HttpResponse<byte[]> listing = get(queries[i], "If-None-Match", etags[i]);
+                assertEquals(queries[i], 200, listing.statusCode());
+                String etag = header(listing, "ETag");
+                assertFalse(etag.equals(etags[i]));
+                etags[i] = etag;
+            }
+            assertTrue(lists(get(queries[0]), name));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> json(HttpResponse<byte[]> response) throws IOException {
+        return new ObjectMapper().readValue(response.body(), List.class);
+    }
+
+    public void testStreamedListings() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Files.write(base.resolve("f" + i + ".bin"), new byte[i * 10]);
+        }
+        Files.createDirectory(base.resolve("dir"));
+        List<Map<String, Object>> full = json(get("/api/files"));
+        assertEquals(5, full.size());
+
+        // 按目录顺序边读边写：条目与格式同默认列表，不带校验值
+        HttpResponse<byte[]> none = get("/api/files?sort=none");
+        assertEquals(200, none.statusCode());
+        assertTrue(header(none, "Content-Type").startsWith("application/json"));
+        assertFalse(none.headers().firstValue("ETag").isPresent());
+        assertEquals(new HashSet<>(full), new HashSet<>(json(none)));
+        assertEquals(400, get("/api/files?sort=none&limit=1").statusCode());
+
+        // 仅排序的完整列表同样逐项写出，目录优先
+        List<String> names = json(get("/api/files?sort=size")).stream()
+                .map(entry -> (String) entry.get("name")).collect(Collectors.toList());
+        assertEquals(List.of("dir", "f0.bin", "f1.bin", "f2.bin", "a.bin"), names);
+        assertEquals(404, get("/api/files?sort=none&path=missing").statusCode());
+    }
+
+    public void testListingCacheFollowsExternalChanges() throws Exception {
+        // 先读取一次，使根目录进入缓存
+        String etag = header(get("/api/files"), "ETag");
+        assertEquals(304, get("/api/files", "If-None-Match", etag).statusCode());
+
+        Files.createDirectory(base.resolve("sub"));
+        Files.write(base.resolve("external.txt"), new byte[3]);
+        awaitListing("/api/files", "external.txt", true);
+        HttpResponse<byte[]> listing = awaitListing("/api/files", "sub", true);
+        assertFalse(etag.equals(header(listing, "ETag")));
+        assertEquals(200, get("/api/files", "If-None-Match", etag).statusCode());
+
+        // 新建的子目录同样被监听
+        assertFalse(lists(get("/api/files?path=sub"), "x.txt"));
+        Files.write(base.resolve("sub/x.txt"), new byte[1]);
+        awaitListing("/api/files?path=sub", "x.txt", true);
+
+        Files.move(base.resolve("external.txt"), base.resolve("sub/moved.txt"));
+        awaitListing("/api/files", "external.txt", false);
+        awaitListing("/api/files?path=sub", "moved.txt", true);
+
+        FileUtils.deleteDirectory(base.resolve("sub").toFile());
+        awaitListing("/api/files", "sub", false);
+        assertEquals(404, get("/api/files?path=sub").statusCode());
+    }
+
+    public void testDeleteDirectory() throws Exception {
+        // 空目录与小目录在请求内删除完毕
+        Files.createDirectory(base.resolve("empty"));
+        Files.createDirectories(base.resolve("small/sub"));
+        Files.write(base.resolve("small/sub/x.bin"), new byte[10]);
+        assertTrue(lists(get("/api/files"), "small"));
+        for (String dir : new String[]{"empty", "small"}) {
+            assertEquals(200, delete(dir).statusCode());
+            assertFalse(Files.exists(base.resolve(dir)));
+            assertFalse(lists(get("/api/files"), dir));
+        }
+
+        // 超过阈值的目录交给后台任务，立即从列表中消失
+        Files.createDirectory(base.resolve("big"));
+        for (int i = 0; i < 6; i++) {
+            Files.write(base.resolve("big/f" + i), new byte[1]);
+        }
+        assertEquals(202, delete("big").statusCode());
+        assertFalse(lists(get("/api/files"), "big"));
+        assertFalse(Files.exists(base.resolve("big")));
+    }
+
+    private HttpResponse<byte[]> upload(String dir, String folderName, Map<String, byte[]> files) throws Exception {
+        String boundary = "----boundary" + System.nanoTime();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"folderName\"\r\n\r\n"
+                + folderName + "\r\n").getBytes(StandardCharsets.UTF_8));
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            body.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"files\"; filename=\""
+                    + file.getKey() + "\"\r\nContent-Type: application/octet-stream\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            body.write(file.getValue());
+            body.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        body.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return client.send(request("/api/upload?path=" + URLEncoder.encode(dir, StandardCharsets.UTF_8))
+                        .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testMultipartUploadShaped() throws Exception {
+        Files.createDirectory(base.resolve("up"));
+        HttpResponse<byte[]> limits = client.send(request("/api/transfer/limits")
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString("{\"uploadClientBytesPerSecond\":65536}"))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, limits.statusCode());
+
+        // 约 160KB 的请求体在 64KB/s 下需要两秒以上，解析阶段已受限
+        byte[] a = new byte[100 * 1024];
+        byte[] b = new byte[60 * 1024];
+        new Random(3).nextBytes(a);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("batch/a.bin", a);
+        files.put("batch/b.bin", b);
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response = upload("up", "batch", files);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(new String(response.body(), StandardCharsets.UTF_8), 200, response.statusCode());
+        assertTrue("耗时 " + elapsedMillis + "ms", elapsedMillis >= 1500);
+        assertTrue(Arrays.equals(a, Files.readAllBytes(base.resolve("up/batch/a.bin"))));
+        assertEquals(b.length, Files.size(base.resolve("up/batch/b.bin")));
+
+        Map<String, Object> stats = new ObjectMapper().readValue(get("/api/stats/transfer").body(), Map.class);
+        long uploaded = ((Number) ((Map<String, Object>) stats.get("upload")).get("bytes")).longValue();
+        assertTrue(String.valueOf(uploaded), uploaded >= a.length + b.length);
+
+        // 表单字段经包装后的请求读取：同名文件夹已存在时冲突
+        assertEquals(409, upload("up", "batch", Map.of("batch/c.bin", new byte[1])).statusCode());
+    }
+}
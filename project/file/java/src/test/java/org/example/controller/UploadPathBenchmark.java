@@ -0,0 +1,140 @@
+package org.example.controller;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.example.App;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 上传路径基准：对比 multipart 的 /api/upload 与原始请求体的 PUT /api/files/content。
+ * 启动完整应用并通过本机 HTTP 上传，数据由内存生成，不需要源文件。
+ * 不在默认测试中运行，手动执行：
+ * mvn test -Dtest=UploadPathBenchmark -Dbench.sizes=1m,100m,5g
+ */
+public class UploadPathBenchmark extends TestCase {
+
+    private static final String BOUNDARY = "----bench" + System.nanoTime();
+
+    /**
+     * 按固定模式生成指定长度数据的输入流
+     */
+    private static class PatternInputStream extends InputStream {
+        private long remaining;
+
+        PatternInputStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return (int) (remaining & 0x7F);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) ((remaining - i) & 0x7F);
+            }
+            remaining -= n;
+            return n;
+        }
+    }
+
+    public void testCompare() throws Exception {
+        Path base = Files.createTempDirectory("upload_bench_");
+        System.setProperty("file.base-path", base.toString());
+        // devtools 不识别 JUnit 3 的启动方式，需显式关闭重启
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        ConfigurableApplicationContext context = SpringApplication.run(App.class,
+                "--server.port=0",
+                "--spring.servlet.multipart.max-file-size=-1",
+                "--spring.servlet.multipart.max-request-size=-1");
+        try {
+            String port = context.getEnvironment().getProperty("local.server.port");
+            HttpClient client = HttpClient.newHttpClient();
+            for (String size : System.getProperty("bench.sizes", "1m,100m").split(",")) {
+                long bytes = parseSize(size.trim());
+                // 预热
+                raw(client, port, bytes);
+                multipart(client, port, bytes);
+
+                report("multipart", size, bytes, multipart(client, port, bytes));
+                report("raw", size, bytes, raw(client, port, bytes));
+            }
+        } finally {
+            context.close();
+            FileUtils.deleteDirectory(base.toFile());
+        }
+    }
+
+    private long raw(HttpClient client, String port, long bytes) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + port + "/api/files/content?path=raw.bin&expectedSize=" + bytes))
+                .PUT(HttpRequest.BodyPublishers.fromPublisher(
+                        HttpRequest.BodyPublishers.ofInputStream(() -> new PatternInputStream(bytes)), bytes))
+                .build();
+        return send(client, request);
+    }
+
+    private long multipart(HttpClient client, String port, long bytes) throws IOException, InterruptedException {
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"files\"; filename=\"multipart.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        long length = head.length + bytes + tail.length;
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/upload?path="))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(
+                        () -> new SequenceInputStream(new SequenceInputStream(
+                                new ByteArrayInputStream(head), new PatternInputStream(bytes)),
+                                new ByteArrayInputStream(tail))), length))
+                .build();
+        return send(client, request);
+    }
+
+    private long send(HttpClient client, HttpRequest request) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        long elapsed = System.nanoTime() - start;
+        assertTrue(response.body(), response.statusCode() / 100 == 2);
+        return elapsed;
+    }
+
+    private void report(String name, String size, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-9s size=%-5s total=%9.1fms throughput=%8.1fMB/s%n",
+                name, size, seconds * 1e3, bytes / seconds / (1024 * 1024));
+    }
+
+    private static long parseSize(String size) {
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        long value = Long.parseLong(size.substring(0, size.length() - 1));
+        return switch (unit) {
+            case 'k' -> value << 10;
+            case 'm' -> value << 20;
+            case 'g' -> value << 30;
+            default -> Long.parseLong(size);
+        };
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 路径重叠的操作归入同一组并保持顺序，各组并行执行后结果仍按下标返回
+ */
+public class BatchRunnerTest extends TestCase {
+
+    private static Set<Path> paths(String... names) {
+        Set<Path> set = new HashSet<>();
+        for (String name : names) {
+            set.add(Paths.get("/data").resolve(name));
+        }
+        return set;
+    }
+
+    public void testGroupByOverlap() {
+        List<List<Integer>> groups = BatchRunner.groupByOverlap(List.of(
+                paths("a"),
+                paths("b/x"),
+                paths("a/sub", "c"),   // 与 0 重叠
+                paths("d"),
+                paths("c/y"),          // 经 2 与 0 相连
+                paths("b")));          // 与 1 重叠
+        assertEquals(List.of(List.of(0, 2, 4), List.of(1, 5), List.of(3)), groups);
+    }
+
+    public void testRunKeepsOrderWithinGroups() throws Exception {
+        BatchRunner runner = new BatchRunner(4);
+        try {
+            List<List<Integer>> groups = new ArrayList<>();
+            for (int g = 0; g < 10; g++) {
+                List<Integer> group = new ArrayList<>();
+                for (int i = g; i < 100; i += 10) {
+                    group.add(i);
+                }
+                groups.add(group);
+            }
+            List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+            List<String> results = runner.run(100, groups, i -> {
+                executed.add(i);
+                return "r" + i;
+            });
+            for (int i = 0; i < 100; i++) {
+                assertEquals("r" + i, results.get(i));
+            }
+            // 同组内 i 先于 i + 10 执行
+            for (int i = 0; i < 90; i++) {
+                assertTrue(executed.indexOf(i) < executed.indexOf(i + 10));
+            }
+        } finally {
+            runner.shutdown();
+        }
+    }
+}
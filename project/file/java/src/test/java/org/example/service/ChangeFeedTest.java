@@ -0,0 +1,87 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 事件合并规则，以及真实目录上的新建、重命名、删除推送
+ */
+public class ChangeFeedTest extends TestCase {
+
+    public void testMerge() {
+        Map<String, String> pending = new LinkedHashMap<>();
+        ChangeFeed.merge(pending, "a", ENTRY_CREATE);
+        ChangeFeed.merge(pending, "a", ENTRY_MODIFY);
+        ChangeFeed.merge(pending, "b", ENTRY_CREATE);
+        ChangeFeed.merge(pending, "b", ENTRY_DELETE);
+        ChangeFeed.merge(pending, "c", ENTRY_DELETE);
+        ChangeFeed.merge(pending, "c", ENTRY_CREATE);
+        ChangeFeed.merge(pending, "d", ENTRY_MODIFY);
+        ChangeFeed.merge(pending, "d", ENTRY_DELETE);
+        assertEquals(Map.of("a", "create", "c", "modify", "d", "delete"), pending);
+    }
+
+    public void testCreateRenameDelete() throws Exception {
+        Path dir = Files.createTempDirectory("change_feed_");
+        DirectoryWatcher watcher = new DirectoryWatcher();
+        watcher.start();
+        ChangeFeed feed = new ChangeFeed(watcher, 50, 1000, 64, 10, 0, 1);
+        feed.init();
+        BlockingQueue<Object[]> received = new LinkedBlockingQueue<>();
+        try {
+            feed.subscribe(dir, new ChangeFeed.Sink() {
+                @Override
+                public void send(String event, Object data) {
+                    received.add(new Object[]{event, data});
+                }
+
+                @Override
+                public void heartbeat() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            assertEquals("ready", received.poll(5, TimeUnit.SECONDS)[0]);
+
+            Files.writeString(dir.resolve("a.txt"), "hello");
+            Map<String, Object> created = singleEvent(received);
+            assertEquals("create", created.get("type"));
+            assertEquals("a.txt", created.get("name"));
+            assertEquals(5L, created.get("size"));
+
+            Files.move(dir.resolve("a.txt"), dir.resolve("b.txt"));
+            Map<String, Object> renamed = singleEvent(received);
+            assertEquals("rename", renamed.get("type"));
+            assertEquals("a.txt", renamed.get("from"));
+            assertEquals("b.txt", renamed.get("name"));
+
+            Files.delete(dir.resolve("b.txt"));
+            assertEquals(Map.of("type", "delete", "name", "b.txt"), singleEvent(received));
+        } finally {
+            feed.shutdown();
+            watcher.stop();
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> singleEvent(BlockingQueue<Object[]> received) throws InterruptedException {
+        Object[] message = received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("change", message[0]);
+        List<Map<String, Object>> events = (List<Map<String, Object>>) ((Map<String, Object>) message[1]).get("events");
+        assertEquals(1, events.size());
+        return events.get(0);
+    }
+}
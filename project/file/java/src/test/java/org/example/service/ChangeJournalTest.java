@@ -0,0 +1,67 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * 令牌之后的变化按路径合并返回；分页续取，记录被丢弃或令牌来自其他进程时要求完整同步
+ */
+public class ChangeJournalTest extends TestCase {
+
+    private Path base;
+
+    @Override
+    protected void setUp() throws Exception {
+        base = Files.createTempDirectory("change_journal_");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(base.toFile());
+    }
+
+    public void testChangesSinceToken() throws Exception {
+        ChangeJournal journal = new ChangeJournal(base.toString(), 60, 100, null);
+        ChangeJournal.Changes initial = journal.since(null, 100);
+        assertTrue(initial.resync());
+
+        Path a = Files.writeString(base.resolve("a.txt"), "a");
+        journal.created(a);
+        journal.modified(a);
+        Path b = Files.writeString(base.resolve("b.txt"), "b");
+        journal.created(b);
+        Files.delete(b);
+        journal.removed(b);
+
+        ChangeJournal.Changes first = journal.since(initial.token(), 1);
+        assertFalse(first.resync());
+        assertTrue(first.more());
+        Map<String, Object> created = first.changes().get(0);
+        assertEquals("a.txt", created.get("path"));
+        assertEquals("create", created.get("type"));
+        assertEquals(1L, created.get("size"));
+
+        ChangeJournal.Changes second = journal.since(first.token(), 100);
+        assertFalse(second.more());
+        assertEquals(1, second.changes().size());
+        assertEquals("b.txt", second.changes().get(0).get("path"));
+        assertEquals("delete", second.changes().get(0).get("type"));
+
+        assertTrue(journal.since(second.token(), 100).changes().isEmpty());
+        assertTrue(journal.since("0." + 1, 100).resync());
+    }
+
+    public void testCompactedTokenRequiresResync() throws Exception {
+        ChangeJournal journal = new ChangeJournal(base.toString(), 60, 2, null);
+        String token = journal.currentToken();
+        for (int i = 0; i < 3; i++) {
+            journal.created(base.resolve("f" + i));
+        }
+        assertTrue(journal.since(token, 100).resync());
+        assertEquals(1L, journal.stats().get("compacted"));
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存只在 (inode, 大小, 修改时间) 不变时有效；后台校验能发现属性未变但内容被改动的文件
+ */
+public class ChecksumServiceTest extends TestCase {
+
+    private Path dir;
+    private ChecksumService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("checksum_");
+        service = new ChecksumService(1, dir.resolve("index.bin").toString());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.shutdown();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    public void testCachedUntilFileChanges() throws Exception {
+        Path file = dir.resolve("data/a.txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "hello");
+
+        assertNull(service.cached(file));
+        ChecksumService.Checksum checksum = service.get(file).get();
+        // "hello" 的 SHA-256 与 CRC32C
+        assertEquals("2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824", checksum.sha256());
+        assertEquals("9a71bb4c", checksum.crc32c());
+        assertEquals(checksum, service.cached(file));
+
+        Files.writeString(file, "hello world");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(checksum.modifiedTime() + 5000));
+        assertNull(service.cached(file));
+    }
+
+    public void testIndexSurvivesRestart() throws Exception {
+        Path file = dir.resolve("data/b.txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "persist");
+        ChecksumService.Checksum checksum = service.compute(file);
+        service.shutdown();
+
+        service = new ChecksumService(1, dir.resolve("index.bin").toString());
+        service.loadIndex();
+        assertEquals(checksum, service.cached(file));
+    }
+
+    public void testVerifyDetectsSilentCorruption() throws Exception {
+        Path file = dir.resolve("data/c.txt");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "original");
+        ChecksumService.Checksum checksum = service.compute(file);
+
+        // 同样长度的内容覆盖并还原修改时间，模拟静默损坏
+        Files.writeString(file, "corrupt!");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(checksum.modifiedTime()));
+        Files.writeString(dir.resolve("data/new.txt"), "new");
+
+        assertTrue(service.startVerify(dir.resolve("data"), "data"));
+        Map<String, Object> status = service.verifyStatus();
+        for (int i = 0; i < 200 && "running".equals(status.get("state")); i++) {
+            Thread.sleep(20);
+            status = service.verifyStatus();
+        }
+        assertEquals("finished", status.get("state"));
+        assertEquals(List.of("c.txt"), status.get("mismatched"));
+        assertEquals(1L, status.get("added"));
+    }
+}
@@ -0,0 +1,185 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 校验失败或长度不完整的重传会取消该分块的接收标记；合并等待进行中的分块写入结束；
+ * 创建会话时检查大小上限与剩余空间
+ */
+public class ChunkedUploadServiceTest extends TestCase {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private Path dir;
+    private ChunkedUploadService service;
+    private byte[] data;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("chunked_upload_");
+        service = new ChunkedUploadService(CHUNK, 60, CHUNK * 4L, new ContentStore(false, ""),
+                new PathLocks(dir.toString(), 64, 1000));
+        data = new byte[CHUNK * 2 + 100];
+        new Random(7).nextBytes(data);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private byte[] chunk(int index) {
+        return Arrays.copyOfRange(data, index * CHUNK, Math.min(data.length, (index + 1) * CHUNK));
+    }
+
+    private static String crc(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        return String.format("%08x", crc.getValue());
+    }
+
+    private void put(String id, int index, byte[] bytes) throws Exception {
+        service.writeChunk(id, (long) index * CHUNK, new ByteArrayInputStream(bytes), crc(bytes));
+    }
+
+    public void testRetryAfterCrcFailure() throws Exception {
+        Path target = dir.resolve("a.bin");
+        String id = service.init(target, data.length, CHUNK, null).id();
+        for (int i = 0; i < 3; i++) {
+            put(id, i, chunk(i));
+        }
+
+        // 已接收的分块重传时内容损坏：原内容已被覆盖，必须重新标记为缺失
+        byte[] corrupt = chunk(0);
+        corrupt[10] ^= 1;
+        try {
+            service.writeChunk(id, 0, new ByteArrayInputStream(corrupt), crc(chunk(0)));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        // 长度不完整的重传同样如此
+        try {
+            service.writeChunk(id, CHUNK, new ByteArrayInputStream(chunk(1), 0, 100), null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(List.of(0, 1), service.get(id).status().get("missingChunks"));
+        try {
+            service.complete(id);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        put(id, 0, chunk(0));
+        put(id, 1, chunk(1));
+        assertEquals(target, service.complete(id));
+        assertTrue(Arrays.equals(data, Files.readAllBytes(target)));
+    }
+
+    public void testInitChecksSizeAndHidesPartFile() throws Exception {
+        Path target = dir.resolve("c.bin");
+        try {
+            service.init(target, CHUNK * 4L + 1, CHUNK, null);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        ChunkedUploadService unlimited = new ChunkedUploadService(CHUNK, 60, 0, new ContentStore(false, ""),
+                new PathLocks(dir.toString(), 64, 1000));
+        try {
+            unlimited.init(target, Long.MAX_VALUE / 2, CHUNK, null);
+            fail();
+        } catch (ChunkedUploadService.InsufficientSpaceException expected) {
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+
+        // 预分配的 .part 临时文件不出现在目录列表中
+        service.init(target, data.length, CHUNK, null);
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+        assertEquals(List.of(), new DirectoryLister().listAll(dir, DirectoryLister.SortField.NAME));
+    }
+
+    public void testCompleteWaitsForInFlightChunk() throws Exception {
+        Path target = dir.resolve("b.bin");
+        String id = service.init(target, data.length, CHUNK, null).id();
+        put(id, 0, chunk(0));
+        put(id, 2, chunk(2));
+
+        // 分块 1 写到一半时阻塞
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        InputStream slow = new InputStream() {
+            private final ByteArrayInputStream in = new ByteArrayInputStream(chunk(1));
+            private boolean paused;
+
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!paused && in.available() < CHUNK / 2) {
+                    paused = true;
+                    started.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return in.read(b, off, Math.min(len, 4096));
+            }
+        };
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                service.writeChunk(id, CHUNK, slow, crc(chunk(1)));
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        started.await();
+
+        AtomicReference<Path> completed = new AtomicReference<>();
+        Thread completer = new Thread(() -> {
+            try {
+                completed.set(service.complete(id));
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        completer.start();
+        Thread.sleep(200);
+        assertTrue("complete 应等待写入结束", completer.isAlive());
+        try {
+            put(id, 0, chunk(0));
+            fail("合并期间不接受新的分块");
+        } catch (IllegalStateException expected) {
+        }
+
+        resume.countDown();
+        writer.join(5000);
+        completer.join(5000);
+        assertNull(error.get());
+        assertEquals(target, completed.get());
+        assertTrue(Arrays.equals(data, Files.readAllBytes(target)));
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Accept-Encoding 协商；第二次下载起使用缓存的压缩结果，源文件修改后缓存失效
+ */
+public class CompressionServiceTest extends TestCase {
+
+    private Path dir;
+    private CompressionService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("compression_");
+        service = new CompressionService(true, 1024, 6, 2, dir.resolve("gz").toString(), 1 << 20);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    public void testAcceptsGzip() {
+        assertTrue(CompressionService.acceptsGzip("gzip, deflate, br"));
+        assertTrue(CompressionService.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+        assertTrue(CompressionService.acceptsGzip("*"));
+        assertFalse(CompressionService.acceptsGzip("gzip;q=0"));
+        assertFalse(CompressionService.acceptsGzip("identity"));
+        assertFalse(CompressionService.acceptsGzip(null));
+    }
+
+    private static String gunzip(byte[] data) throws Exception {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return new String(in.readAllBytes());
+        }
+    }
+
+    private String download(Path file) throws Exception {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        Path variant = service.cachedVariant(file, attrs);
+        if (variant != null) {
+            return gunzip(Files.readAllBytes(variant));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.compress(file, attrs, out);
+        return gunzip(out.toByteArray());
+    }
+
+    public void testCachedAfterRepeatedDownloadsAndInvalidatedByMtime() throws Exception {
+        Path file = dir.resolve("app.log");
+        String text = "2024-01-01 INFO request handled\n".repeat(1000);
+        Files.writeString(file, text);
+        assertTrue(service.isCompressible(file, Files.size(file)));
+        assertFalse(service.isCompressible(dir.resolve("a.zip"), 1 << 20));
+        assertFalse(service.isCompressible(dir.resolve("small.txt"), 10));
+
+        assertEquals(text, download(file));
+        assertEquals(0L, service.stats().get("cachedVariants"));
+        // 第二次下载时写入缓存，第三次直接命中
+        assertEquals(text, download(file));
+        assertEquals(1L, service.stats().get("cachedVariants"));
+        assertEquals(text, download(file));
+        assertEquals(1L, service.stats().get("servedFromCache"));
+        assertTrue((double) service.stats().get("ratio") < 0.1);
+
+        String changed = "changed\n".repeat(500);
+        Files.writeString(file, changed);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        assertEquals(changed, download(file));
+        assertEquals(0, service.stats().get("entries"));
+    }
+}
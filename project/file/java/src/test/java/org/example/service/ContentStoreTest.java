@@ -0,0 +1,108 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 相同内容只保存一份，删除最后一个可见文件后对象被回收；没有哈希的上传与长度、首块相同的对象逐块比对
+ */
+public class ContentStoreTest extends TestCase {
+
+    private Path dir;
+    private ContentStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("content_store_");
+        store = new ContentStore(true, dir.resolve("store").toString());
+        store.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private long put(Path target, String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return store.store(new ByteArrayInputStream(bytes), target, null, null);
+    }
+
+    public void testDuplicateUploadsShareOneObject() throws Exception {
+        if (!store.isEnabled()) {
+            return; // 文件系统不支持链接数时跳过
+        }
+        Path a = dir.resolve("data/a/installer.bin");
+        Path b = dir.resolve("data/b/copy.bin");
+        assertEquals(7, put(a, "payload"));
+        assertEquals(7, put(b, "payload"));
+
+        assertEquals(Files.readAttributes(a, "unix:ino").get("ino"), Files.readAttributes(b, "unix:ino").get("ino"));
+        assertEquals(1, store.stats().get("objects"));
+        assertEquals(1L, store.stats().get("hits"));
+
+        Set<Path> objects = store.linkedObjects(a);
+        assertEquals(1, objects.size());
+        Files.delete(a);
+        store.release(objects);
+        assertEquals("payload", Files.readString(b));
+        assertEquals(0L, store.stats().get("collected"));
+
+        objects = store.linkedObjects(dir.resolve("data"));
+        FileUtils.deleteDirectory(dir.resolve("data").toFile());
+        store.release(objects);
+        assertEquals(1L, store.stats().get("collected"));
+        assertEquals(0, store.stats().get("objects"));
+    }
+
+    public void testDuplicateWithoutHashComparedAgainstExistingObject() throws Exception {
+        if (!store.isEnabled()) {
+            return;
+        }
+        byte[] data = new byte[200_000];
+        new Random(5).nextBytes(data);
+        Path a = dir.resolve("data/a.bin");
+        assertEquals(data.length, store.store(new ByteArrayInputStream(data), a, (long) data.length, null));
+        assertEquals(0L, store.stats().get("headMatches"));
+
+        // 长度与首块相同且全部一致：不写临时文件，直接链接已有对象
+        Path b = dir.resolve("data/b.bin");
+        store.store(new ByteArrayInputStream(data), b, (long) data.length, null);
+        assertEquals(1L, store.stats().get("headMatches"));
+        assertEquals(1L, store.stats().get("hits"));
+        assertEquals(Files.readAttributes(a, "unix:ino").get("ino"), Files.readAttributes(b, "unix:ino").get("ino"));
+
+        // 首块相同、中间不同：已比对的前缀从已有对象复制，结果与上传内容一致
+        byte[] changed = data.clone();
+        changed[150_000] ^= 1;
+        Path c = dir.resolve("data/c.bin");
+        store.store(new ByteArrayInputStream(changed), c, (long) changed.length, null);
+        assertTrue(Arrays.equals(changed, Files.readAllBytes(c)));
+        assertTrue(Arrays.equals(data, Files.readAllBytes(a)));
+        assertEquals(1L, store.stats().get("headMatches"));
+        assertEquals(2, store.stats().get("objects"));
+        try (Stream<Path> leftovers = Files.list(dir.resolve("store/tmp"))) {
+            assertEquals(0, leftovers.count());
+        }
+    }
+
+    public void testOverwriteReleasesPreviousObject() throws Exception {
+        if (!store.isEnabled()) {
+            return;
+        }
+        Path a = dir.resolve("data/file.txt");
+        put(a, "first");
+        put(a, "second");
+        assertEquals("second", Files.readString(a));
+        assertEquals(1L, store.stats().get("collected"));
+    }
+}
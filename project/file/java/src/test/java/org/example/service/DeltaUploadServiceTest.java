@@ -0,0 +1,144 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.example.utils.DigestUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * 按 rsync 方式在客户端生成指令：只改动中间一段并插入若干字节时，大部分内容以复制指令传输，重建结果与新版本一致
+ */
+public class DeltaUploadServiceTest extends TestCase {
+
+    private static final int BLOCK = 4096;
+
+    private Path dir;
+    private TreeCopier treeCopier;
+    private DeltaUploadService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("delta_upload_");
+        treeCopier = new TreeCopier(1, true, 0);
+        service = new DeltaUploadService(treeCopier, new ContentStore(false, ""),
+                new PathLocks(dir.toString(), 64, 1000), 4, 1 << 20);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        treeCopier.shutdown();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    public void testRollingChecksum() {
+        byte[] data = new byte[1000];
+        new Random(1).nextBytes(data);
+        DeltaUploadService.RollingChecksum rolling = DeltaUploadService.RollingChecksum.of(data, 0, 100);
+        for (int i = 1; i + 100 <= data.length; i++) {
+            rolling.roll(data[i - 1], data[i + 99]);
+            assertEquals(DeltaUploadService.RollingChecksum.of(data, i, 100).value(), rolling.value());
+        }
+    }
+
+    public void testApplyDelta() throws Exception {
+        byte[] old = new byte[256 * 1024 + 123];
+        new Random(2).nextBytes(old);
+        Path file = Files.write(dir.resolve("image.bin"), old);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+        byte[] inserted = "inserted".getBytes();
+        ByteArrayOutputStream next = new ByteArrayOutputStream();
+        next.write(old, 0, 100_000);
+        next.write(inserted);
+        next.write(new byte[5000]);
+        next.write(old, 105_000, old.length - 105_000);
+        byte[] updated = next.toByteArray();
+
+        DeltaUploadService.Signature signature = service.signature(file, BLOCK);
+        // 命中缓存：由紧凑形式还原，内容与首次计算一致
+        DeltaUploadService.Signature cached = service.signature(file, BLOCK);
+        assertTrue(Arrays.equals(signature.strong(), cached.strong()));
+        assertTrue(Arrays.equals(signature.weak(), cached.weak()));
+        assertEquals(1L, service.stats().get("signaturesComputed"));
+        assertEquals(signature.weak().length * 20L, service.stats().get("signatureCacheBytes"));
+        byte[] delta = encodeDelta(signature, updated);
+
+        Map<String, Object> result = service.apply(file, signature.base(), BLOCK, updated.length,
+                sha256(updated), new ByteArrayInputStream(delta));
+        assertTrue(Arrays.equals(updated, Files.readAllBytes(file)));
+        assertTrue((long) result.get("literalBytes") < 4 * BLOCK);
+
+        try {
+            service.apply(file, signature.base(), BLOCK, updated.length, sha256(updated), new ByteArrayInputStream(delta));
+            fail();
+        } catch (DeltaUploadService.BaseChangedException expected) {
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        return DigestUtil.toHex(DigestUtil.sha256().digest(data));
+    }
+
+    // 客户端算法：滚动弱校验和查找匹配块，强校验确认后输出复制指令，其余为字面数据
+    private static byte[] encodeDelta(DeltaUploadService.Signature signature, byte[] data) throws Exception {
+        int block = signature.blockSize();
+        Map<Integer, List<Integer>> byWeak = new HashMap<>();
+        for (int i = 0; i < signature.weak().length; i++) {
+            byWeak.computeIfAbsent(signature.weak()[i], k -> new ArrayList<>()).add(i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        int pos = 0;
+        DeltaUploadService.RollingChecksum rolling = null;
+        while (pos < data.length) {
+            int length = Math.min(block, data.length - pos);
+            if (rolling == null) {
+                rolling = DeltaUploadService.RollingChecksum.of(data, pos, length);
+            }
+            Integer match = null;
+            for (int index : byWeak.getOrDefault(rolling.value(), List.of())) {
+                long blockLength = Math.min(block, signature.size() - (long) index * block);
+                if (blockLength == length && signature.strong()[index].equals(DeltaUploadService.strongHash(data, pos, length))) {
+                    match = index;
+                    break;
+                }
+            }
+            if (match != null) {
+                flushLiteral(out, literal);
+                out.writeByte(DeltaUploadService.OP_COPY);
+                out.writeLong(match);
+                out.writeInt(1);
+                pos += length;
+                rolling = null;
+            } else {
+                literal.write(data[pos]);
+                if (pos + length < data.length && length == block) {
+                    rolling.roll(data[pos], data[pos + length]);
+                } else {
+                    rolling = null;
+                }
+                pos++;
+            }
+        }
+        flushLiteral(out, literal);
+        out.writeByte(DeltaUploadService.OP_END);
+        return bytes.toByteArray();
+    }
+
+    private static void flushLiteral(DataOutputStream out, ByteArrayOutputStream literal) throws Exception {
+        if (literal.size() > 0) {
+            out.writeByte(DeltaUploadService.OP_LITERAL);
+            out.writeInt(literal.size());
+            literal.writeTo(out);
+            literal.reset();
+        }
+    }
+}
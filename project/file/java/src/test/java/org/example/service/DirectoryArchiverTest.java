@@ -0,0 +1,208 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 并行压缩拼接出的 ZIP 需要能被标准实现完整解出（顺序读取与中央目录读取两种方式）；
+ * STORED 文件在拷贝前发生变化时改按 DEFLATED 写入当前内容；写出期间不持有路径锁
+ */
+public class DirectoryArchiverTest extends TestCase {
+
+    private Path dir;
+    private final Map<String, byte[]> expected = new HashMap<>();
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("archiver_test_");
+        Random random = new Random(7);
+        // 跨多个分块的大文件：前半重复、后半随机，验证字典衔接
+        byte[] large = new byte[300 * 1024 + 17];
+        random.nextBytes(large);
+        for (int i = 0; i < large.length / 2; i++) {
+            large[i] = (byte) (i % 31);
+        }
+        write("data/large.bin", large);
+        write("data/exact.bin", new byte[64 * 1024]);
+        write("data/empty.txt", new byte[0]);
+        write("small.txt", "hello".getBytes());
+        // 已压缩内容：扩展名命中、魔数命中、试压缩判定三种情况都应 STORED
+        byte[] noise = new byte[100 * 1024];
+        random.nextBytes(noise);
+        write("media/video.mp4", noise);
+        byte[] jpeg = noise.clone();
+        jpeg[0] = (byte) 0xFF;
+        jpeg[1] = (byte) 0xD8;
+        jpeg[2] = (byte) 0xFF;
+        write("media/photo.bin", jpeg);
+        write("media/random.dat", Arrays.copyOf(noise, 70 * 1024 + 3));
+        Files.createDirectories(dir.resolve("data/nested/empty_dir"));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    public void testRoundTrip() throws IOException {
+        for (int workers : new int[]{1, 4}) {
+            DirectoryArchiver archiver = new DirectoryArchiver(workers, 6, 64 * 1024,
+                    new ZipEntryPolicy(true, 0.05), new ArchiveStats());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                archiver.write(dir, "root", out);
+            } finally {
+                archiver.shutdown();
+            }
+
+            Map<String, byte[]> streamed = new HashMap<>();
+            try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) {
+                        streamed.put(entry.getName(), zis.readAllBytes());
+                    }
+                }
+            }
+            assertContents(streamed);
+
+            Path zipPath = Files.createTempFile("archiver_test_", ".zip");
+            try {
+                Files.write(zipPath, out.toByteArray());
+                Map<String, byte[]> central = new HashMap<>();
+                try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+                    assertNotNull(zipFile.getEntry("root/data/nested/empty_dir/"));
+                    assertEquals(ZipEntry.STORED, zipFile.getEntry("root/media/video.mp4").getMethod());
+                    assertEquals(ZipEntry.STORED, zipFile.getEntry("root/media/photo.bin").getMethod());
+                    assertEquals(ZipEntry.STORED, zipFile.getEntry("root/media/random.dat").getMethod());
+                    assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("root/data/large.bin").getMethod());
+                    zipFile.stream().filter(e -> !e.isDirectory()).forEach(e -> {
+                        try {
+                            central.put(e.getName(), zipFile.getInputStream(e).readAllBytes());
+                        } catch (IOException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    });
+                }
+                assertContents(central);
+            } finally {
+                Files.delete(zipPath);
+            }
+        }
+    }
+
+    public void testStoredFileChangedBeforeCopy() throws IOException {
+        Path file = dir.resolve("media/video.mp4");
+        byte[] changed = new byte[150 * 1024];
+        new Random(11).nextBytes(changed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipStreamWriter zip = new ZipStreamWriter(out, Runnable::run, 6, 64 * 1024, 4,
+                new ZipEntryPolicy(true, 0.05), new ArchiveStats());
+        // 没有在途的压缩块时 STORED 拷贝推迟到 finish，期间修改文件
+        zip.putFile("video.mp4", file, 0, Files.size(file));
+        Files.write(file, changed);
+        zip.finish();
+
+        Path zipPath = Files.createTempFile("archiver_test_", ".zip");
+        try {
+            Files.write(zipPath, out.toByteArray());
+            try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+                assertEquals(1, zipFile.size());
+                ZipEntry entry = zipFile.getEntry("video.mp4");
+                assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+                assertTrue(Arrays.equals(changed, zipFile.getInputStream(entry).readAllBytes()));
+            }
+        } finally {
+            Files.delete(zipPath);
+        }
+    }
+
+    public void testNoLockHeldWhileWriting() throws Exception {
+        PathLocks locks = new PathLocks(dir.toString(), 64, 1000);
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 第一次写出时阻塞，模拟慢速客户端
+        OutputStream slow = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                out.write(b, off, len);
+            }
+        };
+        DirectoryArchiver archiver = new DirectoryArchiver(2, 6, 64 * 1024,
+                new ZipEntryPolicy(true, 0.05), new ArchiveStats());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> done = executor.submit(() -> {
+                archiver.write(dir, "root", slow, locks);
+                return null;
+            });
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+            // 写出阻塞期间可以取得目录的排他锁并删除其中的文件
+            try (PathLocks.Lease lease = locks.exclusive(dir)) {
+                FileUtils.deleteDirectory(dir.resolve("media").toFile());
+            }
+            release.countDown();
+            done.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            archiver.shutdown();
+        }
+
+        // 已打开的文件按原内容写出，未列出或未打开的被删文件跳过，其余文件完整
+        Map<String, byte[]> streamed = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    streamed.put(entry.getName(), zis.readAllBytes());
+                }
+            }
+        }
+        expected.forEach((name, data) -> {
+            if (!name.startsWith("root/media/") || streamed.containsKey(name)) {
+                assertTrue(name, Arrays.equals(data, streamed.get(name)));
+            }
+        });
+        assertTrue(expected.keySet().containsAll(streamed.keySet()));
+    }
+
+    private void assertContents(Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((name, data) -> assertTrue(name, Arrays.equals(data, actual.get(name))));
+    }
+
+    private void write(String relative, byte[] data) throws IOException {
+        Path file = dir.resolve(relative);
+        Files.createDirectories(file.getParent());
+        Files.write(file, data);
+        expected.put("root/" + relative, data);
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 游标分页需要与完整排序结果一致，且目录始终排在前面
+ */
+public class DirectoryListerTest extends TestCase {
+
+    private Path dir;
+    private final DirectoryLister lister = new DirectoryLister();
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("lister_test_");
+        for (int i = 0; i < 23; i++) {
+            Files.write(dir.resolve("file" + i + (i % 2 == 0 ? ".TXT" : ".txt")), new byte[i * 7 % 50]);
+        }
+        // 修改时间固定，按时间排序时的顺序不取决于两次创建是否落在同一时钟刻度
+        FileTime time = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(Files.createDirectory(dir.resolve("b_dir")), time);
+        Files.setLastModifiedTime(Files.createDirectory(dir.resolve("A_dir")), time);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    public void testPagesMatchFullListing() throws IOException {
+        for (DirectoryLister.SortField sort : List.of(DirectoryLister.SortField.NAME,
+                DirectoryLister.SortField.SIZE, DirectoryLister.SortField.MTIME)) {
+            List<DirectoryLister.Entry> all = lister.listAll(dir, sort);
+            List<DirectoryLister.Entry> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                DirectoryLister.Page page = lister.listPage(dir, sort, cursor, 4);
+                assertTrue(page.entries().size() <= 4);
+                paged.addAll(page.entries());
+                cursor = page.nextCursor();
+            } while (cursor != null);
+
+            assertEquals(sort.name(), all, paged);
+            assertEquals("A_dir", all.get(0).name());
+            assertEquals("b_dir", all.get(1).name());
+            assertFalse(all.get(2).directory());
+        }
+    }
+
+    public void testUnsortedListing() throws IOException {
+        List<DirectoryLister.Entry> streamed = new ArrayList<>();
+        lister.forEach(dir, streamed::add);
+        assertEquals(new HashSet<>(lister.listAll(dir, DirectoryLister.SortField.NAME)), new HashSet<>(streamed));
+        assertEquals(streamed, lister.listAll(dir, DirectoryLister.SortField.NONE));
+        try {
+            lister.listPage(dir, DirectoryLister.SortField.NONE, null, 3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testCursorBoundToSortField() throws IOException {
+        String cursor = lister.listPage(dir, DirectoryLister.SortField.SIZE, null, 3).nextCursor();
+        try {
+            lister.listPage(dir, DirectoryLister.SortField.NAME, cursor, 3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
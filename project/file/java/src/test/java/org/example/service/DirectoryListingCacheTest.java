@@ -0,0 +1,111 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.example.model.FileInfo;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 命中时不重新读取目录；不改变目录 mtime 的磁盘变化由 WatchService 失效缓存；条目总数超出预算时按 LRU 淘汰
+ */
+public class DirectoryListingCacheTest extends TestCase {
+
+    private Path dir;
+    private DirectoryWatcher watcher;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("listing_cache_");
+        for (String name : new String[]{"a", "b"}) {
+            Files.createDirectory(dir.resolve(name));
+            for (int i = 0; i < 3; i++) {
+                Files.write(dir.resolve(name).resolve("f" + i), new byte[i]);
+            }
+        }
+        watcher = new DirectoryWatcher();
+        watcher.start();
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        watcher.stop();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private DirectoryListingCache newCache(long maxEntries) throws ReflectiveOperationException {
+        DirectoryListingCache cache = new DirectoryListingCache();
+        inject(cache, "maxEntries", maxEntries);
+        inject(cache, "watcher", watcher);
+        cache.init();
+        return cache;
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private List<FileInfo> list(DirectoryListingCache cache, Path path) throws IOException {
+        return cache.get(path, p -> {
+            loads.incrementAndGet();
+            try (Stream<Path> children = Files.list(p)) {
+                return children.sorted(Comparator.naturalOrder())
+                        .map(child -> new FileInfo(child.getFileName().toString(), Files.isDirectory(child),
+                                String.valueOf(child.toFile().length()), 0))
+                        .collect(Collectors.toList());
+            }
+        });
+    }
+
+    public void testHitsAndWatchInvalidation() throws Exception {
+        DirectoryListingCache cache = newCache(100);
+        Path a = dir.resolve("a");
+        List<FileInfo> first = list(cache, a);
+        assertEquals(3, first.size());
+        assertEquals(first, list(cache, a));
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.stats().get("hits"));
+
+        // 改写已有文件不改变目录 mtime，只能由监听事件发现
+        Files.write(a.resolve("f0"), new byte[42]);
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!"42".equals(list(cache, a).get(0).size())) {
+            assertTrue("缓存未失效", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        assertEquals(2, loads.get());
+        assertEquals(1L, cache.stats().get("invalidations"));
+    }
+
+    public void testBudgetEvictionAndTreeInvalidation() throws Exception {
+        DirectoryListingCache cache = newCache(5);
+        Path a = dir.resolve("a");
+        Path b = dir.resolve("b");
+        list(cache, a);
+        list(cache, b);
+        // 6 个条目超出预算 5，最久未使用的 a 被淘汰并取消监听
+        assertEquals(1L, cache.stats().get("evictions"));
+        assertEquals(1, watcher.watchedCount());
+        list(cache, b);
+        assertEquals(2, loads.get());
+        list(cache, a);
+        assertEquals(3, loads.get());
+
+        cache.invalidateTree(dir);
+        assertEquals(0, watcher.watchedCount());
+        assertEquals(0L, cache.stats().get("entries"));
+        list(cache, b);
+        assertEquals(4, loads.get());
+    }
+}
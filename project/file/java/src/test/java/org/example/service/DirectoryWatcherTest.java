@@ -0,0 +1,70 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 目录被删除导致监听键失效后，各持有者的引用计数保留，重新 watch 即恢复监听
+ */
+public class DirectoryWatcherTest extends TestCase {
+
+    private Path root;
+    private DirectoryWatcher watcher;
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    @Override
+    protected void setUp() throws IOException {
+        root = Files.createTempDirectory("directory_watcher_");
+        watcher = new DirectoryWatcher();
+        watcher.start();
+        watcher.addListener((dir, kind, child) ->
+                events.add(child == null ? "invalid " + dir.getFileName() : String.valueOf(child.getFileName())));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        watcher.stop();
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    private void await(String event) throws InterruptedException {
+        while (true) {
+            String next = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull("未收到事件 " + event, next);
+            if (next.equals(event)) {
+                return;
+            }
+        }
+    }
+
+    public void testRefCountSurvivesInvalidKey() throws Exception {
+        Path dir = Files.createDirectory(root.resolve("d"));
+        // 两个持有者
+        assertTrue(watcher.watch(dir));
+        assertTrue(watcher.watch(dir));
+
+        FileUtils.deleteDirectory(dir.toFile());
+        await("invalid d");
+        assertEquals(1, watcher.watchedCount());
+
+        // 目录重建后由第三个持有者重新注册，此后的事件照常分发
+        Files.createDirectory(dir);
+        assertTrue(watcher.watch(dir));
+        Files.write(dir.resolve("x"), new byte[1]);
+        await("x");
+
+        // 三次引用全部释放后才取消登记
+        watcher.unwatch(dir);
+        watcher.unwatch(dir);
+        assertEquals(1, watcher.watchedCount());
+        watcher.unwatch(dir);
+        assertEquals(0, watcher.watchedCount());
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 暂存后后台删除并统计进度；排队中与运行中的任务都可被取消
+ */
+public class JobServiceTest extends TestCase {
+
+    private Path dir;
+    private JobService service;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("jobs_");
+        service = new JobService(1, 10, 60, dir.resolve("trash").toString());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.shutdown();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private static void await(JobService.Job job) throws InterruptedException {
+        for (int i = 0; i < 500 && !job.isFinished(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(job.isFinished());
+    }
+
+    private Path createTree(String name) throws Exception {
+        Path root = dir.resolve(name);
+        for (int i = 0; i < 20; i++) {
+            Path sub = root.resolve("sub" + (i % 4));
+            Files.createDirectories(sub);
+            Files.writeString(sub.resolve("f" + i), "x".repeat(i));
+        }
+        return root;
+    }
+
+    public void testStagedDeleteReportsProgress() throws Exception {
+        Path root = createTree("data");
+        Path staged = service.stage(root);
+        assertNotNull(staged);
+        assertFalse(Files.exists(root));
+
+        JobService.Job job = service.submit("delete", "data", j -> TreeOperations.deleteTree(staged, j));
+        await(job);
+        assertEquals(JobService.State.SUCCEEDED, job.state());
+        assertEquals(20L, job.toMap().get("filesDone"));
+        assertEquals(190L, job.toMap().get("bytesDone"));
+        assertFalse(Files.exists(staged));
+    }
+
+    public void testCancelRunningAndQueued() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        JobService.Job running = service.submit("spin", "a", j -> {
+            started.countDown();
+            while (true) {
+                j.checkCancelled();
+                Thread.onSpinWait();
+            }
+        });
+        // 单线程池：第二个任务一直排队
+        JobService.Job queued = service.submit("noop", "b", j -> fail("不应执行"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertEquals(JobService.State.CANCELLED, service.cancel(queued.id()).state());
+        service.cancel(running.id());
+        await(running);
+        assertEquals(JobService.State.CANCELLED, running.state());
+    }
+}
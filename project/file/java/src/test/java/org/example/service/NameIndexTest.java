@@ -0,0 +1,68 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 前缀与子串候选不区分大小写，同名节点共用名称项，合并与重新编号前后的查询结果一致
+ */
+public class NameIndexTest extends TestCase {
+
+    private static List<String> collect(NameIndex.Lookup<String> lookup) {
+        List<String> nodes = new ArrayList<>();
+        lookup.forEach(nodes::add);
+        return nodes;
+    }
+
+    public void testPrefixAndSubstring() {
+        NameIndex<String> index = new NameIndex<>();
+        index.add("Report.pdf", "a/Report.pdf");
+        index.add("report.PDF", "b/report.PDF");
+        index.add("notes.txt", "a/notes.txt");
+        assertEquals(2, index.size());
+
+        assertEquals(List.of("a/Report.pdf", "b/report.PDF"), collect(index.prefix("REP")));
+        assertEquals(List.of("a/notes.txt"), collect(index.containing("OTE")));
+        assertTrue(collect(index.containing("xyz")).isEmpty());
+        assertNull(index.prefix(""));
+        assertNull(index.containing("te"));
+
+        // 同名节点逐个移除，最后一个移除后名称项失效
+        index.remove("Report.pdf", "a/Report.pdf");
+        assertEquals(List.of("b/report.PDF"), collect(index.containing("port")));
+        index.remove("report.PDF", "b/report.PDF");
+        assertTrue(collect(index.prefix("rep")).isEmpty());
+        assertEquals(1, index.size());
+    }
+
+    public void testMergeAndRenumber() {
+        NameIndex<String> index = new NameIndex<>();
+        // 节点按引用区分
+        String[] nodes = new String[5000];
+        for (int i = 0; i < 5000; i++) {
+            nodes[i] = "n" + i;
+            index.add("file-" + i, nodes[i]);
+        }
+        // 删除大部分名称触发重新编号，再重新加入其中一部分
+        for (int i = 0; i < 4500; i++) {
+            index.remove("file-" + i, nodes[i]);
+        }
+        for (int i = 0; i < 100; i++) {
+            index.add("file-" + i, "m" + i);
+        }
+        assertEquals(600, index.size());
+
+        TreeSet<String> expected = new TreeSet<>();
+        for (int i = 0; i < 5000; i++) {
+            String name = "file-" + i;
+            if (name.contains("-12") && (i < 100 || i >= 4500)) {
+                expected.add(i < 100 ? "m" + i : "n" + i);
+            }
+        }
+        assertEquals(expected, new TreeSet<>(collect(index.containing("E-12"))));
+        assertEquals(expected, new TreeSet<>(collect(index.prefix("FILE-12"))));
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * 并行压缩吞吐基准：同一目录分别用 1/2/4/8 个工作线程打包。
+ * 不在默认测试中运行，手动执行：
+ * mvn test -Dtest=ParallelArchiveBenchmark -Dbench.files=8 -Dbench.fileSize=67108864
+ */
+public class ParallelArchiveBenchmark extends TestCase {
+
+    public void testWorkers() throws IOException {
+        int files = Integer.getInteger("bench.files", 8);
+        int fileSize = Integer.getInteger("bench.fileSize", 32 * 1024 * 1024);
+        int level = Integer.getInteger("bench.level", 6);
+        Path dir = createTree(files, fileSize);
+        long inputBytes = (long) files * fileSize;
+        try {
+            for (int workers : new int[]{1, 2, 4, 8}) {
+                DirectoryArchiver archiver = new DirectoryArchiver(workers, level, 1024 * 1024,
+                        new ZipEntryPolicy(true, 0.05), new ArchiveStats());
+                try {
+                    // 预热一次
+                    archiver.write(dir, "bench", OutputStream.nullOutputStream());
+                    long start = System.nanoTime();
+                    archiver.write(dir, "bench", OutputStream.nullOutputStream());
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("workers=%d level=%d total=%8.2fms throughput=%8.1fMB/s%n",
+                            workers, level, seconds * 1e3, inputBytes / seconds / (1024 * 1024));
+                } finally {
+                    archiver.shutdown();
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private Path createTree(int files, int fileSize) throws IOException {
+        Path dir = Files.createTempDirectory("parallel_bench_");
+        Random random = new Random(42);
+        byte[] data = new byte[fileSize];
+        for (int i = 0; i < files; i++) {
+            // 文本类数据：从小词表随机取词，压缩比与日志接近
+            for (int j = 0; j < fileSize; j++) {
+                data[j] = (byte) ('a' + random.nextInt(random.nextInt(26) + 1));
+            }
+            Files.write(dir.resolve("file" + i + ".log"), data);
+        }
+        return dir;
+    }
+}
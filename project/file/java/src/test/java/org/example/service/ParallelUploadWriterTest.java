@@ -0,0 +1,115 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 并发写入需保持结果顺序，单个文件失败不影响其余文件
+ */
+public class ParallelUploadWriterTest extends TestCase {
+
+    private Path root;
+    private ParallelUploadWriter writer;
+
+    private static MultipartFile file(String name, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new MultipartFile() {
+            public String getName() {
+                return "files";
+            }
+
+            public String getOriginalFilename() {
+                return name;
+            }
+
+            public String getContentType() {
+                return "application/octet-stream";
+            }
+
+            public boolean isEmpty() {
+                return bytes.length == 0;
+            }
+
+            public long getSize() {
+                return bytes.length;
+            }
+
+            public byte[] getBytes() {
+                return bytes;
+            }
+
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            public void transferTo(File dest) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        root = Files.createTempDirectory("upload_writer_");
+        writer = new ParallelUploadWriter(4, new ContentStore(false, ""));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        writer.shutdown();
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    public void testWritesAllFilesInParallel() throws Exception {
+        List<MultipartFile> files = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            files.add(file("folder/sub" + (i % 7) + "/f" + i + ".txt", "content-" + i));
+        }
+
+        List<ParallelUploadWriter.Result> results = writer.writeAll(files, root::resolve);
+
+        assertEquals(200, results.size());
+        for (int i = 0; i < 200; i++) {
+            assertTrue(results.get(i).success());
+            assertEquals("folder/sub" + (i % 7) + "/f" + i + ".txt", results.get(i).name());
+            Path written = root.resolve(results.get(i).name());
+            assertEquals("content-" + i, Files.readString(written));
+        }
+        // 不应残留临时文件
+        try (var stream = Files.list(root.resolve("folder/sub0"))) {
+            assertTrue(stream.noneMatch(p -> p.getFileName().toString().startsWith(".")));
+        }
+    }
+
+    public void testFailureDoesNotAbortOtherFiles() throws Exception {
+        List<MultipartFile> files = List.of(
+                file("a.txt", "a"),
+                file("../evil.txt", "x"),
+                file("", "empty"),
+                file("b.txt", "b"));
+
+        List<ParallelUploadWriter.Result> results = writer.writeAll(files, name -> {
+            if (name.contains("..")) {
+                throw new SecurityException("非法文件路径: " + name);
+            }
+            return root.resolve(name);
+        });
+
+        assertTrue(results.get(0).success());
+        assertFalse(results.get(1).success());
+        assertTrue(results.get(1).error().contains("非法文件路径"));
+        assertFalse(results.get(2).success());
+        assertTrue(results.get(3).success());
+        assertEquals("b", Files.readString(root.resolve("b.txt")));
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 祖先与后代上的冲突操作互斥，互不相关的路径之间不阻塞
+ */
+public class PathLocksTest extends TestCase {
+
+    private final Path base = Paths.get("/tmp/path_locks_test").toAbsolutePath();
+
+    public void testAncestorAndDescendantConflict() throws Exception {
+        PathLocks locks = new PathLocks(base.toString(), 1024, 50);
+        Path dir = base.resolve("a");
+        Path file = dir.resolve("b/c.txt");
+
+        PathLocks.Lease write = locks.exclusive(file);
+        try {
+            locks.shared(dir);
+            fail("打包祖先目录时后代正在写入，应当超时");
+        } catch (PathLocks.LockTimeoutException expected) {
+        }
+        // 互不相关的路径以及同一目录的其他文件不受影响
+        locks.exclusive(base.resolve("other.txt")).close();
+        locks.exclusive(dir.resolve("b/d.txt")).close();
+        write.close();
+        write.close();
+
+        PathLocks.Lease read = locks.shared(dir);
+        locks.shared(dir).close();
+        try {
+            locks.exclusive(file);
+            fail("目录被打包期间不能写入其后代");
+        } catch (PathLocks.LockTimeoutException expected) {
+        }
+        read.close();
+        locks.lock(List.of(file), List.of(dir.resolve("b/d.txt"))).close();
+
+        assertEquals(0, locks.stats().get("heldStripes"));
+
+        // 等待中的写操作在读锁释放后获得锁
+        PathLocks slow = new PathLocks(base.toString(), 1024, 5000);
+        PathLocks.Lease held = slow.shared(file);
+        Thread writer = new Thread(() -> slow.exclusive(dir).close());
+        writer.start();
+        Thread.sleep(100);
+        assertTrue(writer.isAlive());
+        held.close();
+        writer.join(2000);
+        assertFalse(writer.isAlive());
+        assertEquals(1L, slow.stats().get("contended"));
+    }
+
+    public void testJoin() {
+        assertEquals(2, PathLocks.join(0, 2));
+        assertEquals(1, PathLocks.join(0, 1));
+        assertEquals(3, PathLocks.join(1, 2));
+        assertEquals(3, PathLocks.join(3, 0));
+    }
+}
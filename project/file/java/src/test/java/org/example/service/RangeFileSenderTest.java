@@ -0,0 +1,257 @@
+package org.example.service;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Range 请求矩阵：单区间、后缀区间、区间合并、多区间、不可满足与格式错误的 Range 头，以及 If-Range 校验
+ * 与条件请求
+ */
+public class RangeFileSenderTest extends TestCase {
+
+    private static final int LENGTH = 10_000;
+
+    private Path dir;
+    private Path file;
+    private byte[] data;
+    private RangeFileSender sender;
+    private ChecksumService checksums;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("range_sender_");
+        data = new byte[LENGTH];
+        new Random(3).nextBytes(data);
+        file = dir.resolve("a.bin");
+        Files.write(file, data);
+        sender = new RangeFileSender();
+        inject(sender, "cacheControl", "no-cache");
+        inject(sender, "contentStore", new ContentStore(false, ""));
+        checksums = new ChecksumService(1, dir.resolve("index.bin").toString());
+        inject(sender, "checksumService", checksums);
+        inject(sender, "compressionService",
+                new CompressionService(true, 1024, 6, 2, dir.resolve("gz").toString(), 1 << 20));
+        inject(sender, "smallFileCache", new SmallFileCache(true, 1024, 1 << 20, null));
+        inject(sender, "transferScheduler", new TransferScheduler(0, 0, 0, 0, 4 << 20, 4, 200));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        checksums.shutdown();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private static void inject(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * 只实现发送器用到的方法的请求/响应替身，响应体写入内存
+     */
+    private static final class Exchange {
+        final Map<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final Map<String, Object> attributes = new HashMap<>();
+        final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = HttpServletResponse.SC_OK;
+        final HttpServletRequest request;
+        final HttpServletResponse response;
+
+        Exchange(String... requestHeaders) {
+            for (int i = 0; i < requestHeaders.length; i += 2) {
+                this.requestHeaders.put(requestHeaders[i], requestHeaders[i + 1]);
+            }
+            ServletOutputStream out = new ServletOutputStream() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener listener) {
+                }
+
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    body.write(b, off, len);
+                }
+            };
+            request = (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                    new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "getMethod" -> "GET";
+                case "getHeader" -> this.requestHeaders.get((String) args[0]);
+                case "getHeaders" -> Collections.enumeration(this.requestHeaders.containsKey((String) args[0])
+                        ? List.of(this.requestHeaders.get((String) args[0])) : List.<String>of());
+                case "getDateHeader" -> parseDate(this.requestHeaders.get((String) args[0]));
+                case "getAttribute" -> attributes.get((String) args[0]);
+                case "setAttribute" -> attributes.put((String) args[0], args[1]);
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+            response = (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+                    new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> switch (method.getName()) {
+                case "setHeader", "addHeader" -> headers.put((String) args[0], (String) args[1]);
+                case "setDateHeader" -> headers.put((String) args[0], formatDate((Long) args[0 + 1]));
+                case "getHeader" -> headers.get((String) args[0]);
+                case "containsHeader" -> headers.containsKey((String) args[0]);
+                case "setContentType" -> headers.put("Content-Type", (String) args[0]);
+                case "setContentLengthLong" -> headers.put("Content-Length", String.valueOf(args[0]));
+                case "getStatus" -> status;
+                case "setStatus" -> {
+                    status = (Integer) args[0];
+                    yield null;
+                }
+                case "getOutputStream" -> out;
+                case "isCommitted" -> false;
+                default -> throw new UnsupportedOperationException(method.getName());
+            });
+        }
+
+        private static long parseDate(String value) {
+            if (value == null) {
+                return -1L;
+            }
+            try {
+                return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException(value);
+            }
+        }
+
+        private static String formatDate(long millis) {
+            return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+        }
+    }
+
+    private Exchange send(String... headers) throws IOException {
+        Exchange exchange = new Exchange(headers);
+        sender.send(exchange.request, exchange.response, file, "application/octet-stream", "attachment");
+        return exchange;
+    }
+
+    private void assertPartial(Exchange exchange, int start, int end) {
+        assertEquals(206, exchange.status);
+        assertEquals("bytes " + start + "-" + end + "/" + LENGTH, exchange.headers.get("Content-Range"));
+        assertEquals(String.valueOf(end - start + 1), exchange.headers.get("Content-Length"));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, start, end + 1), exchange.body.toByteArray()));
+    }
+
+    public void testRangeMatrix() throws IOException {
+        Exchange full = send();
+        assertEquals(200, full.status);
+        assertEquals("bytes", full.headers.get("Accept-Ranges"));
+        assertEquals(String.valueOf(LENGTH), full.headers.get("Content-Length"));
+        assertTrue(Arrays.equals(data, full.body.toByteArray()));
+
+        assertPartial(send("Range", "bytes=0-99"), 0, 99);
+        assertPartial(send("Range", "bytes=9990-"), 9990, LENGTH - 1);
+        // 结束位置超出文件长度时截到末尾
+        assertPartial(send("Range", "bytes=9000-20000"), 9000, LENGTH - 1);
+        // 后缀区间：最后 N 个字节，N 超过文件长度时返回整个文件
+        assertPartial(send("Range", "bytes=-100"), LENGTH - 100, LENGTH - 1);
+        assertPartial(send("Range", "bytes=-20000"), 0, LENGTH - 1);
+        // 重叠与相邻区间合并为单段
+        assertPartial(send("Range", "bytes=0-9,5-19,20-29"), 0, 29);
+        // 部分可满足时只返回可满足的区间
+        assertPartial(send("Range", "bytes=20000-,0-9"), 0, 9);
+
+        // 不可满足：返回 416 与 bytes */长度
+        for (String range : new String[]{"bytes=10000-", "bytes=20000-30000", "bytes=10000-10005,20000-"}) {
+            Exchange exchange = send("Range", range);
+            assertEquals(range, 416, exchange.status);
+            assertEquals("bytes */" + LENGTH, exchange.headers.get("Content-Range"));
+            assertEquals(0, exchange.body.size());
+        }
+
+        // 格式错误的 Range 头被忽略
+        for (String range : new String[]{"bytes=100-50", "items=0-9", "bytes=abc"}) {
+            Exchange exchange = send("Range", range);
+            assertEquals(range, 200, exchange.status);
+            assertTrue(Arrays.equals(data, exchange.body.toByteArray()));
+        }
+
+        // 多区间：multipart/byteranges，各段带自己的 Content-Range，Content-Length 与实际输出一致
+        Exchange multi = send("Range", "bytes=100-109,0-9");
+        assertEquals(206, multi.status);
+        assertTrue(multi.headers.get("Content-Type").startsWith("multipart/byteranges; boundary="));
+        String body = new String(multi.body.toByteArray(), StandardCharsets.ISO_8859_1);
+        int first = body.indexOf("Content-Range: bytes 0-9/" + LENGTH + "\r\n\r\n"
+                + new String(data, 0, 10, StandardCharsets.ISO_8859_1));
+        int second = body.indexOf("Content-Range: bytes 100-109/" + LENGTH + "\r\n\r\n"
+                + new String(data, 100, 10, StandardCharsets.ISO_8859_1));
+        assertTrue(first >= 0 && second > first);
+        assertEquals(String.valueOf(multi.body.size()), multi.headers.get("Content-Length"));
+    }
+
+    public void testIfRange() throws Exception {
+        Exchange full = send();
+        String etag = full.headers.get("ETag");
+        String lastModified = full.headers.get("Last-Modified");
+        assertNotNull(etag);
+        assertNotNull(lastModified);
+
+        // 匹配时按 Range 返回，不匹配时返回完整内容
+        assertPartial(send("Range", "bytes=0-99", "If-Range", lastModified), 0, 99);
+        // 没有内容哈希时校验值是弱校验值，不能用于 If-Range
+        assertTrue(etag, etag.startsWith("W/"));
+        String[] stale = {etag, "\"stale\"", "W/\"stale\"", "Tue, 01 Jan 2019 00:00:00 GMT", "garbage"};
+        for (String ifRange : stale) {
+            Exchange exchange = send("Range", "bytes=0-99", "If-Range", ifRange);
+            assertEquals(ifRange, 200, exchange.status);
+            assertNull(exchange.headers.get("Content-Range"));
+            assertTrue(Arrays.equals(data, exchange.body.toByteArray()));
+        }
+
+        // 校验和计算后 ETag 为内容哈希（强校验值），可用于 If-Range
+        checksums.get(file).get();
+        etag = send().headers.get("ETag");
+        assertTrue(etag, etag.startsWith("\""));
+        assertPartial(send("Range", "bytes=-100", "If-Range", etag), LENGTH - 100, LENGTH - 1);
+        assertEquals(200, send("Range", "bytes=-100", "If-Range", "\"stale\"").status);
+    }
+
+    public void testConditionalRequestsPrecedeRange() throws Exception {
+        Exchange full = send();
+        String etag = full.headers.get("ETag");
+        for (String[] headers : new String[][]{
+                {"If-None-Match", etag},
+                {"If-None-Match", etag, "Range", "bytes=0-99"},
+                {"If-Modified-Since", full.headers.get("Last-Modified"), "Range", "bytes=-10"}}) {
+            Exchange exchange = send(headers);
+            assertEquals(304, exchange.status);
+            assertEquals(0, exchange.body.size());
+            assertNull(exchange.headers.get("Content-Range"));
+        }
+        assertEquals(200, send("If-None-Match", "W/\"stale\"").status);
+    }
+}
@@ -0,0 +1,245 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 各种匹配方式与过滤条件，游标分页拼接后与一次性结果一致，写操作钩子立即反映到索引与各级目录的子树大小
+ */
+public class SearchIndexTest extends TestCase {
+
+    private Path base;
+    private DirectoryWatcher watcher;
+    private SearchIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        base = Files.createTempDirectory("search_index_");
+        for (int i = 0; i < 30; i++) {
+            Path dir = base.resolve("dir" + (i % 3)).resolve("sub" + (i % 2));
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve("Report-" + i + (i % 2 == 0 ? ".pdf" : ".txt")), "x".repeat(i));
+        }
+        watcher = new DirectoryWatcher();
+        watcher.start();
+        index = newIndex(true, new DirectoryUsage(true));
+    }
+
+    private SearchIndex newIndex(boolean searchEnabled, DirectoryUsage usage) throws InterruptedException {
+        SearchIndex index = new SearchIndex(base.toString(), searchEnabled, 2, watcher, usage);
+        index.start();
+        for (int i = 0; i < 500 && !index.isReady(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(index.isReady());
+        return index;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        index.shutdown();
+        watcher.stop();
+        FileUtils.deleteDirectory(base.toFile());
+    }
+
+    private List<SearchIndex.Hit> search(String text, SearchIndex.Mode mode, List<String> ext) throws Exception {
+        SearchIndex.Query query = new SearchIndex.Query(text, mode, ext, null, null, null, null, null);
+        return index.search(base, query, 1000, null).hits();
+    }
+
+    // 与遍历磁盘得到的子树大小、文件数、目录数（不含自身）比较
+    private void assertUsage(Path dir) throws IOException {
+        long[] walked = new long[3];
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.filter(path -> !path.equals(dir)).forEach(path -> {
+                if (Files.isDirectory(path)) {
+                    walked[2]++;
+                } else {
+                    walked[0] += path.toFile().length();
+                    walked[1]++;
+                }
+            });
+        }
+        assertEquals(dir.toString(), new DirectoryUsage.Usage(walked[0], walked[1], walked[2]), index.usage(dir));
+    }
+
+    public void testMatchModesAndFilters() throws Exception {
+        assertEquals(30, search("report", SearchIndex.Mode.PREFIX, null).size());
+        assertEquals(0, search("eport", SearchIndex.Mode.PREFIX, null).size());
+        assertEquals(11, search("-1", SearchIndex.Mode.SUBSTRING, null).size());
+        assertEquals(15, search("report-*.PDF", SearchIndex.Mode.GLOB, null).size());
+        assertEquals(15, search("", SearchIndex.Mode.SUBSTRING, List.of("txt")).size());
+        // 3 个一级目录 + 6 个二级目录
+        SearchIndex.Query dirs = new SearchIndex.Query("", SearchIndex.Mode.SUBSTRING, null, null, null, null, null, true);
+        assertEquals(9, index.search(base, dirs, 100, null).hits().size());
+        SearchIndex.Query big = new SearchIndex.Query("", SearchIndex.Mode.SUBSTRING, null, 20L, null, null, null, false);
+        assertEquals(10, index.search(base, big, 100, null).hits().size());
+
+        SearchIndex.Hit hit = search("Report-7.txt", SearchIndex.Mode.PREFIX, null).get(0);
+        assertEquals("dir1/sub1/Report-7.txt", hit.path());
+        assertEquals(7, hit.size());
+    }
+
+    public void testCursorPagesMatchFullResult() throws Exception {
+        SearchIndex.Query all = new SearchIndex.Query("", SearchIndex.Mode.SUBSTRING, null, null, null, null, null, null);
+        List<SearchIndex.Hit> full = index.search(base, all, 1000, null).hits();
+        assertEquals(39, full.size());
+
+        List<SearchIndex.Hit> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            SearchIndex.Page page = index.search(base, all, 4, cursor);
+            paged.addAll(page.hits());
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        assertEquals(full, paged);
+
+        // 限定范围时路径仍相对于根目录
+        List<SearchIndex.Hit> scoped = index.search(base.resolve("dir2"), all, 1000, null).hits();
+        assertEquals(12, scoped.size());
+        assertTrue(scoped.get(0).path().startsWith("dir2/"));
+    }
+
+    // 与不经名称索引的全量遍历结果逐项比较
+    private void assertIndexed(SearchIndex.Query query, Path scope) throws Exception {
+        SearchIndex.Query all = new SearchIndex.Query("", SearchIndex.Mode.SUBSTRING, null, null, null, null, null, null);
+        List<SearchIndex.Hit> expected = new ArrayList<>();
+        for (SearchIndex.Hit hit : index.search(scope, all, 1000, null).hits()) {
+            Path path = base.resolve(hit.path());
+            SearchIndex.Hit single = index.search(path.getParent(), query, 1000, null).hits().stream()
+                    .filter(h -> h.path().equals(hit.path())).findFirst().orElse(null);
+            if (single != null) {
+                expected.add(hit);
+            }
+        }
+        long before = (Long) index.stats().get("indexedSearches");
+        assertEquals(expected, index.search(scope, query, 1000, null).hits());
+        List<SearchIndex.Hit> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            SearchIndex.Page page = index.search(scope, query, 2, cursor);
+            paged.addAll(page.hits());
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        assertEquals(expected, paged);
+        assertTrue((Long) index.stats().get("indexedSearches") > before);
+    }
+
+    public void testIndexedSearchMatchesTraversal() throws Exception {
+        // 大量无关文件使名称条件有选择性
+        for (int i = 0; i < 200; i++) {
+            Path dir = base.resolve("dir" + (i % 3)).resolve("bulk");
+            Files.createDirectories(dir);
+            Path file = dir.resolve("data-" + i + ".csv");
+            Files.writeString(file, "");
+            index.refresh(file);
+        }
+        for (String name : new String[]{"dir0/sub1/Report-77.md", "dir1/REPORT-7", "dir2/sub0/x-report-7.txt"}) {
+            Path file = base.resolve(name);
+            Files.writeString(file, "y");
+            index.refresh(file);
+        }
+        assertIndexed(new SearchIndex.Query("report-7", SearchIndex.Mode.PREFIX, null, null, null, null, null, null), base);
+        assertIndexed(new SearchIndex.Query("rt-7", SearchIndex.Mode.SUBSTRING, null, null, null, null, null, null), base);
+        assertIndexed(new SearchIndex.Query("*report-7*.txt", SearchIndex.Mode.GLOB, null, null, null, null, null, null), base);
+        assertIndexed(new SearchIndex.Query("RE?ORT-7*", SearchIndex.Mode.GLOB, null, null, null, null, null, null),
+                base.resolve("dir1"));
+        assertIndexed(new SearchIndex.Query("rt-7", SearchIndex.Mode.SUBSTRING, List.of("txt"), 1L, null, null, null, null),
+                base.resolve("dir2"));
+
+        // 删除子树后其中的名称不再命中
+        FileUtils.deleteDirectory(base.resolve("dir1").toFile());
+        index.remove(base.resolve("dir1"));
+        SearchIndex.Query prefix = new SearchIndex.Query("report-7", SearchIndex.Mode.PREFIX, null, null, null, null, null, null);
+        assertIndexed(prefix, base);
+        assertEquals(List.of("dir0/sub1/Report-77.md"),
+                index.search(base, prefix, 10, null).hits().stream().map(SearchIndex.Hit::path).toList());
+    }
+
+    public void testHooksUpdateIndex() throws Exception {
+        Path created = base.resolve("new/deep/unique-name.bin");
+        Files.createDirectories(created.getParent());
+        Files.writeString(created, "abc");
+        index.refresh(created);
+        assertEquals("new/deep/unique-name.bin", search("unique", SearchIndex.Mode.SUBSTRING, null).get(0).path());
+
+        Path moved = base.resolve("dir0/renamed");
+        Files.move(base.resolve("new"), moved);
+        index.move(base.resolve("new"), moved);
+        assertEquals("dir0/renamed/deep/unique-name.bin", search("unique", SearchIndex.Mode.SUBSTRING, null).get(0).path());
+
+        FileUtils.deleteDirectory(moved.toFile());
+        index.remove(moved);
+        assertTrue(search("unique", SearchIndex.Mode.SUBSTRING, null).isEmpty());
+        assertEquals(30L, index.stats().get("files"));
+    }
+
+    public void testUsageWithoutSearch() throws Exception {
+        index.shutdown();
+        DirectoryUsage usage = new DirectoryUsage(true);
+        index = newIndex(false, usage);
+        assertEquals(new DirectoryUsage.Usage(435, 30, 9), usage.usage(base));
+        assertEquals(Map.of("dir0", 135L, "dir1", 145L, "dir2", 155L), usage.childDirectorySizes(base));
+        assertEquals(0, index.stats().get("distinctNames"));
+        try {
+            search("report", SearchIndex.Mode.PREFIX, null);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+
+        // 两项都关闭时不建立目录树
+        SearchIndex none = new SearchIndex(base.toString(), false, 1, watcher, new DirectoryUsage(false));
+        none.start();
+        assertFalse(none.isReady());
+        none.shutdown();
+    }
+
+    public void testDirectorySizesPropagate() throws Exception {
+        assertEquals(new DirectoryUsage.Usage(435, 30, 9), index.usage(base));
+        assertEquals(Map.of("dir0", 135L, "dir1", 145L, "dir2", 155L), index.childDirectorySizes(base));
+
+        // 新建：新目录连同文件计入所有祖先
+        Path created = base.resolve("dir0/sub1/new/big.bin");
+        Files.createDirectories(created.getParent());
+        Files.write(created, new byte[1000]);
+        index.refresh(created);
+        assertEquals(1135L, (long) index.childDirectorySizes(base).get("dir0"));
+        for (String dir : new String[]{"", "dir0", "dir0/sub1", "dir0/sub1/new"}) {
+            assertUsage(base.resolve(dir));
+        }
+
+        // 大小变化只叠加差值
+        Files.write(created, new byte[10]);
+        index.refresh(created);
+        assertEquals(145L, (long) index.childDirectorySizes(base).get("dir0"));
+        assertUsage(base);
+        assertUsage(base.resolve("dir0/sub1"));
+
+        // 移动：源路径各级祖先减少，目标路径各级祖先增加
+        Path moved = base.resolve("dir2/sub0/moved");
+        Files.move(created.getParent(), moved);
+        index.move(created.getParent(), moved);
+        assertEquals(Map.of("dir0", 135L, "dir1", 145L, "dir2", 165L), index.childDirectorySizes(base));
+        for (String dir : new String[]{"", "dir0", "dir0/sub1", "dir2", "dir2/sub0", "dir2/sub0/moved"}) {
+            assertUsage(base.resolve(dir));
+        }
+
+        // 删除文件与整个子树
+        Files.delete(moved.resolve("big.bin"));
+        index.remove(moved.resolve("big.bin"));
+        assertUsage(base.resolve("dir2"));
+        FileUtils.deleteDirectory(base.resolve("dir1").toFile());
+        index.remove(base.resolve("dir1"));
+        assertEquals(Map.of("dir0", 135L, "dir2", 155L), index.childDirectorySizes(base));
+        assertUsage(base);
+        assertNull(index.usage(base.resolve("dir1")));
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * 命中后内容一致、文件修改后失效；一次性扫描大量新文件不会挤掉被反复访问的热点文件
+ */
+public class SmallFileCacheTest extends TestCase {
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("small_file_cache_");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private static ByteBuffer get(SmallFileCache cache, Path file) throws Exception {
+        return cache.get(file, Files.readAttributes(file, BasicFileAttributes.class));
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    public void testHitAndInvalidateOnChange() throws Exception {
+        SmallFileCache cache = new SmallFileCache(true, 1024, 1 << 20, null);
+        Path file = dir.resolve("icon.svg");
+        Files.writeString(file, "<svg/>");
+
+        assertEquals("<svg/>", text(get(cache, file)));
+        assertEquals("<svg/>", text(get(cache, file)));
+        assertEquals(1L, cache.stats().get("hits"));
+        assertEquals(6L, cache.stats().get("bytesSaved"));
+
+        Files.writeString(file, "<svg></svg>");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        assertEquals("<svg></svg>", text(get(cache, file)));
+        assertEquals(1L, cache.stats().get("invalidations"));
+
+        assertNull(get(cache, Files.write(dir.resolve("large.bin"), new byte[2048])));
+    }
+
+    public void testScanDoesNotEvictHotFiles() throws Exception {
+        // 容量为 4 个 100 字节的文件
+        SmallFileCache cache = new SmallFileCache(true, 1024, 400, null);
+        Path[] hot = new Path[4];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = Files.writeString(dir.resolve("hot" + i), "h".repeat(100));
+        }
+        for (int round = 0; round < 5; round++) {
+            for (Path file : hot) {
+                assertNotNull(get(cache, file));
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            get(cache, Files.writeString(dir.resolve("scan" + i), "s".repeat(100)));
+        }
+        long hitsBefore = (long) cache.stats().get("hits");
+        for (Path file : hot) {
+            get(cache, file);
+        }
+        assertEquals(hitsBefore + 4, cache.stats().get("hits"));
+        assertEquals(0L, cache.stats().get("evictions"));
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.example.model.FileInfo;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * 缩放到尺寸档位内并保持比例；相同内容不同路径共用缓存；超出上限时淘汰最久未访问的条目
+ */
+public class ThumbnailServiceTest extends TestCase {
+
+    private Path dir;
+    private ChecksumService checksums;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("thumbnail_");
+        checksums = new ChecksumService(1, dir.resolve("index.bin").toString());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        checksums.shutdown();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private Path image(String name, int width, int height, Color color) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        Path file = dir.resolve(name);
+        ImageIO.write(image, "png", file.toFile());
+        return file;
+    }
+
+    public void testScaleAndShareByContent() throws Exception {
+        ThumbnailService service = new ThumbnailService(true, dir.resolve("thumbs").toString(),
+                1 << 20, 2, 4, 10, checksums);
+        try {
+            Path original = image("a.png", 2000, 1000, Color.RED);
+            ThumbnailService.Thumbnail thumbnail = service.get(original, 200).get();
+            BufferedImage scaled = ImageIO.read(thumbnail.file().toFile());
+            assertEquals(256, scaled.getWidth());
+            assertEquals(128, scaled.getHeight());
+            assertEquals("image/jpeg", thumbnail.contentType());
+            assertEquals(thumbnail.etag(), service.cachedEtag(original, 256));
+
+            Path copy = dir.resolve("copy.png");
+            Files.copy(original, copy);
+            assertEquals(thumbnail.file(), service.get(copy, 256).get().file());
+            assertEquals(1L, service.stats().get("generated"));
+            assertEquals(1L, service.stats().get("hits"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        Path a = image("a.png", 300, 300, Color.RED);
+        Path b = image("b.png", 300, 300, Color.GREEN);
+        Path c = image("c.png", 300, 300, Color.BLUE);
+        // 纯色缩略图大小几乎相同：上限取 2.5 个，容得下两个
+        ThumbnailService probe = new ThumbnailService(true, dir.resolve("probe").toString(), 1 << 20, 1, 4, 10, checksums);
+        long one = Files.size(probe.get(a, 64).get().file());
+        probe.shutdown();
+
+        ThumbnailService service = new ThumbnailService(true, dir.resolve("thumbs").toString(),
+                one * 5 / 2, 1, 4, 10, checksums);
+        try {
+            Path first = service.get(a, 64).get().file();
+            Path second = service.get(b, 64).get().file();
+            service.get(a, 64).get();
+            Path third = service.get(c, 64).get().file();
+            assertTrue(Files.exists(first));
+            assertFalse(Files.exists(second));
+            assertTrue(Files.exists(third));
+            assertEquals(1L, service.stats().get("evicted"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    public void testPrefetchInBackground() throws Exception {
+        image("a.png", 300, 200, Color.RED);
+        image("b.png", 200, 300, Color.GREEN);
+        List<FileInfo> listing = List.of(new FileInfo("a.png", false, "1", 0), new FileInfo("b.png", false, "1", 0),
+                new FileInfo("notes.txt", false, "1", 0), new FileInfo("sub", true, "0", 0));
+        ThumbnailService service = new ThumbnailService(true, dir.resolve("thumbs").toString(),
+                1 << 20, 1, 4, 10, checksums);
+        try {
+            // 调用方只提交一个扫描任务，校验和与生成都在线程池中完成
+            service.prefetch(dir, listing);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((Long) service.stats().get("generated") < 2) {
+                assertTrue("预生成未完成", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+            // 已有缓存的图片不再提交
+            service.prefetch(dir, listing);
+            while ((Integer) service.stats().get("queued") > 0) {
+                Thread.sleep(20);
+            }
+            assertEquals(2L, service.stats().get("generated"));
+            assertEquals(0L, service.stats().get("hits"));
+        } finally {
+            service.shutdown();
+        }
+    }
+}
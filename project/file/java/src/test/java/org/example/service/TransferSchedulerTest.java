@@ -0,0 +1,74 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 令牌桶限制全局与单个客户端的速率；全局排队时小传输按权重优先
+ */
+public class TransferSchedulerTest extends TestCase {
+
+    private static void send(TransferScheduler scheduler, String client, long expected, int bytes) throws Exception {
+        try (TransferScheduler.Transfer transfer = scheduler.open(client, TransferScheduler.DOWNLOAD, expected)) {
+            OutputStream out = transfer.output(OutputStream.nullOutputStream());
+            out.write(new byte[bytes]);
+        }
+    }
+
+    public void testLimits() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(0, 1_000_000, 0, 0, 4 << 20, 4, 200);
+        long start = System.nanoTime();
+        // 桶容量 200KB，其余 400KB 按 1MB/s 发送
+        send(scheduler, "a", -1, 600_000);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("elapsed " + elapsed, elapsed >= 300 && elapsed < 3000);
+
+        // 其他客户端有自己的令牌桶；取消限制后不再等待
+        start = System.nanoTime();
+        send(scheduler, "b", -1, 200_000);
+        scheduler.updateLimits(Map.of("downloadClientBytesPerSecond", 0L));
+        send(scheduler, "a", -1, 10_000_000);
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 300);
+
+        try {
+            scheduler.updateLimits(Map.of("downloadGlobalBytesPerSecond", -1L));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse(scheduler.isShapingDownloads());
+    }
+
+    public void testSmallTransfersGetWeightedShare() throws Exception {
+        TransferScheduler scheduler = new TransferScheduler(4_000_000, 0, 0, 0, 4 << 20, 4, 50);
+        List<Thread> bulk = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            String client = "bulk" + i;
+            Thread thread = new Thread(() -> {
+                try {
+                    send(scheduler, client, -1, 2_000_000);
+                } catch (Exception ignored) {
+                }
+            });
+            thread.start();
+            bulk.add(thread);
+        }
+        Thread.sleep(200);
+
+        // 4 个大传输各占权重 1，小传输权重 4，应分到约一半速率（约 0.5 秒）；平均分配需要约 1.25 秒
+        long start = System.nanoTime();
+        send(scheduler, "small", 1_000_000, 1_000_000);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("elapsed " + elapsed, elapsed < 900);
+        for (Thread thread : bulk) {
+            assertTrue(thread.isAlive());
+        }
+        for (Thread thread : bulk) {
+            thread.join();
+        }
+        assertEquals(9_000_000L, ((Map<?, ?>) scheduler.stats().get("download")).get("bytes"));
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 并行复制的内容、修改时间、权限与符号链接；文件系统不支持克隆时退回普通复制
+ */
+public class TreeCopierTest extends TestCase {
+
+    private Path dir;
+    private JobService jobs;
+    private TreeCopier copier;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Files.createTempDirectory("tree_copy_");
+        jobs = new JobService(1, 10, 60, "");
+        // 目录树整体先尝试一次克隆；不支持时删除 cp 留下的部分再逐个复制
+        copier = new TreeCopier(4, true, 0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        copier.shutdown();
+        jobs.shutdown();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    public void testCopyPreservesContentAndAttributes() throws Exception {
+        Path source = dir.resolve("src");
+        for (int i = 0; i < 40; i++) {
+            Path sub = source.resolve("d" + (i % 5)).resolve("e" + (i % 2));
+            Files.createDirectories(sub);
+            Files.writeString(sub.resolve("f" + i), "x".repeat(i));
+        }
+        // 超过分段大小，走分段复制
+        byte[] big = new byte[9 * 1024 * 1024 + 123];
+        Arrays.fill(big, (byte) 7);
+        Path bigFile = source.resolve("big.bin");
+        Files.write(bigFile, big);
+        Files.setLastModifiedTime(bigFile, FileTime.fromMillis(1_600_000_000_000L));
+        Files.setPosixFilePermissions(bigFile, PosixFilePermissions.fromString("rw-r-----"));
+        Files.createSymbolicLink(source.resolve("link"), Path.of("big.bin"));
+
+        Path target = dir.resolve("dst");
+        JobService.Job job = jobs.submit("copy", "src", j -> copier.copy(source, target, j));
+        for (int i = 0; i < 500 && job.state().ordinal() < JobService.State.SUCCEEDED.ordinal(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(JobService.State.SUCCEEDED, job.state());
+        assertEquals(42L, job.toMap().get("filesDone"));
+        assertEquals(780L + big.length, job.toMap().get("bytesDone"));
+
+        assertEquals("x".repeat(39), Files.readString(target.resolve("d4/e1/f39")));
+        assertTrue(Arrays.equals(big, Files.readAllBytes(target.resolve("big.bin"))));
+        assertEquals(1_600_000_000_000L, Files.getLastModifiedTime(target.resolve("big.bin")).toMillis());
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(target.resolve("big.bin"))));
+        assertEquals(Path.of("big.bin"), Files.readSymbolicLink(target.resolve("link")));
+        assertEquals(Files.getLastModifiedTime(source.resolve("d2")), Files.getLastModifiedTime(target.resolve("d2")));
+        // 克隆与普通复制二者择一，不会重复计数
+        Map<String, Object> stats = copier.stats();
+        assertTrue(stats.toString(), (Long) stats.get("clonedFiles") == 0 ? (Long) stats.get("copiedFiles") == 41
+                : (Long) stats.get("clonedFiles") == 41 && (Long) stats.get("copiedFiles") == 0);
+    }
+}
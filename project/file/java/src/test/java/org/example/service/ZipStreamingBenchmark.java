@@ -0,0 +1,107 @@
+package org.example.service;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * 目录打包基准：对比旧的临时文件方式与流式输出的首字节时间和整体吞吐。
+ * 不在默认测试中运行，手动执行：
+ * mvn test -Dtest=ZipStreamingBenchmark -Dbench.files=200 -Dbench.fileSize=1048576
+ */
+public class ZipStreamingBenchmark extends TestCase {
+
+    /**
+     * 模拟客户端：丢弃数据，记录首字节到达时间
+     */
+    private static class TimingSink extends OutputStream {
+        final long start = System.nanoTime();
+        long firstByteNanos = -1;
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (firstByteNanos < 0 && len > 0) {
+                firstByteNanos = System.nanoTime() - start;
+            }
+            bytes += len;
+        }
+    }
+
+    private final DirectoryArchiver archiver = new DirectoryArchiver(0, 6, 1024 * 1024,
+            new ZipEntryPolicy(true, 0.05), new ArchiveStats());
+
+    public void testCompare() throws IOException {
+        int files = Integer.getInteger("bench.files", 200);
+        int fileSize = Integer.getInteger("bench.fileSize", 1024 * 1024);
+        Path dir = createTree(files, fileSize);
+        try {
+            // 预热一次，避免 JIT 与页缓存影响第一组结果
+            streaming(dir);
+            tempFile(dir);
+
+            report("temp-file", tempFile(dir), (long) files * fileSize);
+            report("streaming", streaming(dir), (long) files * fileSize);
+        } finally {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private TimingSink streaming(Path dir) throws IOException {
+        TimingSink sink = new TimingSink();
+        archiver.write(dir, "bench", sink);
+        return sink;
+    }
+
+    // 旧实现：先完整写入临时 zip，再从磁盘读出发送
+    private TimingSink tempFile(Path dir) throws IOException {
+        TimingSink sink = new TimingSink();
+        Path zip = Files.createTempFile("zip_temp_", ".zip");
+        try {
+            try (OutputStream out = Files.newOutputStream(zip)) {
+                archiver.write(dir, "bench", out);
+            }
+            try (InputStream in = Files.newInputStream(zip)) {
+                in.transferTo(sink);
+            }
+        } finally {
+            Files.deleteIfExists(zip);
+        }
+        return sink;
+    }
+
+    private void report(String name, TimingSink sink, long inputBytes) {
+        double totalSeconds = (System.nanoTime() - sink.start) / 1e9;
+        System.out.printf("%-10s ttfb=%8.2fms total=%8.2fms throughput=%8.1fMB/s output=%dB%n",
+                name, sink.firstByteNanos / 1e6, totalSeconds * 1e3,
+                inputBytes / totalSeconds / (1024 * 1024), sink.bytes);
+    }
+
+    private Path createTree(int files, int fileSize) throws IOException {
+        Path dir = Files.createTempDirectory("zip_bench_");
+        Random random = new Random(42);
+        byte[] data = new byte[fileSize];
+        for (int i = 0; i < files; i++) {
+            // 一半随机数据一半重复数据，接近真实目录的压缩比
+            random.nextBytes(data);
+            for (int j = fileSize / 2; j < fileSize; j++) {
+                data[j] = (byte) (j % 64);
+            }
+            Path sub = dir.resolve("d" + (i % 10));
+            Files.createDirectories(sub);
+            Files.write(sub.resolve("file" + i + ".bin"), data);
+        }
+        return dir;
+    }
+}